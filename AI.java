@@ -1,171 +1,1162 @@
 package tictactoe;
 
-import javafx.util.Pair;
-
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class AI {
+public class AI implements Strategy {
 
     /**
      * This class is for an AI player. It contains a single public method, which takes in a grid and it will choose the
-     * best spot to play its next move
+     * best spot to play its next move. The search works on two masks, one per player, where bit i is set if the
+     * player occupies spot i of the board (see BoardGeometry). It is a negamax with alpha-beta pruning, deepened one
+     * ply at a time until the position is solved or the time budget runs out, with positions past the search depth
+     * scored by counting the lines each player could still complete. Moves are made on copies of the masks held in
+     * local variables, so searching on one thread does not allocate anything. The search can also run on several
+     * threads, which share the transposition table and a stop flag but each have their own move ordering state.
+     * On boards with lines of four or more, such as Qubic, the AI also looks for threat sequences: it plays one that
+     * wins straight away, leaves out moves at the root that let the opponent start one, and scores positions at the
+     * end of the search as won if a short one starts from them
      */
 
+    public static final int WIN_SCORE = 30000; // Score of an immediate win, reduced by one for every ply it takes
+    public static final int MATE_THRESHOLD = WIN_SCORE - 100; // Scores past this are forced wins or losses
+    public static final int NO_SCORE = Integer.MIN_VALUE; // Score of a spot that cannot be played or was not scored
+    public static final long DEFAULT_TIME_BUDGET = 1000; // Milliseconds per move
+    public static final int DEFAULT_SPLIT_THRESHOLD = 12; // Fewest empty spots for a position to be split between threads
+
+    private static final int AI_PLAYER = 1;
+    private static final int USER_PLAYER = 2;
+    private static final int INFINITY = 32000;
+    private static final int MAX_SPLIT_PLY = 2; // Subtrees are only split between threads this close to the root
+    private static final int MIN_SPLIT_DEPTH = 4; // Subtrees are only split if they are searched at least this deep
+    private static final int MIN_THREAT_LENGTH = 4; // Threat sequences are searched for on boards with lines this long
+    private static final int MAX_THREAT_MOVES = 10; // Most moves of its own a threat sequence may take
+    private static final int ATTACK_NODE_LIMIT = 200000; // Most positions visited looking for a threat sequence to win
+    private static final int DEFENCE_NODE_LIMIT = 10000; // And looking for one against each move at the root
+    private static final int LEAF_NODE_LIMIT = 200; // And looking for one at the end of the main search
+    private static final int SOLVE_EMPTY = 10; // Scoring moves starts at full depth with this few empty spots
+
+    private final BoardGeometry geometry;
+    private final TranspositionTable table; // Positions searched so far, kept between moves and possibly games
+    private final PolicyTable policy; // Precomputed moves, null to always search
+    private final SolvedTable solved; // Solved positions of the 4x4 board, null to search
+    private final int[] weights; // Value of a line holding a number of one player's spots and none of the other's
+    private final Worker worker; // Searches on the calling thread, and keeps its history between moves
+    private final AtomicLong nodes = new AtomicLong(); // Nodes visited by every thread during the last search
+    private long timeBudget = DEFAULT_TIME_BUDGET;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int parallelism = 1;
+    private int splitThreshold = DEFAULT_SPLIT_THRESHOLD;
+    private ForkJoinPool pool; // Created the first time a search runs in parallel
+    private long deadline; // System.nanoTime after which the current search stops
+    private volatile boolean stopped; // Set when the time budget runs out or stop is called, seen by every thread
+    private final AtomicLong generation = new AtomicLong(); // Moved on by stop, see Strategy
+    private long excluded; // Spots not searched at the root, because the opponent has a threat sequence after them
+    private boolean splitting; // True if the current search runs on several threads
+    private int bestIndex; // Best spot found by the last completed iteration
+    private int bestScore; // Score of the best spot found by the last completed iteration
+    private int completedDepth;
+
+    /**
+     * New AI for the classic board with a transposition table of its own
+     */
+    public AI() {
+        this(BoardGeometry.CLASSIC);
+    }
+
+    /**
+     * New AI for the given board with a transposition table of its own
+     * @param geometry the board the AI plays on
+     */
+    public AI(BoardGeometry geometry) {
+        this(geometry, new TranspositionTable(1 << 16));
+    }
+
+    /**
+     * New AI using the given transposition table, which may be shared with other AI players on the same board that do
+     * not search at the same time. On the classic board, moves are looked up in the bundled policy table if it is
+     * available, and on the 4x4 board with 4 in a row in the solved table made by RetrogradeSolver if there is one
+     * @param geometry the board the AI plays on
+     * @param table transposition table to use
+     */
+    public AI(BoardGeometry geometry, TranspositionTable table) {
+        this(geometry, table, geometry.isClassic() ? PolicyTable.getDefault() : null,
+                geometry.equals(SolvedTable.GEOMETRY) ? SolvedTable.getDefault() : null);
+    }
+
+    /**
+     * New AI using the given transposition table and policy table
+     * @param geometry the board the AI plays on
+     * @param table transposition table to use
+     * @param policy precomputed moves to play, or null to search every move. Only used on the classic board
+     */
+    public AI(BoardGeometry geometry, TranspositionTable table, PolicyTable policy) {
+        this(geometry, table, policy, null);
+    }
+
+    /**
+     * New AI using the given transposition table, policy table and solved table
+     * @param geometry the board the AI plays on
+     * @param table transposition table to use
+     * @param policy precomputed moves to play, or null to search every move. Only used on the classic board
+     * @param solved solved positions to play from, or null to search. Only used on the 4x4 board with 4 in a row
+     */
+    public AI(BoardGeometry geometry, TranspositionTable table, PolicyTable policy, SolvedTable solved) {
+        this.geometry = geometry;
+        this.table = table;
+        this.policy = geometry.isClassic() ? policy : null;
+        this.solved = geometry.equals(SolvedTable.GEOMETRY) ? solved : null;
+        weights = new int[geometry.getWinLength() + 1];
+
+        for (int count = 1; count < weights.length; count++) {
+            weights[count] = weights[count - 1] * 3 + 1;
+        }
+
+        worker = new Worker(null);
+    }
+
     /**
      * Chooses a place to play a move on the given grid
      * @param nonFlatBoard grid
-     * @return a pair with key the index of the column to play, value the row to play
+     * @return an entry with key the index of the column to play, value the row to play
      */
-    public Pair<Integer, Integer> chooseSquare(int[][] nonFlatBoard) {
+    public Map.Entry<Integer, Integer> chooseSquare(int[][] nonFlatBoard) {
 
         int index = 0;
-        int[] board = new int[9];
+        long aiMask = 0;
+        long userMask = 0;
 
-        // First of all flatten the board, to make it easier to implement the algorithm
+        // First of all flatten the board into the two player masks
         for (int[] column : nonFlatBoard) {
 
             for (int row : column) {
-                board[index] = row;
+
+                if (row == AI_PLAYER) {
+                    aiMask |= 1L << index;
+                }
+
+                else if (row == USER_PLAYER) {
+                    userMask |= 1L << index;
+                }
+
                 index++;
             }
         }
 
-        int playIndex = minimax(board, 1).getKey(); // Retrieve the index to the spot to play
-        return new Pair<Integer, Integer>((int) playIndex / 3, playIndex % 3);
+        int playIndex = chooseIndex(aiMask, userMask); // Retrieve the index to the spot to play
+        return new AbstractMap.SimpleImmutableEntry<Integer, Integer>(geometry.columnOf(playIndex),
+                geometry.rowOf(playIndex));
+    }
+
+    /**
+     * Chooses a spot for the player to move in the given state
+     * @param state a game that is not over
+     * @param generation the generation when the move was asked for, from getGeneration
+     * @return index of the spot to play
+     */
+    @Override
+    public int chooseMove(GameState state, long generation) {
+        int player = state.getCurrentPlayer();
+        return chooseIndex(state.getMask(player), state.getMask(3 - player), generation);
+    }
+
+    /**
+     * Chooses a spot to play in the current generation
+     * @param aiMask spots occupied by the AI
+     * @param userMask spots occupied by the user
+     * @return index of the spot to play
+     */
+    int chooseIndex(long aiMask, long userMask) {
+        return chooseIndex(aiMask, userMask, generation.get());
     }
 
     /**
-     * Finds the index with the maximum score and returns it, along with the score if is the AI player's turn, otherwise
-     * finds the index of the minimum score and returns it, along with the score
-     * @param board grid
-     * @param player current player, 1 if AI, 2 if user
-     * @return pair containing index and max/min score
+     * Chooses a spot to play, looking it up in the policy or solved table if there is one and searching for it
+     * otherwise
+     * @param aiMask spots occupied by the AI
+     * @param userMask spots occupied by the user
+     * @param generation the generation the search belongs to
+     * @return index of the spot to play
      */
-    private Pair<Integer, Integer> minimax(int[] board, int player) {
-        // ArrayList of pairs containing indexes and the outcome of playing a move there
-        ArrayList<Pair<Integer, Integer>> scores = new ArrayList<Pair<Integer, Integer>>();
+    private int chooseIndex(long aiMask, long userMask, long generation) {
+        AISearchEvent event = new AISearchEvent();
+        event.begin();
+        long hits = table.getHits();
+        long misses = table.getMisses();
+        int move = policy == null ? PolicyTable.NO_MOVE : policy.bestMove((int) aiMask, (int) userMask);
+        String strategy = "policy";
+        int empties = geometry.getCells() - Long.bitCount(aiMask | userMask);
 
-        for (int i : emptySpaces(board)) {
-            scores.add(new Pair<Integer, Integer>(i, playingOutcome(board, i, player))); // Add indexes of empty spaces
-            // and outcomes
+        if (move != PolicyTable.NO_MOVE) {
+            nodes.set(0);
+            completedDepth = empties;
+            bestScore = policy.score((int) aiMask, (int) userMask);
         }
 
-        if (player == 1) { // If the current player if the AI, find the index with the highest score and return it
-            Pair<Integer, Integer> maxScorePair = scores.get(0);
+        else if (solved != null && (move = solved.bestMove((int) aiMask, (int) userMask)) != -1) {
+            int value = solved.value((int) aiMask, (int) userMask);
+            strategy = "solved";
+            nodes.set(0);
+            completedDepth = empties;
 
-            for (Pair<Integer, Integer> score : scores) {
+            // The table does not keep how far away a win is, so score it as if it came on the last move
+            bestScore = value == SolvedTable.WIN ? WIN_SCORE - empties : value == SolvedTable.LOSS ? empties - WIN_SCORE
+                    : 0;
+        }
+
+        else {
+            strategy = "minimax";
+            move = search(aiMask, userMask, generation);
+        }
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.strategy = strategy;
+            event.board = geometry.toString();
+            event.nodes = nodes.get();
+            event.depth = completedDepth;
+            event.move = move;
+            event.score = bestScore;
+            event.tableHits = table.getHits() - hits; // Includes other players probing a shared table meanwhile
+            event.tableMisses = table.getMisses() - misses;
+            event.commit();
+        }
+
+        return move;
+    }
+
+    /**
+     * Stops a search running on another thread as soon as possible. The search then returns the best spot found by
+     * the deepest search it finished, or the first empty spot if it had not finished one
+     */
+    @Override
+    public void stop() {
+        generation.incrementAndGet();
+        stopped = true;
+    }
+
+    /**
+     * Gets the generation of searches that stop has not stopped
+     * @return number of times stop has been called
+     */
+    @Override
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Clears the stopped flag for a new search, unless the search's generation has already been stopped. The flag is
+     * only ever set after being cleared, so a stop landing at the same time is never lost
+     * @param search the generation the search belongs to
+     */
+    private void startSearch(long search) {
+        stopped = false;
+
+        if (generation.get() != search) {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Sets how long the AI may spend on each move. When the time runs out the AI plays the best spot found by the
+     * deepest search it finished
+     * @param millis time budget in milliseconds
+     */
+    public void setTimeBudget(long millis) {
+        timeBudget = millis;
+    }
+
+    /**
+     * Sets the deepest the AI will search, in plies. A limited AI plays weaker but faster
+     * @param plies maximum search depth
+     */
+    public void setMaxDepth(int plies) {
+        maxDepth = plies;
+    }
+
+    /**
+     * Sets how many threads the AI searches on. With more than one, each iteration searches the moves at the root on
+     * separate threads of a ForkJoinPool, and large subtrees near the root are split between threads too. The move
+     * chosen for a given depth is the same as with one thread. Positions with fewer empty spots than the split
+     * threshold are always searched on the calling thread
+     * @param threads number of threads, 1 to search on the calling thread only
+     */
+    public void setParallelism(int threads) {
+
+        if (threads != parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+
+        parallelism = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the fewest empty spots a position must have for its moves to be searched on separate threads
+     * @param empty split threshold
+     */
+    public void setSplitThreshold(int empty) {
+        splitThreshold = empty;
+    }
 
-                if (score.getValue() > maxScorePair.getValue()) {
-                     maxScorePair = score;
+    /**
+     * Gets the board the AI plays on
+     * @return board geometry
+     */
+    @Override
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Gets the number of nodes visited during the last search
+     * @return node count
+     */
+    public long getNodeCount() {
+        return nodes.get();
+    }
+
+    /**
+     * Gets the depth of the deepest search finished for the last move
+     * @return depth in plies
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Gets the transposition table used by this AI, which keeps hit and miss counts
+     * @return transposition table
+     */
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Gets the score of the move chosen by the last search, from the AI's point of view. A score past MATE_THRESHOLD
+     * means the AI wins, and the closer it is to WIN_SCORE the sooner the win. A score below -MATE_THRESHOLD means the
+     * AI loses, anything in between is a draw or an estimate
+     * @return score of the last chosen move
+     */
+    public int getLastScore() {
+        return bestScore;
+    }
+
+    /**
+     * Scores every empty spot for the player to move, one ply deeper at a time like a search for a move, until every
+     * score is a forced result, the maximum depth is reached or the time budget runs out. Each spot is searched with a
+     * full window so its score is exact at the depth reached, not just a bound as in the search for the best move. The
+     * search runs on the calling thread only, so several AI players sharing a transposition table can score different
+     * positions at once
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return the score of each spot, indexed like the board geometry, as in getLastScore. Occupied spots, and every
+     * spot if not even one ply was finished, hold NO_SCORE
+     */
+    public int[] scoreMoves(long own, long other) {
+        nodes.set(0);
+        startSearch(generation.get());
+        deadline = System.nanoTime() + timeBudget * 1000000;
+        completedDepth = 0;
+        excluded = 0;
+        splitting = false;
+        worker.startSearch();
+
+        long empty = ~(own | other) & geometry.getFullBoard();
+        int[] scores = new int[geometry.getCells()];
+        int[] searched = new int[geometry.getCells()];
+        Arrays.fill(scores, NO_SCORE);
+
+        int lastDepth = Math.min(Long.bitCount(empty), maxDepth);
+
+        // Shallow iterations only slow down a search that will reach the end anyway, as every spot gets a full window
+        for (int depth = lastDepth <= SOLVE_EMPTY ? lastDepth : 1; depth <= lastDepth; depth++) {
+            boolean settled = true; // True while every spot searched so far has a forced result
+            worker.nodeCount = 0;
+
+            for (long spots = empty; spots != 0 && !stopped; spots &= spots - 1) {
+                int i = Long.numberOfTrailingZeros(spots);
+                long played = own | (1L << i);
+
+                if (geometry.isWin(played, i)) {
+                    searched[i] = WIN_SCORE - 1;
+                }
+
+                else if ((played | other) == geometry.getFullBoard()) {
+                    searched[i] = 0;
+                }
+
+                else {
+                    searched[i] = -worker.negamax(other, played, depth - 1, -INFINITY, INFINITY, 1);
+                }
+
+                settled &= Math.abs(searched[i]) >= MATE_THRESHOLD;
+            }
+
+            nodes.addAndGet(worker.nodeCount);
+
+            if (stopped) {
+                break;
+            }
+
+            for (long spots = empty; spots != 0; spots &= spots - 1) {
+                int i = Long.numberOfTrailingZeros(spots);
+                scores[i] = searched[i];
+            }
+
+            completedDepth = depth;
+
+            if (settled) { // Searching deeper will not change any score
+                break;
+            }
+        }
+
+        return scores;
+    }
+
+    /**
+     * Searches the position with the AI to move one ply deeper at a time, until the result is known, every empty
+     * spot has been searched, the maximum depth is reached or the time budget runs out
+     * @param aiMask spots occupied by the AI
+     * @param userMask spots occupied by the user
+     * @param generation the generation the search belongs to
+     * @return index of the spot to play
+     */
+    private int search(long aiMask, long userMask, long generation) {
+        nodes.set(0);
+        startSearch(generation);
+        deadline = System.nanoTime() + timeBudget * 1000000;
+        bestIndex = -1;
+        bestScore = 0;
+        completedDepth = 0;
+        worker.startSearch();
+
+        int empty = geometry.getCells() - Long.bitCount(aiMask | userMask);
+        excluded = 0;
+
+        if (geometry.getWinLength() >= MIN_THREAT_LENGTH) { // Shorter lines are settled as quickly by the search
+            int threat = worker.findThreatWin(aiMask, userMask, ATTACK_NODE_LIMIT);
+
+            if (threat != -1) {
+                bestIndex = threat;
+                bestScore = WIN_SCORE - worker.threatPlies;
+                return threat;
+            }
+
+            excluded = findRefutedMoves(aiMask, userMask);
+        }
+
+        splitting = parallelism > 1 && empty >= splitThreshold; // Small positions are quicker on one thread
+
+        if (splitting && pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        for (int depth = 1; depth <= Math.min(empty, maxDepth); depth++) {
+            worker.killers[0] = bestIndex; // Try the best spot of the last iteration first
+            int move;
+            int score;
+
+            if (splitting) {
+                SplitPoint root = searchRootInParallel(aiMask, userMask, depth);
+
+                if (stopped) {
+                    break;
+                }
+
+                move = root.moves[root.getBestOrder()];
+                score = root.getBestScore();
+            }
+
+            else {
+                worker.nodeCount = 0;
+                score = worker.negamax(aiMask, userMask, depth, -INFINITY, INFINITY, 0);
+                move = worker.rootBest;
+                nodes.addAndGet(worker.nodeCount);
+            }
+
+            if (stopped) {
+                break;
+            }
+
+            bestIndex = move;
+            bestScore = score;
+            completedDepth = depth;
+
+            if (Math.abs(score) >= MATE_THRESHOLD) { // A forced result was found, searching deeper will not change it
+                break;
+            }
+        }
+
+        if (bestIndex == -1) { // Not even one ply was finished, so play the first empty spot in the static order
+
+            for (int i : geometry.getMoveOrder()) {
+
+                if (((aiMask | userMask) & (1L << i)) == 0) {
+                    bestIndex = i;
+                    break;
                 }
             }
+        }
+
+        return bestIndex;
+    }
+
+    /**
+     * Finds the spots at the root after which the opponent has a threat sequence, so the search can leave them out.
+     * If every spot loses that way, none are left out
+     * @param aiMask spots occupied by the AI
+     * @param userMask spots occupied by the user
+     * @return mask of the refuted spots
+     */
+    private long findRefutedMoves(long aiMask, long userMask) {
+        long empty = ~(aiMask | userMask) & geometry.getFullBoard();
+        long refuted = 0;
+
+        for (long spots = empty; spots != 0; spots &= spots - 1) {
+            long move = spots & -spots;
 
-            return maxScorePair;
+            if (worker.findThreatWin(userMask, aiMask | move, DEFENCE_NODE_LIMIT) != -1) {
+                refuted |= move;
+            }
         }
 
-        // If the current player is the user, find the index with the lowest score and return it
-        Pair<Integer, Integer> minScorePair = scores.get(0);
+        return refuted == empty ? 0 : refuted;
+    }
 
-        for (Pair<Integer, Integer> score : scores) {
+    /**
+     * Finds the spots that would complete a line for a player
+     * @param own spots occupied by the player
+     * @param other spots occupied by the opponent
+     * @return mask of the missing spot of every line the player holds all but one spot of, and the opponent none
+     */
+    private long winningSpots(long own, long other) {
+        long spots = 0;
+        int needed = geometry.getWinLength() - 1;
 
-            if (score.getValue() < minScorePair.getValue()) {
-                minScorePair = score;
+        for (long line : geometry.getLines()) {
+
+            if ((line & other) == 0 && Long.bitCount(line & own) == needed) {
+                spots |= line & ~own;
             }
         }
 
-        return minScorePair;
+        return spots;
     }
 
     /**
-     * Makes the move and returns the outcome of making that move
-     * @param board grid
-     * @param playIndex index of spot to make the move
-     * @param player the current player
-     * @return 10 if AI wins, -10 if user wins, 0 if draw
+     * Finds the spots that would leave a player one spot short of a line
+     * @param own spots occupied by the player
+     * @param other spots occupied by the opponent
+     * @return mask of the empty spots of every line the player holds all but two spots of, and the opponent none
      */
-    private int playingOutcome(int[] board, int playIndex, int player) {
-        // Make a new array to play that move
-        int[] newBoard = new int[9];
-        System.arraycopy(board, 0, newBoard, 0, board.length);
+    private long threatSpots(long own, long other) {
+        long spots = 0;
+        int needed = geometry.getWinLength() - 2;
 
-        newBoard[playIndex] = player; // Play that move
-        int winner = 0;
+        for (long line : geometry.getLines()) {
 
-        if (newBoard[0] == newBoard[1] && newBoard[1] == newBoard[2] && newBoard[0] != 0) {
-            winner = newBoard[0];
+            if ((line & other) == 0 && Long.bitCount(line & own) == needed) {
+                spots |= line & ~own;
+            }
         }
 
-        if (newBoard[3] == newBoard[4] && newBoard[4] == newBoard[5] && newBoard[3] != 0) {
-            winner = newBoard[3];
+        return spots;
+    }
+
+    /**
+     * Searches every move at the root on its own thread. Each move is searched with a window based on the best score
+     * found so far, and ties go to the move that comes first in the root order, so the result is the same as
+     * searching the moves one after another
+     * @param aiMask spots occupied by the AI
+     * @param userMask spots occupied by the user
+     * @param depth number of plies to search
+     * @return the root split point, holding the best score and the order of the best move
+     */
+    private SplitPoint searchRootInParallel(long aiMask, long userMask, int depth) {
+        int[] ordered = new int[geometry.getCells()];
+        int count = worker.orderMoves(aiMask | userMask, 0, -1, ordered);
+        int unique = 0;
+
+        for (int k = 0; k < count; k++) {
+
+            // Skip mirror images of other moves and moves that lose to a threat sequence
+            if (geometry.isUniqueMove(aiMask, userMask, ordered[k]) && (excluded & (1L << ordered[k])) == 0) {
+                ordered[unique++] = ordered[k];
+            }
         }
 
-        if (newBoard[6] == newBoard[7] && newBoard[7] == newBoard[8] && newBoard[6] != 0) {
-            winner = newBoard[6];
+        SplitPoint root = new SplitPoint(null, aiMask, userMask, depth, 0, -INFINITY, INFINITY,
+                Arrays.copyOf(ordered, unique));
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(root.tasks(0));
+            }
+        });
+        nodes.addAndGet(root.nodes.get());
+        return root;
+    }
+
+    /**
+     * Estimates a position that is not searched any deeper. Every line still open to only one player is worth more
+     * the more of its spots that player already holds
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return estimated score for the player to move, always closer to 0 than MATE_THRESHOLD
+     */
+    private int evaluate(long own, long other) {
+        int score = 0;
+
+        for (long line : geometry.getLines()) {
+            int ownCount = Long.bitCount(line & own);
+            int otherCount = Long.bitCount(line & other);
+
+            if (otherCount == 0) {
+                score += weights[ownCount];
+            }
+
+            else if (ownCount == 0) {
+                score -= weights[otherCount];
+            }
         }
 
-        if (newBoard[0] == newBoard[3] && newBoard[3] == newBoard[6] && newBoard[0] != 0) {
-            winner = newBoard[0];
+        return Math.max(-MATE_THRESHOLD + 1, Math.min(MATE_THRESHOLD - 1, score));
+    }
+
+    /**
+     * Converts a score measured from the root to one measured from the current position, so that it can be stored in
+     * the transposition table and reused at any ply
+     * @param score score counting plies from the root
+     * @param ply distance from the root of the search
+     * @return score counting plies from the current position
+     */
+    private static int toTable(int score, int ply) {
+        return score >= MATE_THRESHOLD ? score + ply : score <= -MATE_THRESHOLD ? score - ply : score;
+    }
+
+    /**
+     * Converts a score read from the transposition table back to one measured from the root
+     * @param score score counting plies from the stored position
+     * @param ply distance from the root of the search
+     * @return score counting plies from the root
+     */
+    private static int fromTable(int score, int ply) {
+        return score >= MATE_THRESHOLD ? score - ply : score <= -MATE_THRESHOLD ? score + ply : score;
+    }
+
+    private class Worker {
+
+        /**
+         * The state of one thread's search: the move lists, killer moves and history used to order moves, and the
+         * number of nodes visited. The calling thread has its own worker, which is kept between moves, and every
+         * parallel task gets a new one
+         */
+
+        private final int[][] moves; // Ordered moves for every ply, reused between searches
+        private final int[] killers; // Last move to cause a cutoff at each ply, -1 if none
+        private final int[] history; // Cutoff counts for every spot, weighted by remaining depth
+        private final SplitPoint split; // The split point this worker searches below, null on the calling thread
+        private long nodeCount;
+        private boolean aborted; // True once the search has run out of time or the split point has been cut off
+        private int rootBest; // Best spot found at the root
+        private long threatNodes; // Positions visited by the current threat search
+        private long threatLimit; // Positions the current threat search may visit
+        private int threatPlies; // Plies to the end of the last threat sequence found
+
+        // Canonical form of the last position passed to canonicalize
+        private long canonicalOwn;
+        private long canonicalOther;
+        private int canonicalSymmetry;
+
+        /**
+         * New Worker
+         * @param split the split point this worker searches below, or null
+         */
+        private Worker(SplitPoint split) {
+            int cells = geometry.getCells();
+            this.split = split;
+            moves = new int[cells + 1][cells];
+            killers = new int[cells + 1];
+            history = new int[cells];
+            Arrays.fill(killers, -1);
         }
 
-        if (newBoard[1] == newBoard[4] && newBoard[4] == newBoard[7] && newBoard[1] != 0) {
-            winner = newBoard[1];
+        /**
+         * Gets ready for a new search, clearing the killer moves and ageing the history from earlier searches so
+         * recent cutoffs count for more
+         */
+        private void startSearch() {
+            aborted = false;
+            Arrays.fill(killers, -1);
+
+            for (int i = 0; i < history.length; i++) {
+                history[i] >>= 1;
+            }
         }
 
-        if (newBoard[2] == newBoard[5] && newBoard[5] == newBoard[8] && newBoard[2] != 0) {
-            winner = newBoard[2];
+        /**
+         * Checks whether the search should stop, because the time budget has run out or because a split point above
+         * this worker has already been cut off
+         */
+        private void checkAborted() {
+
+            if (System.nanoTime() > deadline) {
+                stopped = true;
+            }
+
+            aborted = stopped || (split != null && split.isCut());
         }
 
-        if (newBoard[0] == newBoard[4] && newBoard[4] == newBoard[8] && newBoard[0] != 0) {
-            winner = newBoard[0];
+        /**
+         * Looks for a threat sequence: a run of moves that each leave the player one spot short of a line, so the
+         * opponent has to block it, until a move leaves two such spots and the opponent cannot block both. Only the
+         * player's threats and the opponent's forced blocks are played, so the sequences found are far longer than the
+         * main search can see. When a block leaves the opponent one spot short of a line, the next move has to block it
+         * and make a threat at the same time
+         * @param own spots occupied by the player to move
+         * @param other spots occupied by the opponent
+         * @param limit most positions to visit
+         * @return the first move of a winning sequence, or -1 if none was found. threatPlies is set to its length
+         */
+        private int findThreatWin(long own, long other, long limit) {
+            threatNodes = 0;
+            threatLimit = limit;
+            return findThreatWin(own, other, MAX_THREAT_MOVES);
         }
 
-        if (newBoard[2] == newBoard[4] && newBoard[4] == newBoard[6] && newBoard[2] != 0) {
-            winner = newBoard[2];
+        private int findThreatWin(long own, long other, int moves) {
+            long empty = ~(own | other) & geometry.getFullBoard();
+            long wins = winningSpots(own, other) & empty;
+
+            if (wins != 0) {
+                threatPlies = 1;
+                return Long.numberOfTrailingZeros(wins);
+            }
+
+            long blocks = winningSpots(other, own) & empty;
+
+            if (Long.bitCount(blocks) > 1 || moves == 0 || ++threatNodes > threatLimit
+                    || ((threatNodes & 1023) == 0 && System.nanoTime() > deadline)) {
+                return -1;
+            }
+
+            long candidates = blocks != 0 ? blocks : threatSpots(own, other) & empty;
+
+            for (; candidates != 0; candidates &= candidates - 1) {
+                int move = Long.numberOfTrailingZeros(candidates);
+                long played = own | (1L << move);
+                long threats = winningSpots(played, other) & empty & ~(1L << move);
+
+                if (Long.bitCount(threats) > 1) { // The opponent can only block one
+                    threatPlies = 3;
+                    return move;
+                }
+
+                if (threats != 0 && findThreatWin(played, other | threats, moves - 1) != -1) {
+                    threatPlies += 2;
+                    return move;
+                }
+            }
+
+            return -1;
         }
 
+        /**
+         * Negamax search with alpha-beta pruning. Scores are from the point of view of the player to move, and a win
+         * is worth less the more plies it takes to reach it, so the quickest win and the slowest loss are preferred.
+         * Below the root, positions are looked up in and stored to the transposition table, which is only trusted
+         * for positions searched to exactly the same depth so that the score of a position at a given depth never
+         * depends on what was searched before. At the root, moves that are mirror images of a move already searched
+         * are skipped. Near the root of a parallel search, large subtrees are split between threads once their
+         * first move has been searched
+         * @param own spots occupied by the player to move
+         * @param other spots occupied by the opponent
+         * @param depth number of plies left to search
+         * @param alpha lower bound of the search window
+         * @param beta upper bound of the search window
+         * @param ply distance from the root of the search
+         * @return score of the position for the player to move
+         */
+        private int negamax(long own, long other, int depth, int alpha, int beta, int ply) {
+
+            if ((++nodeCount & 1023) == 0) {
+                checkAborted();
+            }
+
+            if (aborted) {
+                return 0;
+            }
+
+            if (depth == 0) {
+
+                // A short threat sequence for the player to move is as good as a win the search can see
+                if (geometry.getWinLength() >= MIN_THREAT_LENGTH && findThreatWin(own, other, LEAF_NODE_LIMIT) != -1) {
+                    return WIN_SCORE - (ply + threatPlies);
+                }
+
+                return evaluate(own, other);
+            }
+
+            long occupied = own | other;
+            int empty = geometry.getCells() - Long.bitCount(occupied);
+            depth = Math.min(depth, empty); // Searching past the last empty spot is the same as searching to it
+            int tableMove = -1;
+            long keyOwn = 0;
+            long keyOther = 0;
+            int keySymmetry = 0;
+
+            if (ply > 0) {
+                canonicalize(own, other);
+                keyOwn = canonicalOwn;
+                keyOther = canonicalOther;
+                keySymmetry = canonicalSymmetry;
+                long entry = table.probe(keyOwn, keyOther);
+
+                if (entry != TranspositionTable.MISS) {
+
+                    if (TranspositionTable.moveOf(entry) != TranspositionTable.NO_MOVE) {
+                        tableMove = geometry.unmapSpot(keySymmetry, TranspositionTable.moveOf(entry));
+                    }
+
+                    if (TranspositionTable.depthOf(entry) == depth) {
+                        int stored = fromTable(TranspositionTable.scoreOf(entry), ply);
+                        int flag = TranspositionTable.flagOf(entry);
+
+                        if (flag == TranspositionTable.EXACT) {
+                            return stored;
+                        }
+
+                        else if (flag == TranspositionTable.LOWER_BOUND) {
+                            alpha = Math.max(alpha, stored);
+                        }
+
+                        else {
+                            beta = Math.min(beta, stored);
+                        }
+
+                        if (alpha >= beta) {
+                            return stored;
+                        }
+                    }
+                }
+            }
+
+            int windowAlpha = alpha; // The window actually searched, after any narrowing by the table
+            int windowBeta = beta;
+            int[] ordered = moves[ply];
+            int count = orderMoves(occupied, ply, tableMove, ordered);
+            int best = -INFINITY;
+            int bestMove = -1;
+
+            for (int k = 0; k < count; k++) {
+                int i = ordered[k];
+
+                if (ply == 0 && (!geometry.isUniqueMove(own, other, i) || (excluded & (1L << i)) != 0)) {
+                    continue; // A mirror image of another move, or a move that loses to a threat sequence
+                }
 
-        if (winner == 1) { // If winner is AI return 10
-            return 10;
+                long played = own | (1L << i); // Make the move on a copy of the mask, the caller's is left untouched
+                int score;
+
+                if (geometry.isWin(played, i)) { // The move wins, the sooner the better
+                    score = WIN_SCORE - (ply + 1);
+                }
+
+                else if ((played | other) == geometry.getFullBoard()) { // The move fills the board
+                    score = 0;
+                }
+
+                else { // Otherwise the opponent moves next, and their best outcome is our worst
+                    score = -negamax(other, played, depth - 1, -beta, -alpha, ply + 1);
+                }
+
+                if (aborted) {
+                    return 0;
+                }
+
+                if (score > best) {
+                    best = score;
+                    bestMove = i;
+
+                    if (ply == 0) {
+                        rootBest = i;
+                    }
+                }
+
+                if (best > alpha) {
+                    alpha = best;
+                }
+
+                if (alpha >= beta) { // The opponent will never allow this position, so stop searching it
+                    killers[ply] = bestMove;
+                    history[bestMove] += depth * depth;
+                    break;
+                }
+
+                // Once the first move has been searched, hand the rest of a large subtree to other threads
+                if (k == 0 && count > 1 && canSplit(ply, depth, empty)) {
+                    SplitPoint point = new SplitPoint(split, own, other, depth, ply, alpha, beta,
+                            Arrays.copyOf(ordered, count));
+                    point.offer(best, 0);
+                    ForkJoinTask.invokeAll(point.tasks(1));
+                    nodeCount += point.nodes.get();
+                    checkAborted();
+
+                    if (aborted) {
+                        return 0;
+                    }
+
+                    best = point.getBestScore();
+                    bestMove = point.moves[point.getBestOrder()];
+
+                    if (best >= beta) {
+                        killers[ply] = bestMove;
+                        history[bestMove] += depth * depth;
+                    }
+
+                    break;
+                }
+            }
+
+            if (ply > 0) {
+                int flag = best <= windowAlpha ? TranspositionTable.UPPER_BOUND
+                        : best >= windowBeta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+                table.store(keyOwn, keyOther, toTable(best, ply), flag, depth,
+                        geometry.mapSpot(keySymmetry, bestMove));
+            }
+
+            return best;
         }
 
-        else if (winner == 2) { // If winner is Player return -10
-            return -10;
+        /**
+         * Checks whether a node is worth splitting between threads: the search must be running in parallel, and the
+         * node must be near the root with a large subtree below it
+         * @param ply distance from the root of the search
+         * @param depth number of plies left to search
+         * @param empty number of empty spots
+         * @return true if the node's moves should be searched on separate threads
+         */
+        private boolean canSplit(int ply, int depth, int empty) {
+            return splitting && ply > 0 && ply <= MAX_SPLIT_PLY && depth >= MIN_SPLIT_DEPTH
+                    && empty >= splitThreshold && ForkJoinTask.inForkJoinPool();
         }
 
-        else if (emptySpaces(newBoard).size() == 0) { // If there are no more empty spaces return 0
-            return 0;
+        /**
+         * Finds the canonical form of a position, which is the same for every rotation and reflection of it, and
+         * stores it along with the symmetry that produces it in the canonical fields
+         * @param own spots occupied by the player to move
+         * @param other spots occupied by the opponent
+         */
+        private void canonicalize(long own, long other) {
+            canonicalOwn = own;
+            canonicalOther = other;
+            canonicalSymmetry = 0;
+
+            for (int s = 1; s < geometry.getSymmetryCount(); s++) {
+                long imageOwn = geometry.transform(s, own);
+                int compare = Long.compareUnsigned(imageOwn, canonicalOwn);
+
+                if (compare > 0) {
+                    continue;
+                }
+
+                long imageOther = geometry.transform(s, other);
+
+                if (compare < 0 || Long.compareUnsigned(imageOther, canonicalOther) < 0) {
+                    canonicalOwn = imageOwn;
+                    canonicalOther = imageOther;
+                    canonicalSymmetry = s;
+                }
+            }
         }
 
-        else { // If no winner, switch the current player and use recursion to find the eventual worst/best outcome
+        /**
+         * Fills the given array with the empty spaces in the order they should be searched. The best spot from the
+         * transposition table goes first, then the killer move for this ply, and the rest are sorted by history,
+         * falling back to the spots on the most lines. At the root the history is left out, so the root order only
+         * depends on the best spot of the last iteration
+         * @param occupied spots that are taken
+         * @param ply distance from the root of the search
+         * @param tableMove best spot from the transposition table, -1 if none
+         * @param ordered array to fill with the indexes to search
+         * @return number of indexes written to the array
+         */
+        private int orderMoves(long occupied, int ply, int tableMove, int[] ordered) {
+            int count = 0;
+            int killer = killers[ply];
 
-            if (player == 1) {
-                player = 2;
+            if (tableMove >= 0 && (occupied & (1L << tableMove)) == 0) {
+                ordered[count++] = tableMove;
             }
 
-            else {
-                player = 1;
+            if (killer >= 0 && killer != tableMove && (occupied & (1L << killer)) == 0) {
+                ordered[count++] = killer;
+            }
+
+            int start = count;
+
+            for (int i : geometry.getMoveOrder()) {
+
+                if ((occupied & (1L << i)) != 0 || i == killer || i == tableMove) {
+                    continue;
+                }
+
+                // Insertion sort by history, stable so that ties keep the static order
+                int k = count++;
+
+                while (ply > 0 && k > start && history[ordered[k - 1]] < history[i]) {
+                    ordered[k] = ordered[k - 1];
+                    k--;
+                }
+
+                ordered[k] = i;
             }
 
-            return minimax(newBoard, player).getValue();
+            return count;
         }
     }
 
-    /**
-     * Returns the empty spaces in the given board
-     * @param board grid
-     * @return ArrayList of the indexes of the empty spaces in this board
-     */
-    private ArrayList<Integer> emptySpaces(int[] board) {
-        ArrayList<Integer> emptySpaces = new ArrayList<Integer>();
+    private class SplitPoint {
+
+        /**
+         * A node whose moves are being searched on separate threads. The best score and the order of the move that
+         * gave it are packed into one long, with the score in the high half and the order inverted in the low half,
+         * so that a single atomic max keeps the highest score and, for equal scores, the move that comes first
+         */
+
+        private final SplitPoint parent; // The split point above this one, null at the top
+        private final long own;
+        private final long other;
+        private final int depth;
+        private final int ply;
+        private final int alpha;
+        private final int beta;
+        private final int[] moves; // The node's moves, in the order they would be searched on one thread
+        private final AtomicLong best = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong nodes = new AtomicLong();
+        private volatile boolean cut; // Set once a move reaches beta, so the other moves can stop
+
+        private SplitPoint(SplitPoint parent, long own, long other, int depth, int ply, int alpha, int beta,
+                           int[] moves) {
+            this.parent = parent;
+            this.own = own;
+            this.other = other;
+            this.depth = depth;
+            this.ply = ply;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.moves = moves;
+        }
+
+        /**
+         * Makes a task for each move from the given one onwards
+         * @param from order of the first move to make a task for
+         * @return the tasks
+         */
+        private ArrayList<RecursiveAction> tasks(int from) {
+            ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+
+            for (int order = from; order < moves.length; order++) {
+                int taskOrder = order;
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        searchMove(taskOrder);
+                    }
+                });
+            }
+
+            return tasks;
+        }
+
+        /**
+         * Searches one move with a new worker and offers its score. The window starts at the best score so far, or
+         * one below it if the best move comes later in the order, so that a move tying with a later one still gets
+         * its exact score and wins the tie
+         * @param order order of the move to search
+         */
+        private void searchMove(int order) {
+
+            if (stopped || isCut()) {
+                return;
+            }
+
+            Worker searcher = new Worker(this);
+            int move = moves[order];
+            int windowAlpha = alpha;
+            long packed = best.get();
+
+            if (packed != Long.MIN_VALUE) {
+                windowAlpha = Math.max(alpha, unpackOrder(packed) < order ? unpackScore(packed)
+                        : unpackScore(packed) - 1);
+            }
+
+            long played = own | (1L << move);
+            int score;
 
-        for (int i = 0; i < board.length; i++) {
+            if (geometry.isWin(played, move)) {
+                score = WIN_SCORE - (ply + 1);
+            }
+
+            else if ((played | other) == geometry.getFullBoard()) {
+                score = 0;
+            }
+
+            else {
+                score = -searcher.negamax(other, played, depth - 1, -beta, -windowAlpha, ply + 1);
+            }
+
+            nodes.addAndGet(searcher.nodeCount + 1);
+
+            if (!searcher.aborted) {
+                offer(score, order);
+            }
+        }
 
-            if (board[i] == 0) {
-                emptySpaces.add(i);
+        /**
+         * Records the score of a move, keeping it if it beats the best so far
+         * @param score score of the move
+         * @param order order of the move
+         */
+        private void offer(int score, int order) {
+            best.accumulateAndGet((long) score << 32 | (~order & 0xFFFFFFFFL), Math::max);
+
+            if (score >= beta) {
+                cut = true;
             }
         }
 
-        return emptySpaces;
+        /**
+         * Checks whether this split point or any above it has been cut off
+         * @return true if the moves here no longer need searching
+         */
+        private boolean isCut() {
+            return cut || (parent != null && parent.isCut());
+        }
+
+        private int getBestScore() {
+            return unpackScore(best.get());
+        }
+
+        private int getBestOrder() {
+            return unpackOrder(best.get());
+        }
+
+        private int unpackScore(long packed) {
+            return (int) (packed >> 32);
+        }
+
+        private int unpackOrder(long packed) {
+            return ~(int) packed;
+        }
     }
 
 }
@@ -0,0 +1,57 @@
+package tictactoe;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("tictactoe.AISearch")
+@Label("AI Search")
+@Category("Tic Tac Toe")
+@Description("One move chosen by a computer player")
+@StackTrace(false)
+public class AISearchEvent extends Event {
+
+    /**
+     * A Java Flight Recorder event for every move a computer player chooses, timed from the start of the search to
+     * the move being chosen, so slow moves can be lined up with GC pauses and other events in the same recording.
+     * While the event is not enabled in a recording, begin, end and shouldCommit do nothing and the JIT removes the
+     * event object altogether
+     */
+
+    @Label("Strategy")
+    @Description("minimax, policy (looked up in the policy table) or mcts")
+    String strategy;
+
+    @Label("Board")
+    String board;
+
+    @Label("Nodes")
+    @Description("Positions searched, or playouts run by Monte Carlo tree search")
+    long nodes;
+
+    @Label("Depth")
+    @Description("Deepest search completed, in plies")
+    int depth;
+
+    @Label("Move")
+    @Description("Index of the spot chosen")
+    int move;
+
+    @Label("Score")
+    @Description("Score of the move for minimax and policy, its expected result in percent for mcts")
+    int score;
+
+    @Label("Table Hits")
+    @Description("Transposition table probes that found their position")
+    long tableHits;
+
+    @Label("Table Misses")
+    long tableMisses;
+
+    @Label("Tree Size")
+    @Description("Nodes kept in the Monte Carlo tree")
+    long treeSize;
+}
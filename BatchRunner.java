@@ -0,0 +1,146 @@
+package tictactoe;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BatchRunner {
+
+    /**
+     * Plays a batch of games without a display, spread across every core, and reports the results and how many
+     * games were played per second. Player 1 is always the AI, player 2 is either another AI, a Monte Carlo tree
+     * search player or a player that picks a random empty spot, and the starting player alternates from game to game.
+     * Usage: java tictactoe.BatchRunner [games] [ai|mcts|random] [columns rows winLength] [threads] [time budget ms]
+     */
+
+    /**
+     * Plays the batch and prints the results
+     * @param args number of games, opponent, board, number of threads and AI time budget, all optional
+     * @throws InterruptedException if interrupted while waiting for the games
+     * @throws ExecutionException if a game fails
+     */
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        String opponent = args.length > 1 ? args[1] : "ai";
+        BoardGeometry geometry = args.length > 4 ? new BoardGeometry(Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4])) : BoardGeometry.CLASSIC;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        long budget = args.length > 6 ? Long.parseLong(args[6]) : AI.DEFAULT_TIME_BUDGET;
+
+        System.out.println("Playing " + games + " games on " + geometry + ", AI against "
+                + opponent + ", on " + threads + " threads");
+
+        long[] results = run(geometry, games, opponent, threads, budget);
+        double seconds = results[3] / 1e9;
+        System.out.printf("Player 1 (AI) won %d, player 2 won %d, drawn %d%n", results[0], results[1], results[2]);
+        System.out.printf("%.2f seconds, %.0f games per second%n", seconds, games / seconds);
+    }
+
+    /**
+     * Plays the batch, with each thread playing an equal share of the games
+     * @param geometry the board to play on
+     * @param games number of games to play
+     * @param opponent "ai", "mcts" or "random", the player that plays as player 2
+     * @param threads number of threads to play on
+     * @param budget time budget of each AI move in milliseconds
+     * @return wins for player 1, wins for player 2, draws and the elapsed nanoseconds
+     * @throws InterruptedException if interrupted while waiting for the games
+     * @throws ExecutionException if a game fails
+     */
+    public static long[] run(BoardGeometry geometry, long games, String opponent, int threads, long budget)
+            throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads; t++) {
+            long first = games * t / threads;
+            long last = games * (t + 1) / threads;
+            int seed = t;
+            futures.add(executor.submit(() -> play(geometry, first, last, opponent, budget, seed)));
+        }
+
+        long[] totals = new long[4];
+
+        for (Future<long[]> future : futures) {
+            long[] results = future.get();
+
+            for (int i = 0; i < 3; i++) {
+                totals[i] += results[i];
+            }
+        }
+
+        totals[3] = System.nanoTime() - start;
+        executor.shutdown();
+        return totals;
+    }
+
+    /**
+     * Plays a range of games on the calling thread. The AI players belong to this thread, since an AI keeps state
+     * between searches
+     * @param geometry the board to play on
+     * @param first number of the first game
+     * @param last number of the game after the last one
+     * @param opponent "ai", "mcts" or "random", the player that plays as player 2
+     * @param budget time budget of each AI move in milliseconds
+     * @param seed seed for the random player
+     * @return wins for player 1, wins for player 2 and draws
+     */
+    private static long[] play(BoardGeometry geometry, long first, long last, String opponent, long budget,
+                               long seed) {
+        AI ai = new AI(geometry);
+        ai.setTimeBudget(budget);
+        Strategy[] players = {null, ai, null};
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] results = new long[3];
+
+        if (opponent.equals("ai")) {
+            AI other = new AI(geometry);
+            other.setTimeBudget(budget);
+            players[2] = other;
+        }
+
+        else if (opponent.equals("mcts")) {
+            MonteCarloAI other = new MonteCarloAI(geometry);
+            other.setTimeBudget(budget);
+            other.setSeed(seed);
+            players[2] = other;
+        }
+
+        else if (!opponent.equals("random")) {
+            throw new IllegalArgumentException("Unknown opponent " + opponent);
+        }
+
+        for (long game = first; game < last; game++) {
+            GameState state = new GameState(geometry, (int) (game % 2) + 1); // Alternate the starting player
+
+            while (!state.isOver()) {
+                Strategy player = players[state.getCurrentPlayer()];
+                state.play(player != null ? player.chooseMove(state) : randomMove(state.legalMoves(), random));
+            }
+
+            results[state.getResult() == GameState.DRAW ? 2 : state.getWinner() - 1]++;
+        }
+
+        return results;
+    }
+
+    /**
+     * Picks one of the given spots at random
+     * @param moves mask of the spots to pick from, not empty
+     * @param random source of randomness
+     * @return index of the chosen spot
+     */
+    static int randomMove(long moves, SplittableRandom random) {
+
+        // Clear a random number of the lowest spots, and take the lowest that is left
+        for (int skip = random.nextInt(Long.bitCount(moves)); skip > 0; skip--) {
+            moves &= moves - 1;
+        }
+
+        return Long.numberOfTrailingZeros(moves);
+    }
+}
@@ -0,0 +1,331 @@
+package tictactoe;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+public final class BoardCanvas extends Canvas {
+
+    /**
+     * Draws a whole board on a single canvas, with the layers of a board that has them side by side and a square's
+     * gap between them. Spots are indexed like BoardGeometry, by layer, then column, then row. Changes only mark the
+     * spots they touch as dirty, and the dirty spots are drawn together on the next pulse of an AnimationTimer, so any
+     * number of changes between two frames cost one redraw of the spots that changed. The timer only runs while
+     * something is waiting to be drawn. The winning line is drawn as one stroke per layer it crosses, over the top of
+     * the spots
+     */
+
+    private final int columns;
+    private final int rows;
+    private final int layers;
+    private final int size; // Width and height of a spot
+    private final GraphicsContext gc;
+    private final int[] owners; // The player holding each spot, 0 if it is empty
+    private final Color[] hints; // The hint shading each spot, null for none
+    private final long[] dirty; // Spots to draw on the next pulse, 64 to a word
+    private int[] winningLine; // Spots of the line crossed out in index order, null for none
+    private boolean scheduled; // True while the timer is waiting for the next pulse
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            render();
+        }
+    };
+
+    /**
+     * New BoardCanvas for a board geometry with every spot empty
+     * @param geometry the board to draw
+     * @param size width and height of each spot
+     */
+    public BoardCanvas(BoardGeometry geometry, int size) {
+        this(geometry.getColumns(), geometry.getRows(), geometry.getLayers(), size);
+    }
+
+    /**
+     * New BoardCanvas with every spot empty
+     * @param columns columns of each layer
+     * @param rows rows of each layer
+     * @param layers number of layers, 1 for a flat board
+     * @param size width and height of each spot
+     */
+    public BoardCanvas(int columns, int rows, int layers, int size) {
+        super((layers * (columns + 1) - 1) * size, rows * size);
+        this.columns = columns;
+        this.rows = rows;
+        this.layers = layers;
+        this.size = size;
+        int cells = columns * rows * layers;
+        owners = new int[cells];
+        hints = new Color[cells];
+        dirty = new long[(cells + 63) / 64];
+        gc = getGraphicsContext2D();
+        gc.setLineWidth(Math.max(2, size / 10)); // Thinner lines for smaller spots
+        clear();
+    }
+
+    /**
+     * Empties every spot and removes the hints and the winning line
+     */
+    public void clear() {
+        Arrays.fill(owners, 0);
+        Arrays.fill(hints, null);
+        winningLine = null;
+
+        for (int i = 0; i < owners.length; i++) {
+            invalidate(i);
+        }
+    }
+
+    /**
+     * Shows a spot as held by a player or empty, removing any hint shading it
+     * @param index index of the spot
+     * @param owner 1 for a cross, 2 for a circle, 0 for empty
+     */
+    public void setOwner(int index, int owner) {
+        owners[index] = owner;
+        hints[index] = null;
+        invalidate(index);
+    }
+
+    /**
+     * Shades a spot to hint at how good a move there would be
+     * @param index index of the spot
+     * @param colour colour to shade the spot, which should be partly transparent, or null to remove the hint
+     */
+    public void setHint(int index, Color colour) {
+        hints[index] = colour;
+        invalidate(index);
+    }
+
+    /**
+     * Crosses out a line, or removes the line crossed out
+     * @param spots the spots of the line in index order, or null for none
+     */
+    public void setWinningLine(int[] spots) {
+
+        if (Arrays.equals(spots, winningLine)) {
+            return;
+        }
+
+        if (winningLine != null) { // Redrawing its spots wipes the old line
+            for (int spot : winningLine) {
+                invalidateAround(spot);
+            }
+        }
+
+        winningLine = spots;
+
+        if (spots != null) {
+            for (int spot : spots) {
+                invalidate(spot);
+            }
+        }
+    }
+
+    /**
+     * Crosses out a line of a board geometry, or removes the line crossed out
+     * @param spots mask of the spots of the line, or 0 for none
+     */
+    public void setWinningLine(long spots) {
+        int[] line = new int[Long.bitCount(spots)];
+
+        for (int i = 0; spots != 0; spots &= spots - 1) {
+            line[i++] = Long.numberOfTrailingZeros(spots);
+        }
+
+        setWinningLine(line.length == 0 ? null : line);
+    }
+
+    /**
+     * Finds the spot at a point of the canvas
+     * @param x distance from the left of the canvas
+     * @param y distance from the top of the canvas
+     * @return index of the spot, or -1 if the point is between layers or off the board
+     */
+    public int spotAt(double x, double y) {
+        int column = (int) Math.floor(x / size);
+        int row = (int) Math.floor(y / size);
+        int layer = column / (columns + 1);
+        column %= columns + 1;
+
+        if (x < 0 || y < 0 || row >= rows || column >= columns || layer >= layers) {
+            return -1;
+        }
+
+        return (layer * columns + column) * rows + row;
+    }
+
+    /**
+     * Marks a spot to be drawn on the next pulse, starting the timer if it is not already waiting
+     * @param index index of the spot
+     */
+    private void invalidate(int index) {
+        dirty[index >>> 6] |= 1L << index;
+
+        if (!scheduled) {
+            scheduled = true;
+            timer.start();
+        }
+    }
+
+    /**
+     * Marks a spot and the spots next to it in its layer to be drawn, as a stroke through the spot has square ends and
+     * a width of its own, so crosses into the edges and corners of its neighbours
+     * @param index index of the spot
+     */
+    private void invalidateAround(int index) {
+        int column = columnOf(index);
+        int row = rowOf(index);
+
+        for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+
+            for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                invalidate((layerOf(index) * columns + c) * rows + r);
+            }
+        }
+    }
+
+    /**
+     * Draws every dirty spot, and the winning line over them, then stops the timer until something changes
+     */
+    private void render() {
+        timer.stop();
+        scheduled = false;
+        boolean drawn = false;
+
+        for (int word = 0; word < dirty.length; word++) {
+
+            for (long spots = dirty[word]; spots != 0; spots &= spots - 1) {
+                drawSpot(word << 6 | Long.numberOfTrailingZeros(spots));
+                drawn = true;
+            }
+
+            dirty[word] = 0;
+        }
+
+        // Redrawn spots may have wiped part of the line, or the edge of a stroke crossing into them
+        if (drawn && winningLine != null) {
+            drawLine(winningLine);
+        }
+    }
+
+    /**
+     * Draws a spot from scratch: its border, any hint, and a cross or circle if a player holds it
+     * @param index index of the spot
+     */
+    private void drawSpot(int index) {
+        double x = xOf(index);
+        double y = yOf(index);
+        gc.clearRect(x, y, size, size);
+        gc.setStroke(Color.WHITE);
+        gc.strokeRect(x, y, size, size);
+
+        if (hints[index] != null) {
+            gc.setFill(hints[index]);
+            gc.fillRect(x + size * 0.1, y + size * 0.1, size * 0.8, size * 0.8);
+        }
+
+        if (owners[index] == 1) {
+            gc.strokeLine(x + size * 0.1, y + size * 0.1, x + size * 0.9, y + size * 0.9);
+            gc.strokeLine(x + size * 0.9, y + size * 0.1, x + size * 0.1, y + size * 0.9);
+        }
+
+        else if (owners[index] == 2) {
+            gc.strokeOval(x + size * 0.1, y + size * 0.1, size * 0.8, size * 0.8);
+        }
+    }
+
+    /**
+     * Strokes a line from edge to edge of its spots, once for each layer it crosses. A line running straight through
+     * the layers is stroked down each of its spots. Each stroke is clipped to the spots it runs between, so its ends
+     * never reach the gap between layers, which is not redrawn
+     * @param line the spots of the line in index order
+     */
+    private void drawLine(int[] line) {
+        gc.setStroke(Color.GREEN);
+        int start = 0;
+
+        while (start < line.length) {
+            int first = line[start];
+            int end = start;
+
+            // The line's spots in this layer come one after another in index order
+            while (end + 1 < line.length && layerOf(line[end + 1]) == layerOf(first)) {
+                end++;
+            }
+
+            int last = line[end];
+            int columnStep = Integer.signum(columnOf(last) - columnOf(first));
+            int rowStep = Integer.signum(rowOf(last) - rowOf(first));
+
+            if (columnStep == 0 && rowStep == 0) { // A single spot of a line through the layers
+                rowStep = 1;
+            }
+
+            double half = size * 0.5;
+            double left = Math.min(xOf(first), xOf(last));
+            double top = Math.min(yOf(first), yOf(last));
+            double right = Math.max(xOf(first), xOf(last)) + size;
+            double bottom = Math.max(yOf(first), yOf(last)) + size;
+            gc.save(); // Restoring drops the clip
+            gc.beginPath();
+            gc.rect(left, top, right - left, bottom - top);
+            gc.clip();
+            gc.strokeLine(xOf(first) + half - columnStep * half, yOf(first) + half - rowStep * half,
+                    xOf(last) + half + columnStep * half, yOf(last) + half + rowStep * half);
+            gc.restore();
+            start = end + 1;
+        }
+
+        gc.setStroke(Color.WHITE);
+    }
+
+    /**
+     * Gets the row of a spot
+     * @param index index of the spot
+     * @return row of the spot in its layer
+     */
+    private int rowOf(int index) {
+        return index % rows;
+    }
+
+    /**
+     * Gets the column of a spot
+     * @param index index of the spot
+     * @return column of the spot in its layer
+     */
+    private int columnOf(int index) {
+        return index / rows % columns;
+    }
+
+    /**
+     * Gets the layer of a spot
+     * @param index index of the spot
+     * @return layer of the spot, 0 for a flat board
+     */
+    private int layerOf(int index) {
+        return index / (rows * columns);
+    }
+
+    /**
+     * Gets the left edge of a spot
+     * @param index index of the spot
+     * @return distance from the left of the canvas
+     */
+    private double xOf(int index) {
+        return (layerOf(index) * (columns + 1) + columnOf(index)) * size;
+    }
+
+    /**
+     * Gets the top edge of a spot
+     * @param index index of the spot
+     * @return distance from the top of the canvas
+     */
+    private double yOf(int index) {
+        return rowOf(index) * size;
+    }
+}
@@ -0,0 +1,566 @@
+package tictactoe;
+
+import java.util.ArrayList;
+
+public final class BoardGeometry {
+
+    /**
+     * The shape of a board: how many columns, rows and layers it has and how many spots in a row are needed to win.
+     * Flat boards have one layer, and boards with more are played in three dimensions, as in Qubic (4x4x4, 4 in a row)
+     * whose 76 lines run across layers as well as within them. Spots are numbered (layer * columns + column) * rows +
+     * row, and a set of spots is a long with bit i set if spot i is in the set, so a board can have at most 64 spots.
+     * The geometry works out every winning line once, along with the symmetries of the board, so the game and the AI
+     * never have to walk the grid looking for lines
+     */
+
+    // Directions a line can run in, as column, row and layer steps. Flat boards only use the first four
+    private static final int[][] DIRECTIONS = {
+            {0, 1, 0}, {1, 0, 0}, {1, 1, 0}, {1, -1, 0},
+            {0, 0, 1}, {1, 0, 1}, {-1, 0, 1}, {0, 1, 1}, {0, -1, 1}, {1, 1, 1}, {1, -1, 1}, {-1, 1, 1}, {-1, -1, 1}
+    };
+
+    public static final BoardGeometry CLASSIC = new BoardGeometry(3, 3, 3);
+    public static final BoardGeometry QUBIC = new BoardGeometry(4, 4, 4, 4);
+
+    private final int columns;
+    private final int rows;
+    private final int layers;
+    private final int winLength;
+    private final int cells;
+    private final long fullBoard;
+    private final long[] lines; // Every winning line
+    private final int[] lineStarts; // First spot of each line
+    private final int[] lineDirections; // Index into DIRECTIONS of each line
+    private final long[][] linesThrough; // For each spot, the lines that pass through it
+    private final int[][] lineIndexesThrough; // For each spot, the indexes of the lines that pass through it
+    private final int[] moveOrder; // Spots ordered by how many lines pass through them, most first
+    private final int[][] symmetries; // For each symmetry, where every spot ends up
+    private final int[][] inverses; // For each symmetry, which spot ends up at every spot
+    private final long[][][] transformTable; // For each symmetry and byte of a set, the image of that byte
+
+    /**
+     * New flat BoardGeometry
+     * @param columns number of columns
+     * @param rows number of rows
+     * @param winLength number of spots in a row needed to win
+     */
+    public BoardGeometry(int columns, int rows, int winLength) {
+        this(columns, rows, 1, winLength);
+    }
+
+    /**
+     * New BoardGeometry, in three dimensions if it has more than one layer
+     * @param columns number of columns
+     * @param rows number of rows
+     * @param layers number of layers
+     * @param winLength number of spots in a row needed to win
+     */
+    public BoardGeometry(int columns, int rows, int layers, int winLength) {
+
+        if (columns < 1 || rows < 1 || layers < 1 || columns * rows * layers > 64) {
+            throw new IllegalArgumentException("Boards must have between 1 and 64 spots");
+        }
+
+        if (winLength < 1 || winLength > Math.max(Math.max(columns, rows), layers)) {
+            throw new IllegalArgumentException("Win length must fit on the board");
+        }
+
+        this.columns = columns;
+        this.rows = rows;
+        this.layers = layers;
+        this.winLength = winLength;
+        cells = columns * rows * layers;
+        fullBoard = cells == 64 ? -1L : (1L << cells) - 1;
+
+        // Find every line of winLength spots in each direction
+        ArrayList<Long> lineList = new ArrayList<Long>();
+        ArrayList<Integer> startList = new ArrayList<Integer>();
+        ArrayList<Integer> directionList = new ArrayList<Integer>();
+
+        for (int d = 0; d < DIRECTIONS.length; d++) {
+
+            for (int cell = 0; cell < cells; cell++) {
+                int column = columnOf(cell);
+                int row = rowOf(cell);
+                int layer = layerOf(cell);
+                int endColumn = column + DIRECTIONS[d][0] * (winLength - 1);
+                int endRow = row + DIRECTIONS[d][1] * (winLength - 1);
+                int endLayer = layer + DIRECTIONS[d][2] * (winLength - 1);
+
+                if (endColumn < 0 || endColumn >= columns || endRow < 0 || endRow >= rows || endLayer < 0
+                        || endLayer >= layers) {
+                    continue;
+                }
+
+                long line = 0;
+
+                for (int i = 0; i < winLength; i++) {
+                    line |= 1L << index(column + DIRECTIONS[d][0] * i, row + DIRECTIONS[d][1] * i,
+                            layer + DIRECTIONS[d][2] * i);
+                }
+
+                // A line of length 1 runs in every direction, so only count it once
+                if (!lineList.contains(line)) {
+                    lineList.add(line);
+                    startList.add(cell);
+                    directionList.add(d);
+                }
+            }
+        }
+
+        lines = new long[lineList.size()];
+        lineStarts = new int[lines.length];
+        lineDirections = new int[lines.length];
+
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = lineList.get(i);
+            lineStarts[i] = startList.get(i);
+            lineDirections[i] = directionList.get(i);
+        }
+
+        linesThrough = new long[cells][];
+        lineIndexesThrough = new int[cells][];
+        Integer[] order = new Integer[cells];
+
+        for (int cell = 0; cell < cells; cell++) {
+            int count = 0;
+
+            for (long line : lines) {
+
+                if ((line & (1L << cell)) != 0) {
+                    count++;
+                }
+            }
+
+            linesThrough[cell] = new long[count];
+            lineIndexesThrough[cell] = new int[count];
+            count = 0;
+
+            for (int line = 0; line < lines.length; line++) {
+
+                if ((lines[line] & (1L << cell)) != 0) {
+                    linesThrough[cell][count] = lines[line];
+                    lineIndexesThrough[cell][count++] = line;
+                }
+            }
+
+            order[cell] = cell;
+        }
+
+        // Spots on more lines are better, on a 3x3 board that is center, then corners, then edges
+        java.util.Arrays.sort(order, (a, b) -> linesThrough[b].length - linesThrough[a].length);
+        moveOrder = new int[cells];
+
+        for (int i = 0; i < cells; i++) {
+            moveOrder[i] = order[i];
+        }
+
+        symmetries = buildSymmetries();
+        inverses = new int[symmetries.length][cells];
+
+        for (int s = 0; s < symmetries.length; s++) {
+
+            for (int cell = 0; cell < cells; cell++) {
+                inverses[s][symmetries[s][cell]] = cell;
+            }
+        }
+
+        int bytes = (cells + 7) / 8;
+        transformTable = new long[symmetries.length][bytes][256];
+
+        for (int s = 0; s < symmetries.length; s++) {
+
+            for (int b = 0; b < bytes; b++) {
+
+                for (int value = 0; value < 256; value++) {
+                    long image = 0;
+
+                    for (int bit = 0; bit < 8; bit++) {
+                        int cell = b * 8 + bit;
+
+                        if ((value & (1 << bit)) != 0 && cell < cells) {
+                            image |= 1L << symmetries[s][cell];
+                        }
+                    }
+
+                    transformTable[s][b][value] = image;
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out the symmetries of the board. Every board can be reflected in either axis or rotated by 180 degrees,
+     * and square boards can also be rotated by 90 degrees and reflected in their diagonals. Boards with more than one
+     * layer have the symmetries of a box instead
+     * @return for each symmetry, where every spot ends up, starting with the identity
+     */
+    private int[][] buildSymmetries() {
+
+        if (layers > 1) {
+            return buildBoxSymmetries();
+        }
+
+        int count = columns == rows ? 8 : 4;
+        int[][] result = new int[count][cells];
+
+        for (int column = 0; column < columns; column++) {
+
+            for (int row = 0; row < rows; row++) {
+                int c = columns - 1 - column;
+                int r = rows - 1 - row;
+                int cell = index(column, row);
+                result[0][cell] = cell;
+                result[1][cell] = index(c, row);
+                result[2][cell] = index(column, r);
+                result[3][cell] = index(c, r);
+
+                if (count == 8) {
+                    result[4][cell] = index(row, column);
+                    result[5][cell] = index(r, c);
+                    result[6][cell] = index(row, c);
+                    result[7][cell] = index(r, column);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Works out the symmetries of a board with layers: every way of swapping its axes that keeps its shape, each
+     * combined with reflecting any of the axes. That is all 48 symmetries of a cube
+     * @return for each symmetry, where every spot ends up, starting with the identity
+     */
+    private int[][] buildBoxSymmetries() {
+        int[] sizes = {columns, rows, layers};
+        int[][] permutations = {{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}};
+        ArrayList<int[]> result = new ArrayList<int[]>();
+
+        for (int[] axes : permutations) {
+
+            if (sizes[axes[0]] != columns || sizes[axes[1]] != rows || sizes[axes[2]] != layers) {
+                continue; // Swapping axes of different lengths does not fit the board
+            }
+
+            for (int flips = 0; flips < 8; flips++) {
+                int[] symmetry = new int[cells];
+
+                for (int cell = 0; cell < cells; cell++) {
+                    int[] from = {columnOf(cell), rowOf(cell), layerOf(cell)};
+                    int[] to = new int[3];
+
+                    for (int axis = 0; axis < 3; axis++) {
+                        int value = from[axes[axis]];
+                        to[axis] = (flips & (1 << axis)) != 0 ? sizes[axis] - 1 - value : value;
+                    }
+
+                    symmetry[cell] = index(to[0], to[1], to[2]);
+                }
+
+                result.add(symmetry);
+            }
+        }
+
+        return result.toArray(new int[0][]);
+    }
+
+    /**
+     * Gets the index of the spot in the given column and row of the first layer
+     * @param column column of the spot
+     * @param row row of the spot
+     * @return index of the spot
+     */
+    public int index(int column, int row) {
+        return column * rows + row;
+    }
+
+    /**
+     * Gets the index of the spot in the given column, row and layer
+     * @param column column of the spot
+     * @param row row of the spot
+     * @param layer layer of the spot
+     * @return index of the spot
+     */
+    public int index(int column, int row, int layer) {
+        return (layer * columns + column) * rows + row;
+    }
+
+    /**
+     * Gets the column of a spot
+     * @param index index of the spot
+     * @return column of the spot
+     */
+    public int columnOf(int index) {
+        return index / rows % columns;
+    }
+
+    /**
+     * Gets the layer of a spot
+     * @param index index of the spot
+     * @return layer of the spot, 0 on a flat board
+     */
+    public int layerOf(int index) {
+        return index / (rows * columns);
+    }
+
+    /**
+     * Gets the row of a spot
+     * @param index index of the spot
+     * @return row of the spot
+     */
+    public int rowOf(int index) {
+        return index % rows;
+    }
+
+    /**
+     * Checks whether the given set of spots wins, given that the last spot added to it was at index. Only the lines
+     * through that spot are checked
+     * @param mask spots occupied by a player
+     * @param index the spot just played
+     * @return true if the spots contain a complete line through the given spot
+     */
+    public boolean isWin(long mask, int index) {
+
+        for (long line : linesThrough[index]) {
+
+            if ((mask & line) == line) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds a complete line in the given set of spots
+     * @param mask spots occupied by a player
+     * @return index of the line, or -1 if there is none
+     */
+    public int findLine(long mask) {
+
+        for (int i = 0; i < lines.length; i++) {
+
+            if ((mask & lines[i]) == lines[i]) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Maps a set of spots through a symmetry
+     * @param symmetry index of the symmetry
+     * @param mask set of spots
+     * @return the image of the set
+     */
+    public long transform(int symmetry, long mask) {
+        long[][] table = transformTable[symmetry];
+        long image = 0;
+
+        for (int b = 0; mask != 0; b++) {
+            image |= table[b][(int) mask & 0xFF];
+            mask >>>= 8;
+        }
+
+        return image;
+    }
+
+    /**
+     * Maps a spot through a symmetry
+     * @param symmetry index of the symmetry
+     * @param index index of the spot
+     * @return index of the spot it ends up at
+     */
+    public int mapSpot(int symmetry, int index) {
+        return symmetries[symmetry][index];
+    }
+
+    /**
+     * Maps a spot back through a symmetry, undoing mapSpot
+     * @param symmetry index of the symmetry
+     * @param index index of the spot after the symmetry
+     * @return index of the spot before the symmetry
+     */
+    public int unmapSpot(int symmetry, int index) {
+        return inverses[symmetry][index];
+    }
+
+    /**
+     * Checks whether the given spot is the first of its kind in the position, that is, no symmetry which leaves the
+     * position unchanged maps it onto a spot with a lower index. Moves that are not unique lead to the same positions,
+     * up to symmetry, as a move with a lower index, so they do not need to be searched
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @param index index of the empty spot to check
+     * @return true if the spot needs to be searched
+     */
+    public boolean isUniqueMove(long own, long other, int index) {
+
+        for (int s = 1; s < symmetries.length; s++) {
+
+            if (symmetries[s][index] < index && transform(s, own) == own && transform(s, other) == other) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks whether this is the classic 3x3 board with 3 in a row
+     * @return true if this is the classic board
+     */
+    public boolean isClassic() {
+        return columns == 3 && rows == 3 && layers == 1 && winLength == 3;
+    }
+
+    /**
+     * Get the number of columns
+     * @return number of columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Get the number of rows
+     * @return number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the number of layers
+     * @return number of layers, 1 for a flat board
+     */
+    public int getLayers() {
+        return layers;
+    }
+
+    /**
+     * Get the number of spots in a row needed to win
+     * @return win length
+     */
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * Get the number of spots on the board
+     * @return number of spots
+     */
+    public int getCells() {
+        return cells;
+    }
+
+    /**
+     * Get the set of every spot on the board
+     * @return mask with every spot set
+     */
+    public long getFullBoard() {
+        return fullBoard;
+    }
+
+    /**
+     * Get every winning line
+     * @return masks of the winning lines
+     */
+    public long[] getLines() {
+        return lines;
+    }
+
+    /**
+     * Gets the first spot of a line
+     * @param line index of the line
+     * @return index of the spot the line starts at
+     */
+    public int getLineStart(int line) {
+        return lineStarts[line];
+    }
+
+    /**
+     * Gets the column step of a line, 0 for a line down a column
+     * @param line index of the line
+     * @return column step between consecutive spots of the line
+     */
+    public int getLineColumnStep(int line) {
+        return DIRECTIONS[lineDirections[line]][0];
+    }
+
+    /**
+     * Gets the row step of a line, 0 for a line across a row
+     * @param line index of the line
+     * @return row step between consecutive spots of the line
+     */
+    public int getLineRowStep(int line) {
+        return DIRECTIONS[lineDirections[line]][1];
+    }
+
+    /**
+     * Gets the layer step of a line, 0 for a line within a layer
+     * @param line index of the line
+     * @return layer step between consecutive spots of the line
+     */
+    public int getLineLayerStep(int line) {
+        return DIRECTIONS[lineDirections[line]][2];
+    }
+
+    /**
+     * Get the winning lines that pass through a spot
+     * @param index index of the spot
+     * @return masks of the lines through the spot
+     */
+    public long[] getLinesThrough(int index) {
+        return linesThrough[index];
+    }
+
+    /**
+     * Get the indexes of the winning lines that pass through a spot, in the same order as getLinesThrough
+     * @param index index of the spot
+     * @return indexes into getLines of the lines through the spot
+     */
+    public int[] getLineIndexesThrough(int index) {
+        return lineIndexesThrough[index];
+    }
+
+    /**
+     * Get the spots ordered by how many lines pass through them, most first
+     * @return spot indexes in order
+     */
+    public int[] getMoveOrder() {
+        return moveOrder;
+    }
+
+    /**
+     * Get the number of symmetries of the board, including the identity
+     * @return number of symmetries
+     */
+    public int getSymmetryCount() {
+        return symmetries.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (!(o instanceof BoardGeometry)) {
+            return false;
+        }
+
+        BoardGeometry other = (BoardGeometry) o;
+        return columns == other.columns && rows == other.rows && layers == other.layers
+                && winLength == other.winLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((columns * 65 + rows) * 65 + winLength) * 65 + layers - 1;
+    }
+
+    @Override
+    public String toString() {
+        return columns + "x" + rows + (layers > 1 ? "x" + layers : "") + ", " + winLength + " in a row";
+    }
+}
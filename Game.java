@@ -1,222 +1,543 @@
 package tictactoe;
 
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.util.Pair;
+import javafx.scene.paint.Color;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Game {
 
     /**
-     * This class is responsible for handling the tictactoe game
+     * This class is responsible for handling the tictactoe game. The rules themselves are kept in a GameState, this
+     * class passes moves on to it and keeps the board canvas and the displayed text in step with it. The AI searches on a
+     * background thread so the window keeps responding, and its move is played back on the JavaFX application thread.
+     * The user can undo their last move along with the AI's reply, and redo what they undid.
+     *
+     * With pondering on, the AI keeps searching while it is the user's turn: it works out its reply to each move the
+     * user could make, those on the most lines first, so when the user moves it can often reply straight away. Any
+     * change to the board while it ponders stops it and throws away its replies.
+     *
+     * With hints on, every empty square is shaded by the score the position analyser gives a move there at the start
+     * of each of the user's turns: green for a win, red for a loss, and for the rest from orange to yellow by how their
+     * scores compare
      */
 
-    private ArrayList<Square> squares; // The squares in this game
+    private static final Color WIN_HINT = Color.color(0, 0.8, 0, 0.5);
+    private static final Color LOSS_HINT = Color.color(0.9, 0, 0, 0.5);
+    private static final Color LOW_HINT = Color.color(1, 0.5, 0, 0.4);
+    private static final Color HIGH_HINT = Color.color(1, 1, 0.3, 0.4);
+
+    // The thread every AI searches on. It is a daemon so it does not keep the application running once it is closed
+    static final ExecutorService AI_THREAD = Executors.newSingleThreadExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "AI");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private BoardCanvas board; // Where the board is drawn, null until it is set
     private StringProperty displayText; // The text to be displayed in the game scene
-    private boolean gameOver;
-    private int currentPlayer; // 1 if the current player is the AI, 2 if the current player is the user
-    private int[][] grid; // The game grid as a 2D array, 0 in a spot means spot is unoccupied, 1 means occupied by
-    // an AI player, 2 means occupied by the user
-    private AI ai; // The AI player
+    private BooleanProperty canUndo; // True when the user has a move that can be undone
+    private BooleanProperty canRedo; // True when there are undone moves that can be redone
+    private GameState state; // The spots each player holds, whose turn it is and the result. Player 1 is the AI and
+    // player 2 is the user
+    private BoardGeometry geometry; // The shape of the grid and the lines that win
+    private Strategy ai; // The AI player
+    private CompletableFuture<Integer> pendingMove; // The AI's search while it is running, otherwise null
+    private boolean cancelled; // Set once the game has been abandoned, so a search finishing late is not played
+    private GameLog log; // Where the game is written once it is left, null to not keep it
+    private boolean finished; // Set once the game has been counted as finished, so undoing and replaying a win does
+    // not count it twice
+    private boolean pondering; // True to search the AI's replies while it is the user's turn
+    private volatile int ponderRound; // Changed whenever pondering stops, so replies being searched are thrown away
+    private Map<Integer, Integer> ponderedReplies = new ConcurrentHashMap<Integer, Integer>(); // The AI's reply to
+    // each user move searched so far this turn. Each round has a new map, so a late reply never lands in the next one
+    private PositionAnalyser analyser; // Scores the user's moves for hints, null if hints are not available
+    private boolean hints; // True to shade the squares by how good a move there is
+    private int hintRound; // Changed whenever the hints shown are out of date, so late scores are not drawn
 
     /**
      * New Game
      */
     public Game() {
-        gameOver = false;
-        ai = new AI();
-        grid = new int[3][3];
-        squares = new ArrayList<Square>();
-        currentPlayer = new Random().nextInt(2) + 1; // Randomise the starting player
+        this(new AI());
+    }
+
+    /**
+     * New Game against the given AI, on the board the AI plays on. The AI keeps what it has searched between moves
+     * @param ai the strategy the AI plays with
+     */
+    public Game(Strategy ai) {
+        this.ai = ai;
+        geometry = ai.getGeometry();
+        state = new GameState(geometry, new Random().nextInt(2) + 1); // Randomise the starting player
         displayText = new SimpleStringProperty();
+        canUndo = new SimpleBooleanProperty();
+        canRedo = new SimpleBooleanProperty();
+        showStatus();
+        GameStats.getInstance().gameStarted();
+    }
+
+    /**
+     * Sets the canvas the game is drawn on, and draws the game on it
+     * @param board canvas for this game's board, which is cleared
+     */
+    public void setBoard(BoardCanvas board) {
+        this.board = board;
+        board.clear();
+
+        for (int i = 0; i < geometry.getCells(); i++) {
+            redraw(i);
+        }
+
+        board.setWinningLine(state.getWinningLine() == -1 ? 0 : geometry.getLines()[state.getWinningLine()]);
+    }
+
+    /**
+     * Play the user's move in the given grid spot. Clicks while it is the AI's turn are ignored
+     * @param col column of the grid
+     * @param row row of the grid
+     */
+    public void movePlayed(int col, int row) {
+        movePlayed(col, row, 0);
+    }
+
+    /**
+     * Play the user's move in the given spot of a board with layers. Clicks while it is the AI's turn are ignored
+     * @param col column of the grid
+     * @param row row of the grid
+     * @param layer layer of the board
+     */
+    public void movePlayed(int col, int row, int layer) {
+        int index = geometry.index(col, row, layer);
+
+        if (state.getCurrentPlayer() == 2 && pendingMove == null && state.isLegal(index)) {
+            Integer reply = ponderedReplies.get(index);
+            stopPondering();
+            play(index);
+
+            // If the game is not over and it's the AI's turn, have the AI make a move
+            if (state.getCurrentPlayer() == 1 && !state.isOver() && reply != null) {
+                long start = System.nanoTime();
+                play(reply); // Already searched while the user was thinking
+                GameStats.getInstance().aiMovePlayed(System.nanoTime() - start);
+                startUserTurn();
+            }
+
+            else if (state.getCurrentPlayer() == 1 && !state.isOver()) {
+                makeAIMove();
+            }
+        }
+    }
+
+    /**
+     * Takes back the user's last move and any move the AI played after it, so it is the user's turn again. Ignored
+     * while the AI is searching or if the user has not moved yet
+     */
+    public void undo() {
+
+        if (!canUndo.get()) {
+            return;
+        }
+
+        stopPondering();
+        clearHints();
+        do {
+            redraw(state.undo());
+        } while (state.getCurrentPlayer() != 2);
+
+        if (board != null) { // A win that was undone is no longer crossed out
+            board.setWinningLine(null);
+        }
+
+        showStatus();
+        startUserTurn();
+    }
+
+    /**
+     * Plays the moves taken back by the last undo again, up to the user's next turn. Ignored while the AI is
+     * searching or if there is nothing to redo
+     */
+    public void redo() {
+
+        if (!canRedo.get()) {
+            return;
+        }
+
+        stopPondering();
+        clearHints();
+
+        do {
+            show(state.redo());
+        } while (state.getCurrentPlayer() == 1 && !state.isOver() && state.canRedo());
+
+        showStatus();
+
+        // If the AI's reply was not undone with the user's move, have the AI make one now
+        if (state.getCurrentPlayer() == 1 && !state.isOver()) {
+            makeAIMove();
+        }
+
+        else {
+            startUserTurn();
+        }
+    }
+
+    /**
+     * Play a move for the current player in the given spot, and update the board and text to match
+     * @param index index of the spot, which must be legal
+     */
+    private void play(int index) {
+        clearHints();
+        state.play(index);
+        show(index);
+        showStatus();
+        GameStats.getInstance().movePlayed();
+
+        if (state.isOver() && !finished) {
+            finished = true;
+            GameStats.getInstance().gameFinished();
+        }
+    }
+
+    /**
+     * Draws the piece in the given spot, and crosses out the winning line if the move there won the game
+     * @param index index of the spot
+     */
+    private void show(int index) {
+        redraw(index);
 
-        if (currentPlayer == 1) {
+        if (board != null && state.getWinningLine() != -1) {
+            board.setWinningLine(geometry.getLines()[state.getWinningLine()]);
+        }
+    }
+
+    /**
+     * Draws a spot from scratch, with a cross if the AI holds it and a circle if the user does
+     * @param index index of the spot
+     */
+    private void redraw(int index) {
+
+        if (board != null) { // The board is drawn once it is set
+            board.setOwner(index, state.getOwner(index));
+        }
+    }
+
+    /**
+     * Sets the displayed text to whose turn it is or how the game ended, and which of undo and redo are available
+     */
+    private void showStatus() {
+
+        if (state.getCurrentPlayer() == 1) {
             displayText.set("AI's turn to make a move");
         }
 
         else {
             displayText.set("Your turn to make a move");
         }
+
+        // If there is a winner, game is over and the appropriate message displayed
+        if (state.getResult() == GameState.WIN) {
+
+            if (state.getWinner() == 1) {
+                displayText.set("You Lose!");
+            }
+
+            else {
+                displayText.set("You broke the game");
+            }
+        }
+
+        // If the board is full, game is over and the appropriate message is displayed
+        else if (state.getResult() == GameState.DRAW) {
+            displayText.set("It's a draw!");
+        }
+
+        // The user has moved if there are more moves than the AI's opening move, if it had one
+        int firstUserMove = state.getFirstPlayer() == 2 ? 0 : 1;
+        canUndo.set(pendingMove == null && state.getMoveCount() > firstUserMove);
+        canRedo.set(pendingMove == null && state.canRedo());
     }
 
     /**
-     * Add a square to the game's list of squares
-     * @param square sqaure to add
+     * Gets the AI to chose a spot on the background thread, and then play a move there on the JavaFX application
+     * thread. Must be called on the JavaFX application thread while it is the AI's turn
+     * @return the spot that was played, which completes once the move is on the board, or is cancelled with the game
      */
-    public void addSquare(Square square) {
-        squares.add(square);
+    public CompletableFuture<Integer> makeAIMove() {
+        GameState position = state.copy(); // The search gets its own copy, so it never sees the board change
+        long start = System.nanoTime();
+        long generation = ai.getGeneration(); // So cancelling stops the search even if it has not started yet
+        CompletableFuture<Integer> search = CompletableFuture.supplyAsync(() -> ai.chooseMove(position, generation),
+                AI_THREAD);
+        pendingMove = search;
+        showStatus(); // Undo and redo wait until the AI has moved
+
+        return search.thenApplyAsync((index) -> {
+
+            if (!cancelled) {
+                pendingMove = null;
+                play(index);
+                GameStats.getInstance().aiMovePlayed(System.nanoTime() - start);
+                startUserTurn();
+            }
+
+            return index;
+        }, Platform::runLater);
     }
 
     /**
-     * Check if a move can be made in the given grid spot
-     * @param col column of the grid
-     * @param row row of the grid
-     * @return true if the move can be made, false otherwise
+     * Gets the AI ready for the user's turn, scoring the user's moves for the hints before pondering its replies
      */
-    private boolean isValidMove(int col, int row) {
+    private void startUserTurn() {
+        showHints();
+        startPondering();
+    }
 
-        if (grid[col][row] != 0 || gameOver) { // If the spot is not empty, or the game is over, a move cannot be made
-            return false;
+    /**
+     * Turns hints on or off. Must be called on the JavaFX application thread
+     * @param hints true to shade the squares by how good a move there is for the user
+     */
+    public void setHints(boolean hints) {
+        this.hints = hints;
+
+        if (hints) {
+            stopPondering(); // So the hints are not held up behind the replies
+            startUserTurn();
         }
 
-        return true;
+        else {
+            clearHints();
+        }
     }
 
     /**
-     * Play a move in the given grid spot
-     * @param col column of the grid
-     * @param row row of the grid
+     * Sets what scores the user's moves for the hints
+     * @param analyser position analyser for this game's board, or null to not show hints
      */
-    public void movePlayed(int col, int row) {
+    public void setAnalyser(PositionAnalyser analyser) {
+        this.analyser = analyser;
+    }
 
-        if (isValidMove(col, row)) {
-            grid[col][row] = currentPlayer; // Plays the move by changing the spot in the grid to that of the current player
+    /**
+     * Scores every move the user could make on the AI's background thread, and shades the squares to match once the
+     * scores are in, if hints are on and it is the user's turn
+     */
+    private void showHints() {
 
-            // Draw a cross or circle on that particular square and change the current player
-            for (Square square : squares) {
+        if (!hints || analyser == null || cancelled || state.getCurrentPlayer() != 2 || state.isOver()
+                || pendingMove != null) {
+            return;
+        }
 
-                if (square.getColumn() == col && square.getRow() == row) {
+        int round = ++hintRound;
+        long own = state.getMask(2);
+        long other = state.getMask(1);
 
-                    if (currentPlayer == 1) {
-                        square.drawCross();
-                        currentPlayer = 2;
-                    }
+        CompletableFuture.supplyAsync(() -> analyser.scoreMoves(own, other), AI_THREAD).thenAcceptAsync((scores) -> {
 
-                    else {
-                        square.drawCircle();
-                        currentPlayer = 1;
-                    }
-                }
+            if (round == hintRound && !cancelled) { // The board has not changed since
+                drawHints(scores);
             }
+        }, Platform::runLater);
+    }
 
-            if (currentPlayer == 1) {
-                displayText.set("AI's turn to make a move");
-            }
+    /**
+     * Shades every scored square, with the colours of the scores that are not forced results spread between the
+     * lowest and highest of them
+     * @param scores the score of each spot for the user, as returned by AI.scoreMoves
+     */
+    private void drawHints(int[] scores) {
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
 
-            else {
-                displayText.set("Your turn to make a move");
+        for (int score : scores) {
+
+            if (score != AI.NO_SCORE && Math.abs(score) < AI.MATE_THRESHOLD) {
+                low = Math.min(low, score);
+                high = Math.max(high, score);
             }
+        }
 
-            // If there is a winner, game is over and the appropriate message displayed
-            if (checkWinner() != 0) {
-                gameOver = true;
+        for (int i = 0; i < scores.length; i++) {
 
-                if (checkWinner() == 1) {
-                    displayText.set("You Lose!");
-                }
+            if (scores[i] == AI.NO_SCORE || board == null) {
+                continue;
+            }
 
-                else {
-                    displayText.set("You broke the game");
-                }
+            if (scores[i] >= AI.MATE_THRESHOLD) {
+                board.setHint(i, WIN_HINT);
             }
 
-            // If the board is full, game is over and the appropriate message is displayed
-            else if (boardFull()) {
-                gameOver = true;
-                displayText.set("It's a draw!");
+            else if (scores[i] <= -AI.MATE_THRESHOLD) {
+                board.setHint(i, LOSS_HINT);
             }
 
-            // If the game is not over and it's the AI's turn, have the AI make a move
-            if (currentPlayer == 1 && !gameOver) {
-                makeAIMove();
+            else {
+                board.setHint(i, LOW_HINT.interpolate(HIGH_HINT, high == low ? 1 : (double) (scores[i] - low)
+                        / (high - low)));
             }
         }
     }
 
     /**
-     * Checks the board to see if there is a winner
-     * @return 0 if there is no winner, 1 if AI wins, 2 if the player wins
+     * Removes the hints from the empty squares, and stops any hints being scored from being drawn
      */
-    private int checkWinner() {
+    private void clearHints() {
+        hintRound++;
 
-        // Check complete columns
-        for (int i = 0; i < 3; i++) {
+        for (long free = state.legalMoves(); free != 0; free &= free - 1) {
+            redraw(Long.numberOfTrailingZeros(free));
+        }
+    }
 
-            if (grid[i][0] == grid[i][1] && grid[i][1] == grid[i][2] && grid[i][0] != 0) {
+    /**
+     * Turns pondering on or off. When it is turned on during the user's turn the AI starts pondering straight away.
+     * Must be called on the JavaFX application thread
+     * @param pondering true to search the AI's replies while it is the user's turn
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
 
-                for (Square square : squares) { // Cross out the complete column
+        if (pondering) {
+            startPondering();
+        }
 
-                    if (square.getColumn() == i) {
-                        square.crossOutVer();
-                    }
-                }
+        else {
+            stopPondering();
+        }
+    }
 
-                return grid[i][0];
-            }
+    /**
+     * Starts searching the AI's reply to each move the user could make, on the AI's background thread, if pondering
+     * is on and it is the user's turn. The replies are kept until pondering stops
+     */
+    private void startPondering() {
+
+        if (!pondering || cancelled || state.getCurrentPlayer() != 2 || state.isOver() || pendingMove != null) {
+            return;
         }
 
-        // Check complete rows
-        for (int i = 0; i < 3; i++) {
+        stopPondering(); // Only one round at a time
+        int round = ponderRound;
+        Map<Integer, Integer> replies = new ConcurrentHashMap<Integer, Integer>();
+        ponderedReplies = replies;
+        GameState position = state.copy();
+        ArrayList<Integer> userMoves = new ArrayList<Integer>();
+
+        for (long free = state.legalMoves(); free != 0; free &= free - 1) {
+            userMoves.add(Long.numberOfTrailingZeros(free));
+        }
 
-            if (grid[0][i] == grid[1][i] && grid[1][i] == grid[2][i] && grid[0][i] != 0) {
+        // The spots on the most lines are the likeliest to be played, so their replies are searched first
+        userMoves.sort(Comparator.comparingInt((Integer spot) -> -linesThrough(spot)));
 
-                for (Square square : squares) { // Cross out the complete row
+        CompletableFuture.runAsync(() -> {
 
-                    if (square.getRow() == i) {
-                        square.crossOutHor();
-                    }
+            for (int userMove : userMoves) {
+                long generation = ai.getGeneration(); // Read first, so a stop after the check still stops the search
+
+                if (ponderRound != round) { // The user has moved, or the board has changed
+                    return;
                 }
 
-                return grid[0][i];
-            }
-        }
+                GameState next = position.copy();
+                next.play(userMove);
 
-        // Check diagonal
-        if (grid[0][0] == grid[1][1] && grid[1][1] == grid[2][2] && grid[0][0] != 0) {
+                if (next.isOver()) {
+                    continue;
+                }
 
-            for (Square square : squares) { // Cross out the complete diagonal
+                int reply = ai.chooseMove(next, generation);
 
-                if (square.getRow() == square.getColumn()) {
-                    square.crossOutDia();
+                if (ponderRound == round) { // A search stopped early is not worth keeping
+                    replies.put(userMove, reply);
                 }
             }
+        }, AI_THREAD);
+    }
+
+    /**
+     * Stops pondering and throws away its replies. A search for a reply that is running is stopped, so the next search
+     * on the AI's thread starts as soon as possible
+     */
+    private void stopPondering() {
+        ponderRound++;
+        ponderedReplies = new ConcurrentHashMap<Integer, Integer>();
 
-            return grid[0][0];
+        if (pendingMove == null) { // Otherwise the search running is for the AI's real move
+            ai.stop();
         }
+    }
 
-        // Check reverse diagonal
-        if (grid[0][2] == grid[1][1] && grid[1][1] == grid[2][0] && grid[0][2] != 0) {
+    /**
+     * Counts the lines running through a spot
+     * @param index index of the spot
+     * @return number of lines
+     */
+    private int linesThrough(int index) {
+        int count = 0;
 
-            for (Square square : squares) {
+        for (long line : geometry.getLines()) {
 
-                if (square.getRow() ==  2 - square.getColumn()) { // Cross out the complete diagonal
-                    square.crossOutRevDia();
-                }
+            if ((line & (1L << index)) != 0) {
+                count++;
             }
-
-            return grid[0][2];
         }
 
-        return 0;
+        return count;
     }
 
     /**
-     * Checks if the board is full
-     * @return true if the board is full, false otherwise
+     * Leaves the game, stopping the AI's search if it is still running, and writes it to the game log if it has one.
+     * A game that is not over is logged as abandoned. Must be called on the JavaFX application thread
      */
-    private boolean boardFull() {
+    public void cancel() {
 
-        for (int[] column : grid) {
+        if (cancelled) {
+            return;
+        }
 
-            for (int row : column) {
+        cancelled = true;
+        stopPondering();
 
-                if (row == 0) { // If a single spot is 0, the board is not full
-                    return false;
-                }
-            }
+        if (pendingMove != null) {
+            pendingMove.cancel(false); // A search that has not started yet never will
+            ai.stop(); // And one that has returns as soon as it sees this
+            pendingMove = null;
         }
 
-        return true;
+        // Logged once it is left rather than when it ends, so a game that is undone and played on is only kept once
+        if (log != null && state.getMoveCount() > 0) {
+
+            try {
+                log.append(state, System.currentTimeMillis());
+            }
+
+            catch (IOException e) {
+                System.err.println("Could not log the game: " + e.getMessage());
+            }
+        }
     }
 
     /**
-     * Gets the AI to chose a spot and play a move there
+     * Sets the log the game is written to when it is left
+     * @param log game log, or null to not keep the game
      */
-    public void makeAIMove() {
-        Pair<Integer, Integer> coords = ai.chooseSquare(grid);
-        movePlayed(coords.getKey(), coords.getValue());
+    public void setLog(GameLog log) {
+        this.log = log;
     }
 
     /**
@@ -227,11 +548,35 @@ public class Game {
         return displayText;
     }
 
+    /**
+     * Gets whether the user has a move that can be undone, for binding to the undo control
+     * @return true while undo is available
+     */
+    public ReadOnlyBooleanProperty getCanUndo() {
+        return canUndo;
+    }
+
+    /**
+     * Gets whether there are undone moves that can be redone, for binding to the redo control
+     * @return true while redo is available
+     */
+    public ReadOnlyBooleanProperty getCanRedo() {
+        return canRedo;
+    }
+
+    /**
+     * Gets the shape of the board this game is played on
+     * @return board geometry
+     */
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+
     /**
      * Gets the current player
      * @return the number of the current player
      */
     public int getCurrentPlayer() {
-        return currentPlayer;
+        return state.getCurrentPlayer();
     }
 }
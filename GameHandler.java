@@ -5,15 +5,21 @@ import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
 public class GameHandler extends Application {
 
     /**
@@ -22,13 +28,63 @@ public class GameHandler extends Application {
      */
 
     private Stage stage;
+    // The boards that can be played, and a transposition table for each one, shared by the AI of every game on it
+    private static final BoardGeometry[] VARIANTS = {
+            BoardGeometry.CLASSIC, new BoardGeometry(5, 5, 4), new BoardGeometry(7, 7, 5), BoardGeometry.QUBIC
+    };
+    private HashMap<BoardGeometry, TranspositionTable> tables = new HashMap<BoardGeometry, TranspositionTable>();
+    // The minimax AI of each board, kept so its thread pool is only built once rather than for every game
+    private HashMap<BoardGeometry, AI> players = new HashMap<BoardGeometry, AI>();
+    // The Monte Carlo AI of each board, kept for the same reason
+    private HashMap<BoardGeometry, MonteCarloAI> monteCarloPlayers = new HashMap<BoardGeometry, MonteCarloAI>();
+    private HashMap<BoardGeometry, PositionAnalyser> analysers = new HashMap<BoardGeometry, PositionAnalyser>(); // For
+    // the hints on each flat board, sharing its transposition table
+    private Game game; // The game being played, null in the menu
+    private UltimateGame ultimateGame; // The game of Ultimate Tic Tac Toe being played, null if there is none
+    private UltimateAI ultimateAI; // Shared by every game of Ultimate Tic Tac Toe, so its table is only allocated once
+    private GomokuGame gomokuGame; // The game of five in a row being played, null if there is none
+    private GomokuAI gomokuAI; // Shared by every game of five in a row, like ultimateAI
+    private CheckBox monteCarlo; // Ticked to play against Monte Carlo tree search instead of the minimax AI
+    private CheckBox ponder; // Ticked for the AI to search its replies while it is the user's turn
+    private GameLog log; // Every game played, kept in .tictactoe/games in the user's home, null if it cannot be opened
+
+    // Assets loaded once at startup and shared by every scene, so switching scenes never decodes the image again
+    private Image backgroundImage;
+    private String stylesheet;
+
+    // Scenes built once and reused: the menu, and a game scene for each board that is reset for every new game
+    private Scene menuScene;
+    private HashMap<BoardGeometry, GameView> gameViews = new HashMap<BoardGeometry, GameView>();
+    private UltimateView ultimateView;
+    private GomokuView gomokuView;
+    private static final boolean TIMING = Boolean.getBoolean("tictactoe.timing"); // Print how long switches take
 
     @Override
     public void start(Stage primaryStage) throws Exception{
         primaryStage.setTitle("Impossible Tic Tac Toe");
         primaryStage.setResizable(false);
         stage = primaryStage;
-        displayScene(buildMenuScene()); // Build and display menu scene upon startup
+        backgroundImage = new Image(getClass().getResource("background.jpg").toExternalForm());
+        stylesheet = getClass().getResource("tictactoe.css").toExternalForm();
+        menuScene = buildMenuScene();
+        displayScene(menuScene); // Display menu scene upon startup
+
+        try {
+            log = new GameLog(Paths.get(System.getProperty("user.home"), ".tictactoe", "games"));
+        }
+
+        catch (IOException e) {
+            System.err.println("Games will not be logged: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        endGame(); // Log the game being played
+
+        if (log != null) {
+            log.close();
+        }
     }
 
     /**
@@ -41,9 +97,9 @@ public class GameHandler extends Application {
         stackPane.setPrefWidth(640);
 
         Scene scene = new Scene(stackPane, 640, 480);
-        scene.getStylesheets().add(getClass().getResource("tictactoe.css").toExternalForm());
+        scene.getStylesheets().add(stylesheet);
 
-        ImageView background = new ImageView(new Image(getClass().getResource("background.jpg").toExternalForm()));
+        ImageView background = new ImageView(backgroundImage); // The decoded image is shared, only the view is new
         background.setFitHeight(stackPane.getPrefHeight());
         background.setFitWidth(stackPane.getPrefWidth());
 
@@ -52,16 +108,47 @@ public class GameHandler extends Application {
         title.getStyleClass().add("title");
         Text text = new Text("See if you can beat the AI at at Tic Tac Toe (you can't, it's impossible!)");
         text.getStyleClass().add("text");
-        Button start = new Button("Start");
-        start.getStyleClass().add("button");
-        start.setPrefWidth(100);
-        start.setOnAction((event -> startGame())); // Set the start button to start the game
+
+        // A start button for each board, which starts a game on that board
+        HBox buttons = new HBox();
+
+        for (BoardGeometry geometry : VARIANTS) {
+            Button start = new Button(geometry.toString());
+            start.getStyleClass().add("button");
+            start.setPrefWidth(95);
+            start.setOnAction((event -> startGame(geometry)));
+            buttons.getChildren().add(start);
+        }
+
+        Button ultimate = new Button("Ultimate");
+        ultimate.getStyleClass().add("button");
+        ultimate.setPrefWidth(95);
+        ultimate.setOnAction((event -> startUltimateGame()));
+        buttons.getChildren().add(ultimate);
+
+        Button gomoku = new Button("15x15");
+        gomoku.getStyleClass().add("button");
+        gomoku.setPrefWidth(95);
+        gomoku.setOnAction((event -> startGomokuGame()));
+        buttons.getChildren().add(gomoku);
+
+        buttons.setAlignment(Pos.CENTER);
+        buttons.setSpacing(10);
+
+        // Choice of AI, kept between games since the menu scene is reused
+        monteCarlo = new CheckBox("Monte Carlo AI");
+        monteCarlo.getStyleClass().add("text");
+        ponder = new CheckBox("Think on your turn");
+        ponder.getStyleClass().add("text");
+        HBox options = new HBox(monteCarlo, ponder);
+        options.setAlignment(Pos.CENTER);
+        options.setSpacing(20);
 
         // Add nodes to a vbox so they can all be displayed
-        vBox.getChildren().addAll(title, start, text);
+        vBox.getChildren().addAll(title, buttons, options, text);
         vBox.setAlignment(Pos.CENTER);
         vBox.setSpacing(20);
-        VBox.setMargin(start, new Insets(0, 0, 100, 0));
+        VBox.setMargin(options, new Insets(0, 0, 80, 0));
 
         stackPane.getChildren().add(background);
         stackPane.getChildren().add(vBox);
@@ -70,41 +157,209 @@ public class GameHandler extends Application {
     }
 
     /**
-     * Begin a new game
+     * Begin a new game on the given board, reusing the board's game scene if it has been shown before
+     * @param geometry the board to play on
+     */
+    public void startGame(BoardGeometry geometry) {
+        endGame(); // Stop the AI of any game still running
+
+        Strategy strategy;
+        TranspositionTable table = tables.computeIfAbsent(geometry, (key) -> new TranspositionTable(1 << 16));
+
+        if (monteCarlo.isSelected()) {
+            strategy = monteCarloPlayers.computeIfAbsent(geometry, (key) -> {
+                MonteCarloAI ai = new MonteCarloAI(key);
+                ai.setParallelism(Runtime.getRuntime().availableProcessors()); // Grow the tree on every core
+                return ai;
+            });
+        }
+
+        else {
+            strategy = players.computeIfAbsent(geometry, (key) -> {
+                AI ai = new AI(key, table); // An AI that remembers earlier games
+                ai.setParallelism(Runtime.getRuntime().availableProcessors()); // Search the bigger boards on every core
+                return ai;
+            });
+        }
+
+        game = new Game(strategy); // Make a new game
+        game.setLog(geometry.getLayers() == 1 ? log : null); // The log only holds flat boards
+
+        if (geometry.getLayers() == 1) { // As does the analyser
+            game.setAnalyser(analysers.computeIfAbsent(geometry, (key) -> new PositionAnalyser(key, table, 1)));
+        }
+
+        GameView view = gameViews.computeIfAbsent(geometry, (key) -> buildGameScene(key)); // Build the game scene once
+        view.reset(game);
+        displayScene(view.scene);
+
+        // If the AI is the starting player, have the make a move. It searches in the background so the scene shows
+        // straight away
+        if (game.getCurrentPlayer() == 1) {
+            game.makeAIMove();
+        }
+
+        game.setPondering(ponder.isSelected()); // Starts at once if the user moves first
+    }
+
+    /**
+     * Begin a new game of Ultimate Tic Tac Toe, reusing its scene if it has been shown before
+     */
+    public void startUltimateGame() {
+        endGame();
+
+        if (ultimateAI == null) {
+            ultimateAI = new UltimateAI();
+            ultimateView = buildUltimateScene();
+        }
+
+        ultimateGame = new UltimateGame(ultimateAI);
+        ultimateView.reset(ultimateGame);
+        displayScene(ultimateView.scene);
+
+        if (ultimateGame.getCurrentPlayer() == 1) {
+            ultimateGame.makeAIMove();
+        }
+    }
+
+    /**
+     * Begin a new game of five in a row on the 15x15 board, reusing its scene if it has been shown before
+     */
+    public void startGomokuGame() {
+        endGame();
+
+        if (gomokuAI == null) {
+            gomokuAI = new GomokuAI();
+            gomokuView = buildGomokuScene();
+        }
+
+        gomokuGame = new GomokuGame(gomokuAI);
+        gomokuView.reset(gomokuGame);
+        displayScene(gomokuView.scene);
+
+        if (gomokuGame.getCurrentPlayer() == 1) {
+            gomokuGame.makeAIMove();
+        }
+    }
+
+    /**
+     * Abandons the game being played, if there is one, cancelling the AI's move if it is still searching
+     */
+    private void endGame() {
+
+        if (game != null) {
+            game.cancel();
+            game = null;
+        }
+
+        if (ultimateGame != null) {
+            ultimateGame.cancel();
+            ultimateGame = null;
+        }
+
+        if (gomokuGame != null) {
+            gomokuGame.cancel();
+            gomokuGame = null;
+        }
+    }
+
+    /**
+     * Builds the game scene for a board. The scene's controls act on whichever game is being played, and it is reset
+     * for each new game
+     * @param geometry the board the scene shows
+     * @return game scene
      */
-    public void startGame() {
-        Game game = new Game(); // Make a new game
-        Scene scene = buildGameScene(game); // Build the game scene
+    private GameView buildGameScene(BoardGeometry geometry) {
+        StackPane stackPane = new StackPane();
+        stackPane.setPrefHeight(480);
+        stackPane.setPrefWidth(640);
+
+        Scene scene = new Scene(stackPane, 640, 480);
+        scene.getStylesheets().add(stylesheet);
+
+        ImageView background = new ImageView(backgroundImage);
+        background.setFitHeight(stackPane.getPrefHeight());
+        background.setFitWidth(stackPane.getPrefWidth());
+
+        VBox vBox = new VBox();
+
+        Text text = new Text();
+        text.getStyleClass().add("title");
+
+        // Draw the whole board on one canvas, scaled so the grid is always the same size and the layers fit side by
+        // side
+        int size = Math.min(300 / Math.max(geometry.getColumns(), geometry.getRows()),
+                560 / (geometry.getLayers() * (geometry.getColumns() + 1)));
+        BoardCanvas board = new BoardCanvas(geometry, size);
+
+        // If a spot is clicked on, then play a move there
+        board.setOnMouseClicked((event) -> {
+            int index = board.spotAt(event.getX(), event.getY());
+
+            if (index != -1) {
+                game.movePlayed(geometry.columnOf(index), geometry.rowOf(index), geometry.layerOf(index));
+            }
+        });
+
+        // Undo and redo buttons, only enabled while the game allows them
+        Button undo = new Button("Undo");
+        undo.getStyleClass().add("button");
+        undo.setOnAction((event) -> game.undo());
+        Button redo = new Button("Redo");
+        redo.getStyleClass().add("button");
+        redo.setOnAction((event) -> game.redo());
+        CheckBox hints = new CheckBox("Hints");
+        hints.getStyleClass().add("text");
+        hints.setDisable(geometry.getLayers() != 1); // Only flat boards can be analysed
+        hints.selectedProperty().addListener((property, was, selected) -> game.setHints(selected));
+        HBox history = new HBox(undo, redo, hints);
+        history.setAlignment(Pos.CENTER);
+        history.setSpacing(20);
+
+        Text goBack = new Text("Press esc to return to the main menu");
+        goBack.getStyleClass().add("text");
+
+        vBox.getChildren().addAll(text, board, history, goBack);
+        vBox.setAlignment(Pos.CENTER);
+        vBox.setSpacing(20);
+
+        stackPane.getChildren().add(background);
+        stackPane.getChildren().add(vBox);
 
         // If esc key is pressed, then return to the menu scene
         scene.setOnKeyPressed((key) -> {
             if (key.getCode() == KeyCode.ESCAPE) {
-               displayScene(buildMenuScene());
+               endGame();
+               displayScene(menuScene);
             }
-        });
 
-        displayScene(scene);
+            // Ctrl+Z and Ctrl+Y, or Cmd on a Mac, undo and redo
+            else if (key.isShortcutDown() && key.getCode() == KeyCode.Z) {
+                game.undo();
+            }
 
-        // If the AI is the starting player, have the make a move
-        if (game.getCurrentPlayer() == 1) {
-            game.makeAIMove();
-        }
+            else if (key.isShortcutDown() && key.getCode() == KeyCode.Y) {
+                game.redo();
+            }
+        });
+
+        return new GameView(scene, board, text, undo, redo, hints);
     }
 
     /**
-     * Builds the game scene
-     * @param game the game taking place in this scene
+     * Builds the scene for Ultimate Tic Tac Toe: a 3x3 grid of boards, each a 3x3 grid of squares, where the square in
+     * a column and row of the 9x9 grid sits in the board in column / 3 and row / 3
      * @return game scene
      */
-    private Scene buildGameScene(Game game) {
+    private UltimateView buildUltimateScene() {
         StackPane stackPane = new StackPane();
         stackPane.setPrefHeight(480);
         stackPane.setPrefWidth(640);
 
         Scene scene = new Scene(stackPane, 640, 480);
-        scene.getStylesheets().add(getClass().getResource("tictactoe.css").toExternalForm());
+        scene.getStylesheets().add(stylesheet);
 
-        ImageView background = new ImageView(new Image(getClass().getResource("background.jpg").toExternalForm()));
+        ImageView background = new ImageView(backgroundImage);
         background.setFitHeight(stackPane.getPrefHeight());
         background.setFitWidth(stackPane.getPrefWidth());
 
@@ -112,26 +367,31 @@ public class GameHandler extends Application {
 
         Text text = new Text();
         text.getStyleClass().add("title");
-        text.textProperty().bindBidirectional(game.getDisplayText()); // Bind the text to be displayed at the top to text display of the game
 
-        // Create a gridpane to hold 9 squares
         GridPane grid = new GridPane();
-        int column = -1;
-        for (int i = 0; i < 9; i++) {
+        grid.setHgap(6);
+        grid.setVgap(6);
+        GridPane[] boards = new GridPane[UltimateState.BOARDS];
+        Square[] squares = new Square[UltimateState.CELLS];
+
+        for (int board = 0; board < UltimateState.BOARDS; board++) {
+            boards[board] = new GridPane();
+            grid.add(boards[board], board / 3, board % 3);
+        }
 
-            if (i % 3 == 0) {
-                column++;
-            }
+        for (int column = 0; column < 9; column++) {
 
-            Square square = new Square(100, 100, column, i % 3);
-            game.addSquare(square); // Add this square to the squares in this game
+            for (int row = 0; row < 9; row++) {
+                Square square = new Square(32, 32, column, row);
+                squares[UltimateGame.index(column, row)] = square;
 
-            // If square is clicked on, then play a move
-            square.setOnMouseClicked((event) -> {
-                game.movePlayed(square.getColumn(), square.getRow());
-            });
+                // If square is clicked on, then play a move
+                square.setOnMouseClicked((event) -> {
+                    ultimateGame.movePlayed(square.getColumn(), square.getRow());
+                });
 
-            grid.add(square, column, i % 3); // Add this square to the gridpane
+                boards[column / 3 * 3 + row / 3].add(square, column % 3, row % 3);
+            }
         }
 
         Text goBack = new Text("Press esc to return to the main menu");
@@ -145,19 +405,213 @@ public class GameHandler extends Application {
         stackPane.getChildren().add(background);
         stackPane.getChildren().add(vBox);
 
-        return scene;
+        // If esc key is pressed, then return to the menu scene
+        scene.setOnKeyPressed((key) -> {
+            if (key.getCode() == KeyCode.ESCAPE) {
+               endGame();
+               displayScene(menuScene);
+            }
+        });
+
+        return new UltimateView(scene, squares, boards, text);
+    }
+
+    /**
+     * Builds the scene for five in a row: the 15x15 board drawn on one canvas
+     * @return game scene
+     */
+    private GomokuView buildGomokuScene() {
+        StackPane stackPane = new StackPane();
+        stackPane.setPrefHeight(480);
+        stackPane.setPrefWidth(640);
+
+        Scene scene = new Scene(stackPane, 640, 480);
+        scene.getStylesheets().add(stylesheet);
+
+        ImageView background = new ImageView(backgroundImage);
+        background.setFitHeight(stackPane.getPrefHeight());
+        background.setFitWidth(stackPane.getPrefWidth());
+
+        VBox vBox = new VBox();
+
+        Text text = new Text();
+        text.getStyleClass().add("title");
+
+        BoardCanvas board = new BoardCanvas(GomokuState.SIZE, GomokuState.SIZE, 1, 20);
+
+        // If a spot is clicked on, then play a move there
+        board.setOnMouseClicked((event) -> {
+            int index = board.spotAt(event.getX(), event.getY());
+
+            if (index != -1) {
+                gomokuGame.movePlayed(GomokuState.columnOf(index), GomokuState.rowOf(index));
+            }
+        });
+
+        Text goBack = new Text("Press esc to return to the main menu");
+        goBack.getStyleClass().add("text");
+
+        vBox.getChildren().addAll(text, board, goBack);
+        vBox.setAlignment(Pos.CENTER);
+        vBox.setSpacing(20);
+
+        stackPane.getChildren().add(background);
+        stackPane.getChildren().add(vBox);
+
+        // If esc key is pressed, then return to the menu scene
+        scene.setOnKeyPressed((key) -> {
+            if (key.getCode() == KeyCode.ESCAPE) {
+               endGame();
+               displayScene(menuScene);
+            }
+        });
+
+        return new GomokuView(scene, board, text);
     }
 
     /**
-     * Displays the given scene
+     * Displays the given scene. With -Dtictactoe.timing=true, prints how long it took from here until the scene was
+     * first laid out
      * @param scene the scene to be displayed
      */
     public void displayScene(Scene scene) {
+        long start = System.nanoTime();
         stage.setScene(scene);
         stage.show();
+
+        if (TIMING) {
+            Runnable[] listener = new Runnable[1];
+            listener[0] = () -> {
+                scene.removePostLayoutPulseListener(listener[0]);
+                System.out.printf("Scene switch took %.2f ms%n", (System.nanoTime() - start) / 1e6);
+            };
+            scene.addPostLayoutPulseListener(listener[0]);
+        }
     }
 
     public static void main(String[] args) {
         launch(args);
     }
+
+    private static class GameView {
+
+        /**
+         * The game scene for one board, along with the nodes that change from game to game
+         */
+
+        private final Scene scene;
+        private final BoardCanvas board;
+        private final Text text;
+        private final Button undo;
+        private final Button redo;
+        private final CheckBox hints; // Kept ticked or not from one game to the next
+        private Game game; // The game the scene is showing
+
+        private GameView(Scene scene, BoardCanvas board, Text text, Button undo, Button redo, CheckBox hints) {
+            this.scene = scene;
+            this.board = board;
+            this.text = text;
+            this.undo = undo;
+            this.redo = redo;
+            this.hints = hints;
+        }
+
+        /**
+         * Clears the board and shows the given game on it instead of the last one
+         * @param next the game to show
+         */
+        private void reset(Game next) {
+
+            if (game != null) {
+                text.textProperty().unbindBidirectional(game.getDisplayText());
+            }
+
+            game = next;
+
+            next.setBoard(board); // Clears the board and draws the new game on it
+
+            text.textProperty().bindBidirectional(next.getDisplayText()); // Bind the text to the game's text display
+            undo.disableProperty().bind(next.getCanUndo().not());
+            redo.disableProperty().bind(next.getCanRedo().not());
+            next.setHints(hints.isSelected());
+        }
+    }
+
+    private static class UltimateView {
+
+        /**
+         * The scene for Ultimate Tic Tac Toe, along with the nodes that change from game to game
+         */
+
+        private final Scene scene;
+        private final Square[] squares; // Indexed like the spots of UltimateState
+        private final GridPane[] boards;
+        private final Text text;
+        private UltimateGame game; // The game the scene is showing
+
+        private UltimateView(Scene scene, Square[] squares, GridPane[] boards, Text text) {
+            this.scene = scene;
+            this.squares = squares;
+            this.boards = boards;
+            this.text = text;
+        }
+
+        /**
+         * Clears the boards and shows the given game on them instead of the last one
+         * @param next the game to show
+         */
+        private void reset(UltimateGame next) {
+
+            if (game != null) {
+                text.textProperty().unbindBidirectional(game.getDisplayText());
+            }
+
+            game = next;
+
+            for (Square square : squares) {
+                square.clear();
+                next.addSquare(square);
+            }
+
+            for (int board = 0; board < boards.length; board++) {
+                next.addBoard(board, boards[board]);
+            }
+
+            text.textProperty().bindBidirectional(next.getDisplayText());
+        }
+    }
+
+    private static class GomokuView {
+
+        /**
+         * The scene for five in a row, along with the nodes that change from game to game
+         */
+
+        private final Scene scene;
+        private final BoardCanvas board;
+        private final Text text;
+        private GomokuGame game; // The game the scene is showing
+
+        private GomokuView(Scene scene, BoardCanvas board, Text text) {
+            this.scene = scene;
+            this.board = board;
+            this.text = text;
+        }
+
+        /**
+         * Clears the board and shows the given game on it instead of the last one
+         * @param next the game to show
+         */
+        private void reset(GomokuGame next) {
+
+            if (game != null) {
+                text.textProperty().unbindBidirectional(game.getDisplayText());
+            }
+
+            game = next;
+            board.clear();
+            next.setBoard(board);
+            text.textProperty().bindBidirectional(next.getDisplayText());
+        }
+    }
 }
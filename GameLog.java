@@ -0,0 +1,227 @@
+package tictactoe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class GameLog implements Closeable {
+
+    /**
+     * An append-only binary log of finished games, written to numbered segment files in a directory and read back by
+     * GameLogReader. A segment starts with a magic number and version, then holds one record per game:
+     *
+     * byte  columns in the high nibble, rows in the low nibble
+     * byte  win length in the high nibble, starting player - 1 in bit 2, result in the low two bits
+     * int   when the game ended, in seconds since 1970, unsigned
+     * byte  number of moves
+     * moves the index of each spot played, in order. On boards of up to 16 spots two moves share a byte, the first in
+     *       the high nibble, otherwise each move takes a byte
+     *
+     * so a classic game takes 12 bytes at most. Records are gathered in a direct buffer and written with a single
+     * channel write when it fills up or the log is flushed, and a new segment is started once the current one would
+     * grow past the size limit
+     */
+
+    public static final int MAGIC = 0x5454474C; // "TTGL"
+    public static final int VERSION = 1;
+    public static final int SEGMENT_HEADER_SIZE = 8;
+    public static final int RECORD_HEADER_SIZE = 7;
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+    public static final String SEGMENT_PREFIX = "games-";
+    public static final String SEGMENT_SUFFIX = ".log";
+
+    // Values of the result bits
+    public static final int ABANDONED = 0;
+    public static final int PLAYER_1_WON = 1;
+    public static final int PLAYER_2_WON = 2;
+    public static final int DRAW = 3;
+
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private FileChannel channel;
+    private int segment; // Number of the segment being written
+    private long written; // Bytes in the current segment, including what is still in the buffer
+
+    /**
+     * Opens a log in the given directory with the default segment size
+     * @param directory directory of the segment files, created if it does not exist
+     * @throws IOException if the directory or segment cannot be opened
+     */
+    public GameLog(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a log in the given directory, carrying on from the last segment in it if there is room
+     * @param directory directory of the segment files, created if it does not exist
+     * @param segmentSize size in bytes a segment may not grow past
+     * @throws IOException if the directory or segment cannot be opened
+     */
+    public GameLog(Path directory, long segmentSize) throws IOException {
+
+        if (segmentSize < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + 64) {
+            throw new IllegalArgumentException("Segments must have room for a game");
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        while (Files.exists(segmentPath(directory, segment + 1))) {
+            segment++;
+        }
+
+        openSegment();
+    }
+
+    /**
+     * Gets the path of a segment file
+     * @param directory directory of the log
+     * @param segment number of the segment
+     * @return path of the segment
+     */
+    public static Path segmentPath(Path directory, int segment) {
+        return directory.resolve(String.format("%s%05d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Appends a game to the log. It is only written to the file once the buffer fills up or the log is flushed
+     * @param state the game, which is abandoned if it is not over
+     * @param timestamp when the game ended, in milliseconds since 1970
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void append(GameState state, long timestamp) throws IOException {
+        BoardGeometry geometry = state.getGeometry();
+        int moves = state.getMoveCount();
+        int size = recordSize(geometry.getCells(), moves);
+
+        if (channel == null) {
+            throw new IOException("The log is closed");
+        }
+
+        if (geometry.getLayers() > 1) { // The record header has no room for layers
+            throw new IOException("Only flat boards can be logged");
+        }
+
+        if (written + size > segmentSize) { // Start a new segment rather than grow this one past its limit
+            flush();
+            channel.close();
+            segment++;
+            openSegment();
+        }
+
+        if (buffer.remaining() < size) {
+            flush();
+        }
+
+        int result;
+
+        if (state.getResult() == GameState.WIN) {
+            result = state.getWinner() == 1 ? PLAYER_1_WON : PLAYER_2_WON;
+        }
+
+        else {
+            result = state.getResult() == GameState.DRAW ? DRAW : ABANDONED;
+        }
+
+        buffer.put((byte) (geometry.getColumns() << 4 | geometry.getRows()));
+        buffer.put((byte) (geometry.getWinLength() << 4 | (state.getFirstPlayer() - 1) << 2 | result));
+        buffer.putInt((int) (timestamp / 1000));
+        buffer.put((byte) moves);
+
+        if (geometry.getCells() <= 16) { // Two moves to a byte
+
+            for (int n = 0; n < moves; n += 2) {
+                int second = n + 1 < moves ? state.getMove(n + 1) : 0;
+                buffer.put((byte) (state.getMove(n) << 4 | second));
+            }
+        }
+
+        else {
+
+            for (int n = 0; n < moves; n++) {
+                buffer.put((byte) state.getMove(n));
+            }
+        }
+
+        written += size;
+    }
+
+    /**
+     * Writes every buffered game to the current segment
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    /**
+     * Flushes the log and closes the current segment
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+
+        if (channel != null) {
+            flush();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Gets the number of bytes a game takes in the log
+     * @param cells number of spots on the board
+     * @param moves number of moves played
+     * @return size of the record
+     */
+    public static int recordSize(int cells, int moves) {
+        return RECORD_HEADER_SIZE + (cells <= 16 ? (moves + 1) / 2 : moves);
+    }
+
+    /**
+     * Opens the current segment for appending, writing its header if it is new. A game cut off part way through by
+     * the last program to write the segment is dropped, so the next game starts where it should
+     * @throws IOException if the segment cannot be opened or is not a game log
+     */
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segmentPath(directory, segment), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        written = channel.size();
+
+        if (written == 0) {
+            buffer.putInt(MAGIC).putInt(VERSION);
+            written = SEGMENT_HEADER_SIZE;
+            return;
+        }
+
+        ByteBuffer existing = channel.map(FileChannel.MapMode.READ_ONLY, 0, written);
+
+        if (written < SEGMENT_HEADER_SIZE || existing.getInt(0) != MAGIC || existing.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(segmentPath(directory, segment) + " is not a game log");
+        }
+
+        int valid = GameLogReader.validLength(existing);
+
+        if (valid < written) {
+            channel.truncate(valid);
+            written = valid;
+        }
+
+        channel.position(written); // Only ever append
+    }
+}
@@ -0,0 +1,241 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class GameLogReader {
+
+    /**
+     * Reads back the games written by GameLog. Each segment is memory-mapped in turn and the reader is a cursor over
+     * it: next moves on to the following game, and the getters read that game straight from the mapped bytes, so
+     * reading any number of games allocates nothing past one buffer per segment. A segment that ends part way through
+     * a game, because the program writing it stopped, is read up to the last whole game. Usage:
+     * java tictactoe.GameLogReader [log directory]
+     */
+
+    private final Path directory;
+    private int segment = -1; // Number of the segment being read
+    private ByteBuffer bytes; // The mapped segment, null once every segment has been read
+    private int limit; // End of the last whole game in the segment
+    private int record = -1; // Position of the current game, -1 before the first
+    private int next; // Position of the game after it
+
+    /**
+     * New GameLogReader, positioned before the first game
+     * @param directory directory of the log
+     */
+    public GameLogReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Reads every game in a log and prints how the games went and how fast they were read
+     * @param args directory of the log, "games" if absent
+     * @throws IOException if the log cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        GameLogReader reader = new GameLogReader(Paths.get(args.length > 0 ? args[0] : "games"));
+        long[] results = new long[4];
+        long[] firstMoves = new long[64];
+        long games = 0;
+        long moves = 0;
+        long start = System.nanoTime();
+
+        while (reader.next()) {
+            games++;
+            moves += reader.getMoveCount();
+            results[reader.getResult()]++;
+
+            if (reader.getMoveCount() > 0) {
+                firstMoves[reader.getMove(0)]++;
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int favourite = 0;
+
+        for (int i = 1; i < firstMoves.length; i++) {
+
+            if (firstMoves[i] > firstMoves[favourite]) {
+                favourite = i;
+            }
+        }
+
+        System.out.printf("%d games, %d moves, read in %.2f seconds (%.0f games per second)%n", games, moves, seconds,
+                games / seconds);
+        System.out.printf("Player 1 won %d, player 2 won %d, drawn %d, abandoned %d%n", results[GameLog.PLAYER_1_WON],
+                results[GameLog.PLAYER_2_WON], results[GameLog.DRAW], results[GameLog.ABANDONED]);
+        System.out.println("Most common first move: spot " + favourite + ", " + firstMoves[favourite] + " games");
+    }
+
+    /**
+     * Moves on to the next game, opening the next segment when this one runs out
+     * @return false if there are no more games
+     * @throws IOException if a segment cannot be read or is not a game log
+     */
+    public boolean next() throws IOException {
+
+        while (true) {
+
+            if (bytes != null && record != -1 && next < limit) {
+                record = next;
+                next = record + GameLog.recordSize(getColumns() * getRows(), getMoveCount());
+                return true;
+            }
+
+            if (bytes != null && record == -1 && limit > GameLog.SEGMENT_HEADER_SIZE) { // First game of the segment
+                record = GameLog.SEGMENT_HEADER_SIZE;
+                next = record + GameLog.recordSize(getColumns() * getRows(), getMoveCount());
+                return true;
+            }
+
+            if (!openSegment(segment + 1)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of columns of the current game's board
+     * @return column count
+     */
+    public int getColumns() {
+        return (bytes.get(record) >> 4) & 0xF;
+    }
+
+    /**
+     * Gets the number of rows of the current game's board
+     * @return row count
+     */
+    public int getRows() {
+        return bytes.get(record) & 0xF;
+    }
+
+    /**
+     * Gets the number of spots in a row needed to win the current game
+     * @return win length
+     */
+    public int getWinLength() {
+        return (bytes.get(record + 1) >> 4) & 0xF;
+    }
+
+    /**
+     * Gets the player who moved first in the current game
+     * @return 1 or 2
+     */
+    public int getFirstPlayer() {
+        return ((bytes.get(record + 1) >> 2) & 1) + 1;
+    }
+
+    /**
+     * Gets how the current game ended
+     * @return GameLog.PLAYER_1_WON, PLAYER_2_WON, DRAW or ABANDONED
+     */
+    public int getResult() {
+        return bytes.get(record + 1) & 3;
+    }
+
+    /**
+     * Gets when the current game ended
+     * @return milliseconds since 1970, to the nearest second
+     */
+    public long getTimestamp() {
+        return Integer.toUnsignedLong(bytes.getInt(record + 2)) * 1000;
+    }
+
+    /**
+     * Gets the number of moves played in the current game
+     * @return move count
+     */
+    public int getMoveCount() {
+        return bytes.get(record + 6) & 0xFF;
+    }
+
+    /**
+     * Gets a move of the current game
+     * @param number number of the move, counting from 0
+     * @return index of the spot played, as in BoardGeometry
+     */
+    public int getMove(int number) {
+        int moves = record + GameLog.RECORD_HEADER_SIZE;
+
+        if (getColumns() * getRows() <= 16) {
+            int packed = bytes.get(moves + number / 2);
+            return number % 2 == 0 ? (packed >> 4) & 0xF : packed & 0xF;
+        }
+
+        return bytes.get(moves + number) & 0xFF;
+    }
+
+    /**
+     * Plays the current game on a new state, so its rules can be checked or its positions looked at
+     * @param geometry the board of the current game, which the caller can keep between games on the same board
+     * @return the game after its last move
+     */
+    public GameState replay(BoardGeometry geometry) {
+        GameState state = new GameState(geometry, getFirstPlayer());
+
+        for (int n = 0; n < getMoveCount(); n++) {
+            state.play(getMove(n));
+        }
+
+        return state;
+    }
+
+    /**
+     * Finds the end of the last whole game in a segment
+     * @param segment contents of a segment, from its header on
+     * @return number of bytes holding the header and whole games
+     */
+    static int validLength(ByteBuffer segment) {
+        int position = GameLog.SEGMENT_HEADER_SIZE;
+
+        while (position + GameLog.RECORD_HEADER_SIZE <= segment.limit()) {
+            int board = segment.get(position);
+            int cells = ((board >> 4) & 0xF) * (board & 0xF);
+            int end = position + GameLog.recordSize(cells, segment.get(position + 6) & 0xFF);
+
+            if (end > segment.limit()) {
+                break;
+            }
+
+            position = end;
+        }
+
+        return Math.min(position, segment.limit());
+    }
+
+    /**
+     * Maps a segment and checks its header
+     * @param number number of the segment
+     * @return false if there is no such segment
+     * @throws IOException if the segment cannot be read or is not a game log
+     */
+    private boolean openSegment(int number) throws IOException {
+        Path path = GameLog.segmentPath(directory, number);
+
+        if (!Files.exists(path)) {
+            bytes = null;
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (bytes.limit() < GameLog.SEGMENT_HEADER_SIZE || bytes.getInt(0) != GameLog.MAGIC
+                || bytes.getInt(4) != GameLog.VERSION) {
+            throw new IOException(path + " is not a game log");
+        }
+
+        segment = number;
+        limit = validLength(bytes);
+        record = -1;
+        return true;
+    }
+}
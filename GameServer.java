@@ -0,0 +1,708 @@
+package tictactoe;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class GameServer {
+
+    /**
+     * Hosts many games at once over HTTP, without a display. Every request is handled on its own virtual thread, so a
+     * client waiting for the AI costs almost nothing, while the AI searches run on a small pool of platform threads,
+     * one per core, with a bounded queue. When the queue is full, or there are already as many games as allowed, the
+     * server answers 503 with a Retry-After header instead of falling further behind, and games nobody has touched
+     * for a while are closed. The JDK has no WebSocket server, so clients follow a game by long polling instead.
+     * Requires Java 21. The rules are the same as in Game: player 1 is the AI, player 2 is the user, the starting
+     * player is random unless chosen, and the user may only move on their turn. Every response is a game as JSON,
+     * with rows of the board as strings of X (AI), O (user) and . (empty)
+     *
+     * POST   /games?columns=5&rows=5&winLength=4&first=user  starts a game, every parameter is optional
+     * GET    /games/{id}?since=3&wait=30000                  gets a game, waiting until its version passes since
+     * POST   /games/{id}/moves?column=1&row=2&wait=30000     plays the user's move, waiting for the AI's reply if asked
+     * DELETE /games/{id}                                     ends a game
+     *
+     * Only the flat boards of the menu can be played, 3x3 with 3 in a row, 5x5 with 4 and 7x7 with 5, so the server
+     * never holds more than one board and transposition table for each of them. Games are written to a GameLog when
+     * they are closed, if the server has one.
+     *
+     * Usage: java tictactoe.GameServer [port] [max games] [AI threads] [AI queue] [AI time budget ms] [idle timeout s]
+     * [game log directory]
+     */
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final long MAX_WAIT = 60000; // Longest a long poll may wait, in milliseconds
+
+    // The boards that can be played, shared by every game on them
+    private static final BoardGeometry[] BOARDS = {
+            BoardGeometry.CLASSIC, new BoardGeometry(5, 5, 4), new BoardGeometry(7, 7, 5)
+    };
+
+    static {
+        // Send small responses straight away rather than waiting for the client's delayed acknowledgement
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+    private final AtomicInteger sessionSlots = new AtomicInteger(); // Games open or being created, at most maxSessions
+    // A transposition table for each board, shared by every AI searching on it
+    private final ConcurrentHashMap<BoardGeometry, TranspositionTable> tables =
+            new ConcurrentHashMap<BoardGeometry, TranspositionTable>();
+    // The AI of each search thread for each board, since an AI keeps state between searches
+    private final ThreadLocal<HashMap<BoardGeometry, AI>> players =
+            ThreadLocal.withInitial(() -> new HashMap<BoardGeometry, AI>());
+    private final ThreadPoolExecutor searches;
+    private final ScheduledExecutorService sweeper;
+    private final ExecutorService handlers;
+    private final HttpServer server;
+    private final int maxSessions;
+    private final long timeBudget;
+    private final long idleTimeout;
+    private final Random random = new Random();
+    private volatile GameLog log; // Where closed games are written, null to not keep them
+
+    /**
+     * New GameServer, which does not accept connections until it is started
+     * @param port port to listen on, 0 for any free port
+     * @param maxSessions most games that may be open at once
+     * @param aiThreads number of threads the AI searches on
+     * @param queueSize most AI moves that may wait for a thread
+     * @param timeBudget time budget of each AI move in milliseconds
+     * @param idleTimeout milliseconds after the last request before a game is closed
+     * @throws IOException if the port cannot be opened
+     */
+    public GameServer(int port, int maxSessions, int aiThreads, int queueSize, long timeBudget, long idleTimeout)
+            throws IOException {
+        this.maxSessions = maxSessions;
+        this.timeBudget = timeBudget;
+        this.idleTimeout = idleTimeout;
+        searches = new ThreadPoolExecutor(aiThreads, aiThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), (runnable) -> {
+                    Thread thread = new Thread(runnable, "AI");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        sweeper = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "Session sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        handlers = Executors.newVirtualThreadPerTaskExecutor();
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(handlers);
+        server.createContext("/games", this::handle);
+    }
+
+    /**
+     * Starts the server
+     * @param args port, most open games, AI threads, AI queue size, AI time budget in ms, idle timeout in seconds and
+     *             the directory to log games to, all optional
+     * @throws IOException if the port cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int maxSessions = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int aiThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int queueSize = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+        long budget = args.length > 4 ? Long.parseLong(args[4]) : 200;
+        long idleTimeout = args.length > 5 ? Long.parseLong(args[5]) * 1000 : 300000;
+
+        GameServer server = new GameServer(port, maxSessions, aiThreads, queueSize, budget, idleTimeout);
+
+        if (args.length > 6) {
+            GameLog log = new GameLog(Paths.get(args[6]));
+            server.setLog(log);
+
+            // Write out the games still buffered when the server is shut down
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+
+                try {
+                    log.close();
+                }
+
+                catch (IOException e) {
+                    System.err.println("Could not close the game log: " + e.getMessage());
+                }
+            }));
+        }
+
+        server.start();
+        System.out.println("Serving games on port " + server.getPort() + ", AI searching on " + aiThreads
+                + " threads");
+    }
+
+    /**
+     * Starts accepting connections and closing idle games
+     */
+    public void start() {
+        server.start();
+        long period = Math.max(100, idleTimeout / 10);
+        sweeper.scheduleAtFixedRate(this::closeIdleSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the server, closing every game
+     */
+    public void stop() {
+        server.stop(0);
+        sweeper.shutdownNow();
+        searches.shutdownNow();
+        handlers.shutdownNow();
+
+        for (Session session : sessions.values()) {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Sets the log that games are written to when they are closed. The server does not close the log
+     * @param log game log, or null to not keep games
+     */
+    public void setLog(GameLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Gets the port the server listens on
+     * @return port number
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Gets the number of open games
+     * @return game count
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Routes a request to the method for its path and HTTP method, and sends the response
+     * @param exchange the request
+     * @throws IOException if the response cannot be sent
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String[] parts = exchange.getRequestURI().getPath().split("/"); // "", "games", id, "moves"
+        HashMap<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String method = exchange.getRequestMethod();
+        Response response;
+
+        try {
+
+            if (parts.length == 2 && method.equals("POST")) {
+                response = create(query);
+            }
+
+            else if (parts.length < 3 || parts.length > 4 || (parts.length == 4 && !parts[3].equals("moves"))) {
+                response = new Response(404, "{\"error\":\"Not found\"}");
+            }
+
+            else {
+                Session session = sessions.get(parts[2]);
+
+                if (session == null) {
+                    response = new Response(404, "{\"error\":" + quote("No game " + parts[2]) + "}");
+                }
+
+                else if (parts.length == 4 && method.equals("POST")) {
+                    response = move(session, query);
+                }
+
+                else if (parts.length == 3 && method.equals("GET")) {
+                    response = poll(session, query);
+                }
+
+                else if (parts.length == 3 && method.equals("DELETE")) {
+                    closeSession(session);
+                    response = new Response(200, session.toJson());
+                }
+
+                else {
+                    response = new Response(405, "{\"error\":\"Method not allowed\"}");
+                }
+            }
+        }
+
+        catch (NumberFormatException e) {
+            response = new Response(400, "{\"error\":\"Bad number\"}");
+        }
+
+        catch (IllegalArgumentException e) {
+            String message = e.getMessage() == null ? "Bad request" : e.getMessage();
+            response = new Response(400, "{\"error\":" + quote(message) + "}");
+        }
+
+        catch (InterruptedException e) {
+            response = new Response(503, "{\"error\":\"Server stopping\"}");
+        }
+
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+
+        if (response.status == 503) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        }
+
+        exchange.sendResponseHeaders(response.status, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Starts a game, with the AI searching for its first move if it goes first
+     * @param query board size and starting player, all optional
+     * @return the new game, or 503 if there are too many games or the AI is too busy
+     * @throws IllegalArgumentException if the board cannot be played or the starting player is not ai or user
+     */
+    private Response create(HashMap<String, String> query) {
+        int columns = Integer.parseInt(query.getOrDefault("columns", "3"));
+        int rows = Integer.parseInt(query.getOrDefault("rows", String.valueOf(columns)));
+        int winLength = Integer.parseInt(query.getOrDefault("winLength", String.valueOf(Math.min(columns, rows))));
+        BoardGeometry geometry = findBoard(columns, rows, winLength);
+        String first = query.get("first");
+        int firstPlayer;
+
+        if (first == null) {
+            firstPlayer = random.nextInt(2) + 1; // Randomise the starting player, like Game
+        }
+
+        else if (first.equals("ai") || first.equals("user")) {
+            firstPlayer = first.equals("ai") ? 1 : 2;
+        }
+
+        else {
+            throw new IllegalArgumentException("first must be ai or user");
+        }
+
+        // Reserve a slot before creating the game, so creates at the same time cannot go over the limit
+        if (sessionSlots.incrementAndGet() > maxSessions) {
+            sessionSlots.decrementAndGet();
+            return new Response(503, "{\"error\":\"Too many games\"}");
+        }
+
+        Session session = new Session(UUID.randomUUID().toString(), new GameState(geometry, firstPlayer));
+        sessions.put(session.id, session);
+        session.lock.lock();
+
+        try {
+
+            if (firstPlayer == 1 && !startSearch(session)) {
+
+                if (sessions.remove(session.id) != null) { // Unless it has been closed meanwhile, which freed its slot
+                    sessionSlots.decrementAndGet();
+                }
+
+                return new Response(503, "{\"error\":\"AI busy\"}");
+            }
+
+            GameStats.getInstance().gameStarted();
+            return new Response(201, session.toJson());
+        }
+
+        finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the shared board of the given size
+     * @param columns number of columns
+     * @param rows number of rows
+     * @param winLength spots in a row needed to win
+     * @return the board
+     * @throws IllegalArgumentException if the board is not one that can be played
+     */
+    private static BoardGeometry findBoard(int columns, int rows, int winLength) {
+
+        for (BoardGeometry board : BOARDS) {
+
+            if (board.getColumns() == columns && board.getRows() == rows && board.getWinLength() == winLength) {
+                return board;
+            }
+        }
+
+        throw new IllegalArgumentException("The board must be 3x3 with 3 in a row, 5x5 with 4 or 7x7 with 5");
+    }
+
+    /**
+     * Plays the user's move and starts the AI's reply, following the same rules as Game.movePlayed. If asked to wait,
+     * the response is held back until the AI has replied, which saves the client a long poll
+     * @param session the game
+     * @param query column and row of the move, and the longest to wait for the AI's reply in milliseconds, 0 if absent
+     * @return the game after the user's move, 409 if the move cannot be played, or 503 if the AI is too busy to reply
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private Response move(Session session, HashMap<String, String> query) throws InterruptedException {
+        GameState state = session.state;
+        BoardGeometry geometry = state.getGeometry();
+        int column = Integer.parseInt(query.getOrDefault("column", "-1"));
+        int row = Integer.parseInt(query.getOrDefault("row", "-1"));
+        long remaining = TimeUnit.MILLISECONDS.toNanos(Math.min(MAX_WAIT, Long.parseLong(query.getOrDefault("wait",
+                "0"))));
+
+        if (column < 0 || column >= geometry.getColumns() || row < 0 || row >= geometry.getRows()) {
+            throw new IllegalArgumentException("column and row must be on the board");
+        }
+
+        session.lock.lock();
+
+        try {
+            session.touch();
+
+            if (session.closed || state.getCurrentPlayer() != 2 || session.searching
+                    || !state.isLegal(geometry.index(column, row))) {
+                return new Response(409, "{\"error\":\"Move cannot be played\",\"game\":" + session.toJson() + "}");
+            }
+
+            state.play(geometry.index(column, row));
+            session.changed();
+
+            // If the game is not over and it's the AI's turn, have the AI make a move
+            if (state.getCurrentPlayer() == 1 && !state.isOver() && !startSearch(session)) {
+                state.undo(); // Take the move back, so the client can try again later
+                session.changed();
+                return new Response(503, "{\"error\":\"AI busy\"}");
+            }
+
+            played(state);
+
+            while (session.searching && !session.closed && remaining > 0) {
+                remaining = session.update.awaitNanos(remaining);
+            }
+
+            return new Response(200, session.toJson());
+        }
+
+        finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets a game, first waiting until its version is past the given one if asked to
+     * @param session the game
+     * @param query the version already seen and the longest to wait for a newer one in milliseconds, both optional
+     * @return the game
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private Response poll(Session session, HashMap<String, String> query) throws InterruptedException {
+        long since = Long.parseLong(query.getOrDefault("since", "-1"));
+        long wait = Math.min(MAX_WAIT, Long.parseLong(query.getOrDefault("wait", "30000")));
+        long remaining = TimeUnit.MILLISECONDS.toNanos(wait);
+        session.lock.lock();
+
+        try {
+            session.touch();
+
+            // Virtual threads give up their carrier while they wait here, so waiting clients are cheap
+            while (session.version <= since && !session.closed && remaining > 0) {
+                remaining = session.update.awaitNanos(remaining);
+            }
+
+            session.touch();
+            return new Response(200, session.toJson());
+        }
+
+        finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a search for the AI's move. The caller must hold the session's lock
+     * @param session the game, with the AI to move
+     * @return false if the queue is full
+     */
+    private boolean startSearch(Session session) {
+        GameState position = session.state.copy(); // The search gets its own copy, so it never sees the game change
+        long start = System.nanoTime();
+
+        try {
+            searches.execute(() -> {
+                BoardGeometry geometry = position.getGeometry();
+                AI ai = players.get().computeIfAbsent(geometry, (key) -> {
+                    AI player = new AI(key, tables.computeIfAbsent(key, (board) -> new TranspositionTable(1 << 20)));
+                    player.setTimeBudget(timeBudget);
+                    return player;
+                });
+                int index = -1;
+
+                try {
+
+                    if (!session.closed) { // Games closed while queued are not searched
+                        index = ai.chooseMove(position);
+                    }
+                }
+
+                catch (RuntimeException e) { // The game cannot go on without the AI's move, but the thread can
+                    System.err.println("AI search failed in game " + session.id + ": " + e);
+                    closeSession(session);
+                }
+
+                finally {
+                    session.lock.lock();
+
+                    try {
+                        session.searching = false;
+
+                        if (!session.closed && index != -1) {
+                            session.state.play(index);
+                            played(session.state);
+                            GameStats.getInstance().aiMovePlayed(System.nanoTime() - start);
+                        }
+
+                        session.changed(); // Wake the clients waiting for the move, even if there is none
+                    }
+
+                    finally {
+                        session.lock.unlock();
+                    }
+                }
+            });
+        }
+
+        catch (RejectedExecutionException e) {
+            return false;
+        }
+
+        session.searching = true;
+        return true;
+    }
+
+    /**
+     * Counts a move in the JMX statistics, and the game too if the move ended it
+     * @param state the game after the move
+     */
+    private static void played(GameState state) {
+        GameStats.getInstance().movePlayed();
+
+        if (state.isOver()) {
+            GameStats.getInstance().gameFinished();
+        }
+    }
+
+    /**
+     * Closes every game that has not had a request for longer than the idle timeout
+     */
+    private void closeIdleSessions() {
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+
+        for (Session session : sessions.values()) {
+
+            if (session.lastAccess - cutoff < 0) {
+                closeSession(session);
+            }
+        }
+    }
+
+    /**
+     * Removes a game from the server and closes it, then writes it to the game log if it has any moves
+     * @param session the game
+     */
+    private void closeSession(Session session) {
+
+        if (sessions.remove(session.id) == null) { // Another thread has already closed it
+            return;
+        }
+
+        sessionSlots.decrementAndGet();
+
+        session.close(); // Taking the lock also makes the game's last moves visible here
+        GameLog gameLog = log;
+
+        if (gameLog != null && session.state.getMoveCount() > 0) {
+
+            try {
+                gameLog.append(session.state, System.currentTimeMillis());
+            }
+
+            catch (IOException e) {
+                System.err.println("Could not log game " + session.id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Splits a query string into its parameters
+     * @param query raw query string, or null
+     * @return the value of each parameter
+     */
+    private static HashMap<String, String> parseQuery(String query) {
+        HashMap<String, String> parameters = new HashMap<String, String>();
+
+        if (query == null) {
+            return parameters;
+        }
+
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+
+            if (equals > 0) {
+                parameters.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Writes text as a JSON string, escaping the characters JSON does not allow as they are
+     * @param text the text, which may come from the client
+     * @return the text in double quotes
+     */
+    private static String quote(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            }
+
+            else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            }
+
+            else {
+                json.append(c);
+            }
+        }
+
+        return json.append('"').toString();
+    }
+
+    private static class Session {
+
+        /**
+         * One game on the server. The state is only touched while holding the lock, which is a ReentrantLock rather
+         * than synchronized so that a virtual thread waiting on it does not pin its carrier thread. Every change
+         * bumps the version and wakes up the long polls waiting on the game
+         */
+
+        private final String id;
+        private final GameState state;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition update = lock.newCondition();
+        private long version;
+        private boolean searching; // True while the AI's move is queued or being searched
+        private volatile boolean closed;
+        private volatile long lastAccess = System.nanoTime();
+
+        private Session(String id, GameState state) {
+            this.id = id;
+            this.state = state;
+        }
+
+        /**
+         * Records that the game has been used, putting off its idle timeout
+         */
+        private void touch() {
+            lastAccess = System.nanoTime();
+        }
+
+        /**
+         * Bumps the version and wakes up every long poll. The caller must hold the lock
+         */
+        private void changed() {
+            version++;
+            update.signalAll();
+        }
+
+        /**
+         * Closes the game, waking up every long poll so it can return
+         */
+        private void close() {
+            lock.lock();
+
+            try {
+                closed = true;
+                changed();
+            }
+
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Describes the game as JSON. The caller must hold the lock, or the game must be closed
+         * @return the game as a JSON object
+         */
+        private String toJson() {
+            BoardGeometry geometry = state.getGeometry();
+            StringBuilder json = new StringBuilder(128 + geometry.getCells() * 2);
+            json.append("{\"id\":\"").append(id).append("\",\"version\":").append(version)
+                    .append(",\"columns\":").append(geometry.getColumns())
+                    .append(",\"rows\":").append(geometry.getRows())
+                    .append(",\"winLength\":").append(geometry.getWinLength())
+                    .append(",\"board\":[");
+
+            for (int row = 0; row < geometry.getRows(); row++) {
+                json.append(row == 0 ? "\"" : ",\"");
+
+                for (int column = 0; column < geometry.getColumns(); column++) {
+                    int owner = state.getOwner(geometry.index(column, row));
+                    json.append(owner == 1 ? 'X' : owner == 2 ? 'O' : '.');
+                }
+
+                json.append('"');
+            }
+
+            String result;
+
+            if (state.getResult() == GameState.WIN) {
+                result = state.getWinner() == 1 ? "ai won" : "user won";
+            }
+
+            else {
+                result = state.getResult() == GameState.DRAW ? "draw" : "in progress";
+            }
+
+            json.append("],\"turn\":\"").append(state.getCurrentPlayer() == 1 ? "ai" : "user")
+                    .append("\",\"result\":\"").append(result)
+                    .append("\",\"closed\":").append(closed).append('}');
+            return json.toString();
+        }
+    }
+
+    private static class Response {
+
+        /**
+         * An HTTP status and a JSON body to send back
+         */
+
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package tictactoe;
+
+public class GameState {
+
+    /**
+     * The rules of the game with nothing to do with displaying it: the spots each player holds, whose turn it is and
+     * whether the game has been won or drawn. Each player's spots are a mask over the board geometry, and each player
+     * has a counter for every line of how many of its spots they hold, so a move only has to bump the counters of the
+     * lines through it to find a win. The moves played are kept in order, so they can be undone and redone, and every
+     * move, undo and redo takes the same time however big the board is
+     */
+
+    public static final int IN_PROGRESS = 0;
+    public static final int WIN = 1;
+    public static final int DRAW = 2;
+
+    private final BoardGeometry geometry;
+    private final long[] masks = new long[3]; // Spots held by players 1 and 2, index 0 is unused
+    private final byte[][] lineCounts; // For players 1 and 2, how many spots of each line they hold
+    private final int[] moves; // Every move played in order, followed by any that were undone and can be redone
+    private final int firstPlayer;
+    private int currentPlayer;
+    private int moveCount;
+    private int redoLimit; // Number of entries of moves that are valid, moves past moveCount can be redone
+    private int winner; // 0 if there is no winner yet
+    private int winningLine = -1; // Index of the completed line in the geometry, -1 if there is none
+
+    /**
+     * New GameState with an empty board
+     * @param geometry the board to play on
+     * @param firstPlayer the player to move first, 1 or 2
+     */
+    public GameState(BoardGeometry geometry, int firstPlayer) {
+
+        if (firstPlayer != 1 && firstPlayer != 2) {
+            throw new IllegalArgumentException("Players are numbered 1 and 2");
+        }
+
+        this.geometry = geometry;
+        this.firstPlayer = firstPlayer;
+        currentPlayer = firstPlayer;
+        lineCounts = new byte[3][geometry.getLines().length];
+        moves = new int[geometry.getCells()];
+    }
+
+    /**
+     * Copies this state, so that moves can be tried out on the copy
+     * @return a new state with the same spots, player to move and result
+     */
+    public GameState copy() {
+        GameState copy = new GameState(geometry, firstPlayer);
+        copy.masks[1] = masks[1];
+        copy.masks[2] = masks[2];
+        System.arraycopy(lineCounts[1], 0, copy.lineCounts[1], 0, lineCounts[1].length);
+        System.arraycopy(lineCounts[2], 0, copy.lineCounts[2], 0, lineCounts[2].length);
+        System.arraycopy(moves, 0, copy.moves, 0, redoLimit);
+        copy.currentPlayer = currentPlayer;
+        copy.moveCount = moveCount;
+        copy.redoLimit = redoLimit;
+        copy.winner = winner;
+        copy.winningLine = winningLine;
+        return copy;
+    }
+
+    /**
+     * Gets the spots a move can be played in
+     * @return mask of the empty spots, or 0 if the game is over
+     */
+    public long legalMoves() {
+
+        if (isOver()) {
+            return 0;
+        }
+
+        return ~(masks[1] | masks[2]) & geometry.getFullBoard();
+    }
+
+    /**
+     * Checks if a move can be played in the given spot
+     * @param index index of the spot
+     * @return true if the game is not over and the spot is empty
+     */
+    public boolean isLegal(int index) {
+        return index >= 0 && index < geometry.getCells() && (legalMoves() & (1L << index)) != 0;
+    }
+
+    /**
+     * Plays a move for the current player in the given spot, and then either ends the game or passes the turn to the
+     * other player. Any moves that were undone can no longer be redone
+     * @param index index of the spot
+     */
+    public void play(int index) {
+
+        if (!isLegal(index)) {
+            throw new IllegalStateException("Spot " + index + " cannot be played");
+        }
+
+        apply(index);
+        redoLimit = moveCount;
+    }
+
+    /**
+     * Takes back the last move played, so the player who played it is to move again
+     * @return index of the spot that was emptied
+     */
+    public int undo() {
+
+        if (!canUndo()) {
+            throw new IllegalStateException("There is no move to undo");
+        }
+
+        int index = moves[--moveCount];
+        int player = getPlayerOf(moveCount);
+        masks[player] &= ~(1L << index);
+
+        for (int line : geometry.getLineIndexesThrough(index)) {
+            lineCounts[player][line]--;
+        }
+
+        currentPlayer = player;
+        winner = 0; // Only the last move can have won
+        winningLine = -1;
+        return index;
+    }
+
+    /**
+     * Plays the last move that was undone again
+     * @return index of the spot that was played
+     */
+    public int redo() {
+
+        if (!canRedo()) {
+            throw new IllegalStateException("There is no move to redo");
+        }
+
+        int index = moves[moveCount];
+        apply(index);
+        return index;
+    }
+
+    /**
+     * Checks if there is a move to undo
+     * @return true if at least one move has been played
+     */
+    public boolean canUndo() {
+        return moveCount > 0;
+    }
+
+    /**
+     * Checks if there is a move to redo
+     * @return true if a move has been undone and no other move has been played since
+     */
+    public boolean canRedo() {
+        return moveCount < redoLimit;
+    }
+
+    /**
+     * Gets a move that has been played
+     * @param number number of the move, counting from 0
+     * @return index of the spot played by that move
+     */
+    public int getMove(int number) {
+
+        if (number < 0 || number >= moveCount) {
+            throw new IndexOutOfBoundsException("Move " + number + " has not been played");
+        }
+
+        return moves[number];
+    }
+
+    /**
+     * Gets the player who plays a move
+     * @param number number of the move, counting from 0
+     * @return 1 or 2
+     */
+    public int getPlayerOf(int number) {
+        return number % 2 == 0 ? firstPlayer : 3 - firstPlayer;
+    }
+
+    /**
+     * Plays a move for the current player without checking it, bumping the counters of the lines through it
+     * @param index index of an empty spot
+     */
+    private void apply(int index) {
+        masks[currentPlayer] |= 1L << index;
+        moves[moveCount++] = index;
+        byte[] counts = lineCounts[currentPlayer];
+
+        for (int line : geometry.getLineIndexesThrough(index)) {
+
+            if (++counts[line] == geometry.getWinLength() && winner == 0) {
+                winner = currentPlayer;
+                winningLine = line;
+            }
+        }
+
+        if (winner == 0) {
+            currentPlayer = 3 - currentPlayer;
+        }
+    }
+
+    /**
+     * Gets the result of the game so far
+     * @return IN_PROGRESS, WIN or DRAW
+     */
+    public int getResult() {
+
+        if (winner != 0) {
+            return WIN;
+        }
+
+        return moveCount == geometry.getCells() ? DRAW : IN_PROGRESS;
+    }
+
+    /**
+     * Checks if the game is over
+     * @return true if the game has been won or drawn
+     */
+    public boolean isOver() {
+        return getResult() != IN_PROGRESS;
+    }
+
+    /**
+     * Gets the player holding a spot
+     * @param index index of the spot
+     * @return 0 if the spot is empty, otherwise the player holding it
+     */
+    public int getOwner(int index) {
+
+        if ((masks[1] & (1L << index)) != 0) {
+            return 1;
+        }
+
+        return (masks[2] & (1L << index)) != 0 ? 2 : 0;
+    }
+
+    /**
+     * Gets the spots held by a player
+     * @param player 1 or 2
+     * @return mask of the player's spots
+     */
+    public long getMask(int player) {
+        return masks[player];
+    }
+
+    /**
+     * Gets the player to move, or the player who won if the game has been won
+     * @return 1 or 2
+     */
+    public int getCurrentPlayer() {
+        return currentPlayer;
+    }
+
+    /**
+     * Gets the winner
+     * @return 0 if nobody has won, otherwise the winning player
+     */
+    public int getWinner() {
+        return winner;
+    }
+
+    /**
+     * Gets the line that won the game
+     * @return index of the line in the geometry, or -1 if nobody has won
+     */
+    public int getWinningLine() {
+        return winningLine;
+    }
+
+    /**
+     * Gets the number of moves played
+     * @return move count
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Gets the player who moved first
+     * @return 1 or 2
+     */
+    public int getFirstPlayer() {
+        return firstPlayer;
+    }
+
+    /**
+     * Gets the board this game is played on
+     * @return board geometry
+     */
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+}
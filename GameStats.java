@@ -0,0 +1,201 @@
+package tictactoe;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class GameStats implements GameStatsMBean {
+
+    /**
+     * Counters of the games played in this JVM, by the window and by GameServer alike, published over JMX as
+     * tictactoe:type=GameStats. The counters are LongAdders and the histogram an AtomicLongArray, so recording costs a
+     * few uncontended atomic adds and nothing is worked out until a JMX client reads it. AI latency is put in buckets
+     * that double in size from 0.125 ms up, so a regression shows up as counts moving to the right
+     */
+
+    public static final String OBJECT_NAME = "tictactoe:type=GameStats";
+
+    private static final long BUCKET_NANOS = 125000; // Upper bound of the first bucket
+    private static final int BUCKETS = 18; // The last bucket holds everything from 8192 ms up
+    private static final GameStats INSTANCE = new GameStats();
+
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+    private long windowStart = System.nanoTime(); // When the moves per second were last worked out
+    private long windowMoves; // Moves played by then
+    private double rate;
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        }
+
+        catch (JMException | SecurityException e) { // Still counted, just not published
+            System.err.println("Could not register " + OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+
+    private GameStats() {
+    }
+
+    /**
+     * Gets the counters, registering them with the platform MBean server the first time
+     * @return the counters shared by the whole JVM
+     */
+    public static GameStats getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records that a move has been played
+     */
+    public void movePlayed() {
+        moves.increment();
+    }
+
+    /**
+     * Records that a game has started
+     */
+    public void gameStarted() {
+        started.increment();
+    }
+
+    /**
+     * Records that a game has been won or drawn
+     */
+    public void gameFinished() {
+        finished.increment();
+    }
+
+    /**
+     * Records how long a computer move took, from being asked for to being played
+     * @param nanos elapsed nanoseconds
+     */
+    public void aiMovePlayed(long nanos) {
+        long units = Math.max(0, nanos / BUCKET_NANOS);
+        int bucket = units == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(units));
+        latencies.incrementAndGet(bucket);
+    }
+
+    @Override
+    public synchronized double getMovesPerSecond() {
+        long now = System.nanoTime();
+        long total = moves.sum();
+
+        if (now - windowStart >= 1000000000L) {
+            rate = (total - windowMoves) * 1e9 / (now - windowStart);
+            windowStart = now;
+            windowMoves = total;
+        }
+
+        return rate;
+    }
+
+    @Override
+    public long getMovesPlayed() {
+        return moves.sum();
+    }
+
+    @Override
+    public long getGamesStarted() {
+        return started.sum();
+    }
+
+    @Override
+    public long getGamesFinished() {
+        return finished.sum();
+    }
+
+    @Override
+    public long getAIMoves() {
+        long total = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            total += latencies.get(i);
+        }
+
+        return total;
+    }
+
+    @Override
+    public String[] getLatencyBuckets() {
+        String[] labels = new String[BUCKETS];
+
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            labels[i] = "< " + upperBoundMillis(i) + " ms";
+        }
+
+        labels[BUCKETS - 1] = ">= " + upperBoundMillis(BUCKETS - 2) + " ms";
+        return labels;
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+        long[] counts = new long[BUCKETS];
+
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = latencies.get(i);
+        }
+
+        return counts;
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public synchronized void reset() {
+        moves.reset();
+        started.reset();
+        finished.reset();
+
+        for (int i = 0; i < BUCKETS; i++) {
+            latencies.set(i, 0);
+        }
+
+        windowStart = System.nanoTime();
+        windowMoves = 0;
+        rate = 0;
+    }
+
+    /**
+     * Finds the bucket a fraction of the AI moves fall at or below
+     * @param fraction between 0 and 1
+     * @return upper bound of that bucket in milliseconds, infinite for the last bucket, or 0 if nothing was timed
+     */
+    private double percentile(double fraction) {
+        long[] counts = getLatencyHistogram();
+        long total = 0;
+
+        for (long count : counts) {
+            total += count;
+        }
+
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS && total > 0; i++) {
+            seen += counts[i];
+
+            if (seen >= Math.ceil(total * fraction)) {
+                return i == BUCKETS - 1 ? Double.POSITIVE_INFINITY : upperBoundMillis(i);
+            }
+        }
+
+        return 0;
+    }
+
+    private static double upperBoundMillis(int bucket) {
+        return BUCKET_NANOS / 1e6 * (1L << bucket);
+    }
+}
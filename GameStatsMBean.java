@@ -0,0 +1,68 @@
+package tictactoe;
+
+public interface GameStatsMBean {
+
+    /**
+     * The management interface of GameStats, as seen in JConsole, VisualVM or any other JMX client
+     */
+
+    /**
+     * Gets the rate moves have been played at since this was last read, or over the last second if it was read more
+     * recently than that
+     * @return moves per second
+     */
+    double getMovesPerSecond();
+
+    /**
+     * Gets the number of moves played, by users and computer players
+     * @return move count
+     */
+    long getMovesPlayed();
+
+    /**
+     * Gets the number of games started
+     * @return game count
+     */
+    long getGamesStarted();
+
+    /**
+     * Gets the number of games played to a win or a draw
+     * @return game count
+     */
+    long getGamesFinished();
+
+    /**
+     * Gets the number of computer moves timed
+     * @return move count
+     */
+    long getAIMoves();
+
+    /**
+     * Gets the upper bound of each bucket of the AI latency histogram
+     * @return labels such as "< 1 ms", with the last bucket open ended
+     */
+    String[] getLatencyBuckets();
+
+    /**
+     * Gets how many computer moves fell into each bucket, from being asked for to being played
+     * @return count for each bucket
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * Gets the median AI latency, to the upper bound of its bucket
+     * @return milliseconds
+     */
+    double getLatencyP50Millis();
+
+    /**
+     * Gets the 99th percentile AI latency, to the upper bound of its bucket
+     * @return milliseconds
+     */
+    double getLatencyP99Millis();
+
+    /**
+     * Sets every counter back to zero
+     */
+    void reset();
+}
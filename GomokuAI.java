@@ -0,0 +1,546 @@
+package tictactoe;
+
+import java.util.SplittableRandom;
+
+public class GomokuAI extends PrincipalVariationSearch {
+
+    /**
+     * Chooses moves in five in a row on the 15x15 board. It first takes a five or blocks the opponent's, then looks
+     * for a forced win with threat-space search: a victory by continuous fours (VCF), where every move makes a four the
+     * opponent must block, and then a victory by continuous threats (VCT), where threes are allowed too, as long as
+     * each one would win by fours if the opponent ignored it. Against a three, the opponent may only play on the spots
+     * of that winning sequence or make a four of their own, which keeps the tree small enough to search several
+     * threats deep. Threats come straight from the window counts GomokuState keeps up to date, so nothing rescans the
+     * board.
+     *
+     * When there is no forced win, it searches deeper and deeper with the principal variation search it shares with
+     * UltimateAI, over the most promising spots near the stones already played, and scores the positions it stops at
+     * by each player's open windows. Moves after which the opponent has a VCF are never chosen while any other move is
+     * left
+     */
+
+    public static final long DEFAULT_TIME_BUDGET = 500;
+
+    private static final int MAX_PLY = 64;
+    private static final int ROOT_WIDTH = 20; // Spots searched at the root
+    private static final int WIDTH = 10; // Spots searched below the root
+    private static final int VCF_DEPTH = 40; // Most plies of fours and blocks
+    private static final int VCT_THREES = 3; // Most threes in a VCT
+    private static final int VCT_PLIES = 24; // Most plies of threats and defences in a VCT, before its last VCF
+    private static final int VCF_NODES = 20000; // Positions a single VCF search may visit
+    private static final int VCT_SHARE = 3; // The VCT may spend at most 1 / VCT_SHARE of the time budget
+
+    // Evaluation weights of an open window holding this many stones, for the player to move and their opponent
+    private static final int[] OWN_WEIGHTS = {0, 1, 8, 64, 512, 0};
+    private static final int[] OTHER_WEIGHTS = {0, 1, 6, 40, 256, 0};
+
+    // Ordering weights of a spot, per window through it holding this many stones of one player and none of the other
+    private static final int[] ATTACK = {1, 4, 20, 200, 20000};
+    private static final int[] DEFEND = {0, 3, 15, 150, 10000};
+
+    // Zobrist keys for each player's stones, and for player 2 being to move
+    private static final long[][] KEYS = new long[3][GomokuState.CELLS];
+    private static final long SIDE_KEY;
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED);
+
+        for (int player = 1; player <= 2; player++) {
+
+            for (int index = 0; index < GomokuState.CELLS; index++) {
+                KEYS[player][index] = random.nextLong();
+            }
+        }
+
+        SIDE_KEY = random.nextLong();
+    }
+
+    private final int[] rootMoves = new int[GomokuState.CELLS];
+    private final int[] fives = new int[GomokuState.CELLS]; // Spots where the opponent would make five
+    private final int[][] values = new int[MAX_PLY + 1][GomokuState.CELLS]; // Ordering value of each listed spot
+    private final int[][] spotLists = new int[VCT_PLIES + VCF_DEPTH + 4][GomokuState.CELLS];
+    private final int[][] defenceLists = new int[VCT_PLIES + 2][GomokuState.CELLS];
+    private final int[] proof = new int[VCF_DEPTH + 4]; // Spots of the last VCF found
+    private final int[] marks = new int[GomokuState.CELLS];
+    private GomokuState state; // The position being searched, changed and changed back as the tree is walked
+    private long hash; // Zobrist hash of the stones in the position being searched
+    private long threatNodes; // Positions visited by the current VCF
+    private long threatDeadline; // System.nanoTime after which the VCT gives up
+    private int proofLength;
+    private int stamp;
+
+    /**
+     * New GomokuAI with an empty table
+     */
+    public GomokuAI() {
+        super(GomokuState.CELLS, MAX_PLY, DEFAULT_TIME_BUDGET, false);
+    }
+
+    /**
+     * Chooses a spot for the player to move, searching until the time budget runs out or the result is known
+     * @param position a game that is not over. It is not changed
+     * @return index of the spot to play
+     */
+    public int chooseMove(GomokuState position) {
+        return chooseMove(position, getGeneration());
+    }
+
+    /**
+     * Chooses a spot for the player to move, returning as soon as possible if stop has been called since the given
+     * generation
+     * @param position a game that is not over. It is not changed
+     * @param generation the generation when the move was asked for, from getGeneration
+     * @return index of the spot to play
+     */
+    public int chooseMove(GomokuState position, long generation) {
+        state = position.copy();
+        hash = 0;
+        start(generation);
+        threatDeadline = System.nanoTime() + getTimeBudget() * 1000000 / VCT_SHARE;
+
+        try {
+            return findMove();
+        }
+
+        finally {
+            state = null;
+        }
+    }
+
+    /**
+     * Finds the move to play in the position being searched: a five or a block of the opponent's if there is one, then
+     * the start of a forced win, and otherwise the best move of the principal variation search
+     * @return the spot to play
+     */
+    private int findMove() {
+        int player = state.getCurrentPlayer();
+        int opponent = 3 - player;
+        int[] spots = spotLists[0];
+
+        if (state.getStoneCount() == 0) {
+            return GomokuState.index(GomokuState.SIZE / 2, GomokuState.SIZE / 2);
+        }
+
+        for (int n = 0; n < state.getMoveCount(); n++) {
+            int move = state.getMove(n);
+            int mover = (n % 2 == 0) == (state.getFirstPlayer() == 1) ? 1 : 2;
+            hash ^= move == GomokuState.PASS ? 0 : KEYS[mover][move];
+        }
+
+        // Make five, or stop the opponent's
+        if (state.findSpots(player, 4, spots) > 0) {
+            setLastScore(WIN_SCORE - 1);
+            return spots[0];
+        }
+
+        int blocks = state.findSpots(opponent, 4, spots);
+
+        if (blocks > 0) {
+            setLastScore(blocks > 1 ? -(WIN_SCORE - 2) : 0);
+            return spots[0];
+        }
+
+        int win = vcf(0);
+
+        if (win == -1) {
+            win = vct(0, VCT_THREES);
+        }
+
+        if (win != -1) {
+            setLastScore(WIN_SCORE - MAX_PLY);
+            return win;
+        }
+
+        return search();
+    }
+
+    /**
+     * Finds a victory by continuous fours for the player to move, recording its spots in proof
+     * @param ply plies from the start of the VCF search, which picks the spot lists it uses
+     * @return the spot to play to start it, or -1 if none was found
+     */
+    private int vcf(int ply) {
+        threatNodes = 0;
+        proofLength = 0;
+        return fours(ply, ply + VCF_DEPTH);
+    }
+
+    /**
+     * Carries on a VCF search for the player to move
+     * @param ply plies from the start of the search
+     * @param limit ply the search gives up at
+     * @return the spot to play, or -1 if no win was found
+     */
+    private int fours(int ply, int limit) {
+
+        if (visit(1023) || ++threatNodes > VCF_NODES || ply >= limit) {
+            return -1;
+        }
+
+        int attacker = state.getCurrentPlayer();
+        int[] spots = spotLists[ply];
+        int fives = state.findSpots(attacker, 4, spots);
+
+        if (fives > 0) {
+            proof[proofLength++] = spots[0];
+            return spots[0];
+        }
+
+        int count = state.findSpots(3 - attacker, 4, spots);
+
+        if (count > 1) {
+            return -1;
+        }
+
+        if (count == 0) {
+            count = state.findSpots(attacker, 3, spots);
+        }
+
+        // With one five to block, the block has to make a four as well
+        int[] replies = spotLists[ply + 1];
+
+        for (int i = 0; i < count; i++) {
+            int move = spots[i];
+            state.play(move);
+            fives = state.findSpots(attacker, 4, replies);
+            boolean won = false;
+
+            if (fives > 1) { // Two fives, which the opponent cannot both block
+                proof[proofLength++] = replies[0];
+                proof[proofLength++] = replies[1];
+                won = true;
+            }
+
+            else if (fives == 1) {
+                int reply = replies[0];
+                state.play(reply);
+                won = fours(ply + 2, limit) != -1;
+                state.undo();
+
+                if (won) {
+                    proof[proofLength++] = reply;
+                }
+            }
+
+            state.undo();
+
+            if (won) {
+                proof[proofLength++] = move;
+                return move;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds a victory by continuous threats for the player to move: a sequence of fours and threes where every three
+     * would win by fours if the opponent ignored it, and every defence the opponent has against it still loses. Gives
+     * up once its share of the time budget is spent, counting anything it has not finished as defended
+     * @param ply plies from the root
+     * @param threes number of threes that may still be played
+     * @return the spot to play to start it, or -1 if none was found
+     */
+    private int vct(int ply, int threes) {
+
+        if (isStopped() || System.nanoTime() > threatDeadline) {
+            return -1;
+        }
+
+        int attacker = state.getCurrentPlayer();
+        int[] spots = spotLists[ply];
+
+        if (state.findSpots(attacker, 4, spots) > 0) {
+            return spots[0];
+        }
+
+        int win = vcf(ply);
+
+        if (win != -1 || threes == 0 || ply >= VCT_PLIES) {
+            return win;
+        }
+
+        int count = state.findSpots(3 - attacker, 4, spots);
+
+        if (count > 1) {
+            return -1;
+        }
+
+        if (count == 0) { // Fours first, then threes
+            count = state.findSpots(attacker, 3, spots);
+            int[] more = spotLists[ply + 1];
+            int threeCount = state.findSpots(attacker, 2, more);
+            stamp++;
+
+            for (int i = 0; i < count; i++) {
+                marks[spots[i]] = stamp;
+            }
+
+            for (int i = 0; i < threeCount; i++) {
+
+                if (marks[more[i]] != stamp) {
+                    spots[count++] = more[i];
+                }
+            }
+        }
+
+        int[] defences = defenceLists[ply];
+
+        for (int i = 0; i < count; i++) {
+            int move = spots[i];
+            state.play(move);
+
+            // A four can only be blocked on its five spot, which the VCF above found was not enough
+            int defenceCount = state.findSpots(attacker, 4, defences);
+            boolean four = defenceCount > 0;
+
+            if (!four) {
+
+                // A three is only a threat if it would win by fours were the opponent to play elsewhere
+                state.pass();
+                boolean threat = vcf(ply + 1) != -1;
+                state.undo();
+
+                if (!threat) {
+                    state.undo();
+                    continue;
+                }
+
+                // The opponent can only defend on the spots of that win, or by making a four of their own
+                stamp++;
+
+                for (int p = 0; p < proofLength; p++) {
+                    defenceCount = addDefence(defences, defenceCount, proof[p]);
+                }
+
+                int[] fours = spotLists[ply + 1];
+                int fourCount = state.findSpots(3 - attacker, 3, fours);
+
+                for (int f = 0; f < fourCount; f++) {
+                    defenceCount = addDefence(defences, defenceCount, fours[f]);
+                }
+            }
+
+            boolean refuted = false;
+
+            for (int d = 0; d < defenceCount && !refuted; d++) {
+                state.play(defences[d]);
+                refuted = state.isOver() || vct(ply + 2, four ? threes : threes - 1) == -1;
+                state.undo();
+            }
+
+            state.undo();
+
+            if (!refuted) {
+                return move;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Adds a spot to the defences against a three, unless it is taken or already listed this round
+     * @param defences the defences listed so far
+     * @param count number of defences listed so far
+     * @param spot the spot to add
+     * @return number of defences listed after adding it
+     */
+    private int addDefence(int[] defences, int count, int spot) {
+
+        if (state.getOwner(spot) == 0 && marks[spot] != stamp) {
+            marks[spot] = stamp;
+            defences[count++] = spot;
+        }
+
+        return count;
+    }
+
+    /**
+     * Searches deeper and deeper from the root with principal variation search, over the best spots that do not let
+     * the opponent win by fours
+     * @return the spot to play
+     */
+    private int search() {
+        int[] moves = rootMoves;
+        int candidates = listMoves(moves, values[0], ROOT_WIDTH);
+        int count = 0;
+
+        // Leave out the moves that let the opponent win by fours, unless every move does
+        for (int i = 0; i < candidates; i++) {
+            state.play(moves[i]);
+            boolean losing = vcf(1) != -1;
+            state.undo();
+
+            if (!losing) {
+                moves[count++] = moves[i];
+            }
+        }
+
+        if (count == 0) {
+            setLastScore(-(WIN_SCORE - MAX_PLY));
+            return moves[0];
+        }
+
+        return searchRoot(moves, count, MAX_PLY - 1);
+    }
+
+    /**
+     * Gets the result of the position being searched
+     * @return GameState.IN_PROGRESS, WIN or DRAW
+     */
+    @Override
+    int getResult() {
+        return state.getResult();
+    }
+
+    /**
+     * Gets the player to move in the position being searched
+     * @return 1 or 2
+     */
+    @Override
+    int getCurrentPlayer() {
+        return state.getCurrentPlayer();
+    }
+
+    /**
+     * Gets the Zobrist hash of the stones in the position being searched and the player to move
+     * @return hash of the position
+     */
+    @Override
+    long getKey() {
+        return hash ^ (state.getCurrentPlayer() == 2 ? SIDE_KEY : 0);
+    }
+
+    /**
+     * Scores the position being searched without searching it if a four decides the game, or if the search has gone
+     * as deep as it may
+     * @param depth plies left to search
+     * @param ply plies from the root
+     * @return the score, or NO_SCORE if the position has to be searched
+     */
+    @Override
+    int leafScore(int depth, int ply) {
+        int player = state.getCurrentPlayer();
+
+        // A four wins at once, and two of the opponent's cannot both be blocked
+        if (state.getOpenWindows(player, 4) > 0) {
+            return WIN_SCORE - ply - 1;
+        }
+
+        if (state.findSpots(3 - player, 4, fives) > 1) {
+            return -(WIN_SCORE - ply - 2);
+        }
+
+        return depth <= 0 || ply >= MAX_PLY - 1 ? evaluate() : NO_SCORE;
+    }
+
+    /**
+     * Lists the spot blocking the opponent's four if there is one, otherwise the best spots near the stones
+     * @param out array of at least 225 entries the spots are written to
+     * @param ply plies from the root, which picks the array the ordering values are written to
+     * @return number of spots written
+     */
+    @Override
+    int listMoves(int[] out, int ply) {
+
+        // The opponent's four must be blocked, otherwise try the best spots near the stones
+        if (state.findSpots(3 - state.getCurrentPlayer(), 4, out) == 1) {
+            return 1;
+        }
+
+        return listMoves(out, values[ply], WIDTH);
+    }
+
+    /**
+     * Lists the empty spots near the stones, best first by the windows through them that the player to move would
+     * build on or block, and by history
+     * @param out where the spots are written
+     * @param scores where each spot's ordering value is written
+     * @param width most spots to list
+     * @return number of spots written
+     */
+    private int listMoves(int[] out, int[] scores, int width) {
+        int player = state.getCurrentPlayer();
+        int opponent = 3 - player;
+        int[] counts = getHistory(player);
+        int count = 0;
+
+        for (int cell = 0; cell < GomokuState.CELLS; cell++) {
+
+            if (state.getOwner(cell) != 0 || state.getNear(cell) == 0) {
+                continue;
+            }
+
+            int value = counts[cell] >> 4;
+
+            for (int w : GomokuState.WINDOWS_THROUGH[cell]) {
+                int own = state.getCount(player, w);
+                int other = state.getCount(opponent, w);
+
+                if (other == 0) {
+                    value += ATTACK[own];
+                }
+
+                if (own == 0) {
+                    value += DEFEND[other];
+                }
+            }
+
+            if (count == width && value <= scores[width - 1]) {
+                continue;
+            }
+
+            // Insert in order, dropping the last spot if the list is full
+            int i = count < width ? count++ : width - 1;
+
+            while (i > 0 && scores[i - 1] < value) {
+                out[i] = out[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+
+            out[i] = cell;
+            scores[i] = value;
+        }
+
+        return count;
+    }
+
+    /**
+     * Scores the current position for the player to move without searching, by the open windows of each player
+     * @return positive if the player to move is ahead
+     */
+    private int evaluate() {
+        int player = state.getCurrentPlayer();
+        int opponent = 3 - player;
+        int score = 0;
+
+        for (int stones = 1; stones < GomokuState.WIN_LENGTH; stones++) {
+            score += OWN_WEIGHTS[stones] * state.getOpenWindows(player, stones)
+                    - OTHER_WEIGHTS[stones] * state.getOpenWindows(opponent, stones);
+        }
+
+        return score;
+    }
+
+    /**
+     * Plays a stone for the player to move in the position being searched, updating its hash
+     * @param move index of the spot, which must be empty
+     */
+    @Override
+    void play(int move) {
+        hash ^= KEYS[state.getCurrentPlayer()][move];
+        state.play(move);
+    }
+
+    /**
+     * Takes back the last stone played in the position being searched, updating its hash
+     * @param move index of the spot the stone was played on
+     */
+    @Override
+    void undo(int move) {
+        state.undo();
+        hash ^= KEYS[state.getCurrentPlayer()][move];
+    }
+}
@@ -0,0 +1,159 @@
+package tictactoe;
+
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+public class GomokuGame {
+
+    /**
+     * This class is responsible for handling a game of five in a row on the 15x15 board, as UltimateGame is for
+     * Ultimate Tic Tac Toe. The rules are kept in a GomokuState and the board is drawn on a single BoardCanvas, whose
+     * spots are indexed the same way. The AI searches on the same background thread as in Game
+     */
+
+    private BoardCanvas board; // Null until the scene sets it
+    private StringProperty displayText; // The text to be displayed in the game scene
+    private GomokuState state; // Player 1 is the AI and player 2 is the user
+    private GomokuAI ai;
+    private CompletableFuture<Integer> pendingMove; // The AI's search while it is running, otherwise null
+    private boolean cancelled; // Set once the game has been abandoned, so a search finishing late is not played
+
+    /**
+     * New GomokuGame against the given AI, with a random starting player
+     * @param ai the AI player, which may have played earlier games but must not be searching for another one
+     */
+    public GomokuGame(GomokuAI ai) {
+        this.ai = ai;
+        state = new GomokuState(new Random().nextInt(2) + 1);
+        displayText = new SimpleStringProperty();
+        showStatus();
+        GameStats.getInstance().gameStarted();
+    }
+
+    /**
+     * Sets the canvas the game is drawn on, which must be empty
+     * @param board a 15x15 board canvas
+     */
+    public void setBoard(BoardCanvas board) {
+        this.board = board;
+    }
+
+    /**
+     * Play the user's move in the given spot. Clicks while it is the AI's turn or on a stone are ignored
+     * @param col column of the spot
+     * @param row row of the spot
+     */
+    public void movePlayed(int col, int row) {
+        int index = GomokuState.index(col, row);
+
+        if (state.getCurrentPlayer() == 2 && pendingMove == null && state.isLegal(index)) {
+            play(index);
+
+            if (state.getCurrentPlayer() == 1 && !state.isOver()) {
+                makeAIMove();
+            }
+        }
+    }
+
+    /**
+     * Gets the AI to chose a spot on the background thread, and then play a move there on the JavaFX application
+     * thread. Must be called on the JavaFX application thread while it is the AI's turn
+     * @return the spot that was played, which completes once the move is on the board
+     */
+    public CompletableFuture<Integer> makeAIMove() {
+        GomokuState position = state.copy();
+        long start = System.nanoTime();
+        long generation = ai.getGeneration(); // So cancelling stops the search even if it has not started yet
+        CompletableFuture<Integer> search = CompletableFuture.supplyAsync(() -> ai.chooseMove(position, generation),
+                Game.AI_THREAD);
+        pendingMove = search;
+        showStatus();
+
+        return search.thenApplyAsync((index) -> {
+
+            if (!cancelled) {
+                pendingMove = null;
+                play(index);
+                GameStats.getInstance().aiMovePlayed(System.nanoTime() - start);
+            }
+
+            return index;
+        }, Platform::runLater);
+    }
+
+    /**
+     * Leaves the game, stopping the AI's search if it is still running. Must be called on the JavaFX application
+     * thread
+     */
+    public void cancel() {
+        cancelled = true;
+
+        if (pendingMove != null) {
+            pendingMove.cancel(false);
+            ai.stop();
+            pendingMove = null;
+        }
+    }
+
+    /**
+     * Play a move for the current player, and update the board and text to match
+     * @param index index of the spot, which must be legal
+     */
+    private void play(int index) {
+        state.play(index);
+        GameStats.getInstance().movePlayed();
+
+        if (board != null) {
+            board.setOwner(index, state.getOwner(index));
+            board.setWinningLine(state.getWinningSpots());
+        }
+
+        if (state.isOver()) {
+            GameStats.getInstance().gameFinished();
+        }
+
+        showStatus();
+    }
+
+    /**
+     * Sets the displayed text to whose turn it is or how the game ended
+     */
+    private void showStatus() {
+
+        if (state.getResult() == GameState.WIN) {
+            displayText.set(state.getWinner() == 1 ? "You Lose!" : "You Win!");
+        }
+
+        else if (state.getResult() == GameState.DRAW) {
+            displayText.set("It's a draw!");
+        }
+
+        else if (state.getCurrentPlayer() == 1) {
+            displayText.set("AI's turn to make a move");
+        }
+
+        else {
+            displayText.set("Your turn to make a move");
+        }
+    }
+
+    /**
+     * Gets the text to display in the game scene
+     * @return the text to display
+     */
+    public StringProperty getDisplayText() {
+        return displayText;
+    }
+
+    /**
+     * Gets the current player
+     * @return the number of the current player
+     */
+    public int getCurrentPlayer() {
+        return state.getCurrentPlayer();
+    }
+}
@@ -0,0 +1,437 @@
+package tictactoe;
+
+import java.util.Arrays;
+
+public class GomokuState {
+
+    /**
+     * The rules of five in a row on a 15x15 board: players take turns to place a stone on any empty spot, and the first
+     * to get five or more in an unbroken line across, down or diagonally wins. The game is drawn if the board fills up
+     * first. A spot's index is its column times 15 plus its row, like a single layer of BoardGeometry.
+     *
+     * The board has too many spots for the masks of BoardGeometry, so it is seen as the 572 windows of five spots in a
+     * line that a five could fill. Each window keeps a count of each player's stones in it, and each player a count of
+     * the open windows holding a given number of their stones and none of the opponent's. A move only touches the 20
+     * windows through its spot, so wins and threats are tracked as moves are played and undone rather than found by
+     * scanning the lines: a window with four of a player's stones is a four, whose empty spot wins, and one with three
+     * is a three, which a move can turn into a four. The moves played are kept in order so they can be undone, which
+     * is how the search walks the tree on a single state
+     */
+
+    public static final int SIZE = 15;
+    public static final int CELLS = SIZE * SIZE;
+    public static final int WIN_LENGTH = 5;
+    public static final int PASS = -1; // A move that only hands the turn over, for searches asking "what if"
+    public static final int NEAR_DISTANCE = 2; // Spots this close to a stone, in any direction, are near it
+
+    // Every window of five spots in a line, in index order, and the windows through each spot
+    static final int[][] WINDOWS;
+    static final int[][] WINDOWS_THROUGH = new int[CELLS][];
+
+    // The spots near each spot, not counting itself
+    static final int[][] NEIGHBOURS = new int[CELLS][];
+
+    static {
+        int[][] steps = {{1, 0}, {0, 1}, {1, 1}, {1, -1}}; // Across, down and the two diagonals, in columns and rows
+        int[][] windows = new int[4 * CELLS][];
+        int count = 0;
+
+        for (int[] step : steps) {
+
+            for (int column = 0; column < SIZE; column++) {
+
+                for (int row = 0; row < SIZE; row++) {
+                    int lastColumn = column + step[0] * (WIN_LENGTH - 1);
+                    int lastRow = row + step[1] * (WIN_LENGTH - 1);
+
+                    if (lastColumn >= SIZE || lastRow < 0 || lastRow >= SIZE) {
+                        continue;
+                    }
+
+                    int[] window = new int[WIN_LENGTH];
+
+                    for (int i = 0; i < WIN_LENGTH; i++) {
+                        window[i] = index(column + step[0] * i, row + step[1] * i);
+                    }
+
+                    windows[count++] = window;
+                }
+            }
+        }
+
+        WINDOWS = Arrays.copyOf(windows, count);
+        int[] through = new int[CELLS];
+
+        for (int[] window : WINDOWS) {
+
+            for (int cell : window) {
+                through[cell]++;
+            }
+        }
+
+        for (int cell = 0; cell < CELLS; cell++) {
+            WINDOWS_THROUGH[cell] = new int[through[cell]];
+            through[cell] = 0;
+        }
+
+        for (int w = 0; w < WINDOWS.length; w++) {
+
+            for (int cell : WINDOWS[w]) {
+                WINDOWS_THROUGH[cell][through[cell]++] = w;
+            }
+        }
+
+        for (int cell = 0; cell < CELLS; cell++) {
+            int[] near = new int[(2 * NEAR_DISTANCE + 1) * (2 * NEAR_DISTANCE + 1) - 1];
+            int n = 0;
+
+            for (int column = columnOf(cell) - NEAR_DISTANCE; column <= columnOf(cell) + NEAR_DISTANCE; column++) {
+
+                for (int row = rowOf(cell) - NEAR_DISTANCE; row <= rowOf(cell) + NEAR_DISTANCE; row++) {
+
+                    if (column >= 0 && column < SIZE && row >= 0 && row < SIZE && index(column, row) != cell) {
+                        near[n++] = index(column, row);
+                    }
+                }
+            }
+
+            NEIGHBOURS[cell] = Arrays.copyOf(near, n);
+        }
+    }
+
+    private final byte[] board = new byte[CELLS]; // The player holding each spot, 0 if it is empty
+    private final byte[][] counts = new byte[3][WINDOWS.length]; // Each player's stones in each window
+    private final int[][] open = new int[3][WIN_LENGTH + 1]; // Windows with this many of a player's stones only
+    private final int[] near = new int[CELLS]; // Stones near each spot
+    private final int[] moves = new int[2 * CELLS]; // Every move played, in order, passes included
+    private final int[] marks = new int[CELLS]; // Stamps of the spots already listed by findSpots
+    private final int firstPlayer;
+    private int stamp;
+    private int currentPlayer;
+    private int moveCount;
+    private int stones;
+    private int winner;
+    private int winningWindow = -1;
+
+    /**
+     * New GomokuState with the board empty
+     * @param firstPlayer the player to move first, 1 or 2
+     */
+    public GomokuState(int firstPlayer) {
+
+        if (firstPlayer != 1 && firstPlayer != 2) {
+            throw new IllegalArgumentException("Players are numbered 1 and 2");
+        }
+
+        this.firstPlayer = firstPlayer;
+        currentPlayer = firstPlayer;
+        open[1][0] = WINDOWS.length;
+        open[2][0] = WINDOWS.length;
+    }
+
+    /**
+     * Copies this state, so that moves can be tried out on the copy
+     * @return a new state with the same moves played
+     */
+    public GomokuState copy() {
+        GomokuState copy = new GomokuState(firstPlayer);
+
+        for (int n = 0; n < moveCount; n++) {
+
+            if (moves[n] == PASS) {
+                copy.pass();
+            }
+
+            else {
+                copy.play(moves[n]);
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Gets the index of a spot
+     * @param column column of the spot, 0 to 14
+     * @param row row of the spot, 0 to 14
+     * @return index of the spot
+     */
+    public static int index(int column, int row) {
+        return column * SIZE + row;
+    }
+
+    /**
+     * Gets the column of a spot
+     * @param index index of the spot
+     * @return column of the spot, 0 to 14
+     */
+    public static int columnOf(int index) {
+        return index / SIZE;
+    }
+
+    /**
+     * Gets the row of a spot
+     * @param index index of the spot
+     * @return row of the spot, 0 to 14
+     */
+    public static int rowOf(int index) {
+        return index % SIZE;
+    }
+
+    /**
+     * Checks if a move can be played in the given spot
+     * @param index index of the spot
+     * @return true if the game is not over and the spot is empty
+     */
+    public boolean isLegal(int index) {
+        return index >= 0 && index < CELLS && board[index] == 0 && !isOver();
+    }
+
+    /**
+     * Plays a stone for the current player, ending the game if it completes five in a row or fills the board. The spot
+     * must be legal
+     * @param index index of the spot
+     */
+    public void play(int index) {
+        int player = currentPlayer;
+        int opponent = 3 - player;
+        byte[] own = counts[player];
+        byte[] other = counts[opponent];
+        board[index] = (byte) player;
+
+        for (int w : WINDOWS_THROUGH[index]) {
+            int mine = own[w];
+
+            if (other[w] == 0) { // Still open for this player, now with one more stone
+                open[player][mine]--;
+                open[player][mine + 1]++;
+
+                if (mine + 1 == WIN_LENGTH && winner == 0) {
+                    winner = player;
+                    winningWindow = w;
+                }
+            }
+
+            if (mine == 0) { // Closed to the opponent from now on
+                open[opponent][other[w]]--;
+            }
+
+            own[w] = (byte) (mine + 1);
+        }
+
+        for (int cell : NEIGHBOURS[index]) {
+            near[cell]++;
+        }
+
+        moves[moveCount++] = index;
+        stones++;
+        currentPlayer = opponent;
+    }
+
+    /**
+     * Hands the turn to the opponent without placing a stone
+     */
+    public void pass() {
+        moves[moveCount++] = PASS;
+        currentPlayer = 3 - currentPlayer;
+    }
+
+    /**
+     * Takes back the last move played
+     * @return index of the spot that was emptied, or PASS
+     */
+    public int undo() {
+        int index = moves[--moveCount];
+        int player = 3 - currentPlayer;
+        currentPlayer = player;
+
+        if (index == PASS) {
+            return index;
+        }
+
+        int opponent = 3 - player;
+        byte[] own = counts[player];
+        byte[] other = counts[opponent];
+        board[index] = 0;
+
+        for (int w : WINDOWS_THROUGH[index]) {
+            int mine = own[w] - 1;
+            own[w] = (byte) mine;
+
+            if (other[w] == 0) {
+                open[player][mine + 1]--;
+                open[player][mine]++;
+            }
+
+            if (mine == 0) {
+                open[opponent][other[w]]++;
+            }
+        }
+
+        for (int cell : NEIGHBOURS[index]) {
+            near[cell]--;
+        }
+
+        // Only the last move of a game can win it, so this one did if anything has
+        if (winner != 0) {
+            winner = 0;
+            winningWindow = -1;
+        }
+
+        stones--;
+        return index;
+    }
+
+    /**
+     * Lists the distinct empty spots of the windows holding a given number of a player's stones and none of the
+     * opponent's. With 4 stones these are the spots where the player would make five, and with 3 the spots where they
+     * would make a four
+     * @param player 1 or 2
+     * @param stones stones the windows hold, 1 to 4
+     * @param out array of at least 225 entries the spots are written to
+     * @return number of spots written
+     */
+    public int findSpots(int player, int stones, int[] out) {
+
+        if (open[player][stones] == 0) {
+            return 0;
+        }
+
+        byte[] own = counts[player];
+        byte[] other = counts[3 - player];
+        int count = 0;
+        stamp++;
+
+        for (int w = 0; w < WINDOWS.length; w++) {
+
+            if (own[w] == stones && other[w] == 0) {
+
+                for (int cell : WINDOWS[w]) {
+
+                    if (board[cell] == 0 && marks[cell] != stamp) {
+                        marks[cell] = stamp;
+                        out[count++] = cell;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the number of open windows holding a given number of a player's stones and none of the opponent's
+     * @param player 1 or 2
+     * @param stones stones the windows hold, 0 to 5
+     * @return number of windows
+     */
+    public int getOpenWindows(int player, int stones) {
+        return open[player][stones];
+    }
+
+    /**
+     * Gets the number of a player's stones in a window
+     * @param player 1 or 2
+     * @param window index of the window in WINDOWS
+     * @return number of stones, 0 to 5
+     */
+    public int getCount(int player, int window) {
+        return counts[player][window];
+    }
+
+    /**
+     * Gets the number of stones near a spot
+     * @param index index of the spot
+     * @return stones within NEAR_DISTANCE spots in every direction
+     */
+    public int getNear(int index) {
+        return near[index];
+    }
+
+    /**
+     * Gets the player who holds a spot
+     * @param index index of the spot
+     * @return 1 or 2, or 0 if the spot is empty
+     */
+    public int getOwner(int index) {
+        return board[index];
+    }
+
+    /**
+     * Gets the spots of the five that won the game
+     * @return the spots in index order, or null if nobody has won
+     */
+    public int[] getWinningSpots() {
+        return winningWindow == -1 ? null : WINDOWS[winningWindow].clone();
+    }
+
+    /**
+     * Gets the result of the game
+     * @return GameState.IN_PROGRESS, WIN or DRAW
+     */
+    public int getResult() {
+
+        if (winner != 0) {
+            return GameState.WIN;
+        }
+
+        return stones == CELLS ? GameState.DRAW : GameState.IN_PROGRESS;
+    }
+
+    /**
+     * Checks if the game is over
+     * @return true if the game has been won or drawn
+     */
+    public boolean isOver() {
+        return winner != 0 || stones == CELLS;
+    }
+
+    /**
+     * Gets the player to move
+     * @return 1 or 2
+     */
+    public int getCurrentPlayer() {
+        return currentPlayer;
+    }
+
+    /**
+     * Gets the winner of the game
+     * @return 1 or 2, or 0 if there is no winner
+     */
+    public int getWinner() {
+        return winner;
+    }
+
+    /**
+     * Gets the number of moves played, passes included
+     * @return move count
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Gets the number of stones on the board
+     * @return stone count
+     */
+    public int getStoneCount() {
+        return stones;
+    }
+
+    /**
+     * Gets a move played earlier in the game
+     * @param number number of the move, counting from 0
+     * @return index of the spot played, or PASS
+     */
+    public int getMove(int number) {
+        return moves[number];
+    }
+
+    /**
+     * Gets the player who moved first
+     * @return 1 or 2
+     */
+    public int getFirstPlayer() {
+        return firstPlayer;
+    }
+}
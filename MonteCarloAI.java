@@ -0,0 +1,551 @@
+package tictactoe;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MonteCarloAI implements Strategy {
+
+    /**
+     * A player that chooses moves by Monte Carlo tree search: it grows a tree of positions from the one it is asked
+     * about, picking which branch to follow with UCT, and scores each new position by playing random moves until the
+     * game ends. Its cost depends on the playout budget rather than the size of the board, so it keeps playing quickly
+     * on boards too big for AI to search. Several threads can grow the same tree at once. A thread adds a visit to
+     * every node on its way down before it knows the result, which counts as a loss until the result is added, so the
+     * other threads spread out to other branches. The tree below the chosen move is kept, and the next search starts
+     * from the node for the opponent's reply if it is there
+     */
+
+    public static final long DEFAULT_TIME_BUDGET = AI.DEFAULT_TIME_BUDGET; // Milliseconds per move
+    public static final int DEFAULT_MAX_NODES = 1 << 20; // Most nodes kept in the tree, around 100 MB
+    public static final double EXPLORATION = Math.sqrt(2); // UCT constant, higher tries weaker moves more often
+
+    private static final int WIN = 2; // Rewards for the player who moved into a node, counted in half points
+    private static final int DRAW = 1;
+    private static final int LOSS = 0;
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final VarHandle VISITS;
+    private static final VarHandle REWARD;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            VISITS = lookup.findVarHandle(Node.class, "visits", int.class);
+            REWARD = lookup.findVarHandle(Node.class, "reward", long.class);
+        }
+
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final BoardGeometry geometry;
+    private final AtomicLong nodeCount = new AtomicLong(); // Nodes in the tree
+    private final AtomicLong playouts = new AtomicLong(); // Playouts started by the current search
+    private long timeBudget = DEFAULT_TIME_BUDGET;
+    private long iterations; // Most playouts per move, 0 for no limit
+    private int maxNodes = DEFAULT_MAX_NODES;
+    private int parallelism = 1;
+    private long seed = System.nanoTime();
+    private ExecutorService pool; // Created the first time a search runs on several threads
+    private volatile boolean stopped;
+    private final AtomicLong generation = new AtomicLong(); // Moved on by stop, see Strategy
+    private Node root; // Position of the last search after the move it chose, null before the first search
+
+    /**
+     * New MonteCarloAI
+     * @param geometry the board the AI plays on
+     */
+    public MonteCarloAI(BoardGeometry geometry) {
+        this.geometry = geometry;
+    }
+
+    /**
+     * Chooses a spot for the player to move. A move that wins straight away is always played, as is one that stops
+     * the opponent winning straight away, otherwise the tree is grown until the budget runs out and the most visited
+     * move is played
+     * @param state a game that is not over
+     * @param generation the generation when the move was asked for, from getGeneration
+     * @return index of the spot to play
+     */
+    @Override
+    public int chooseMove(GameState state, long generation) {
+        AISearchEvent event = new AISearchEvent();
+        event.begin();
+        int move = choose(state, generation);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.strategy = "mcts";
+            event.board = geometry.toString();
+            event.nodes = playouts.get();
+            event.move = move;
+            event.treeSize = nodeCount.get();
+
+            if (root != null && root.visits > 0) { // Expected result of the move, in percent
+                event.score = (int) (root.reward * 100 / (WIN * (long) root.visits));
+            }
+
+            event.commit();
+        }
+
+        return move;
+    }
+
+    /**
+     * Chooses a spot for the player to move, as chooseMove does
+     * @param state a game that is not over
+     * @param generation the generation the search belongs to
+     * @return index of the spot to play
+     */
+    private int choose(GameState state, long generation) {
+        int player = state.getCurrentPlayer();
+        long own = state.getMask(player);
+        long other = state.getMask(3 - player);
+        stopped = false;
+
+        if (this.generation.get() != generation) { // Only ever set after clearing, so a stop meanwhile is not lost
+            stopped = true;
+        }
+        playouts.set(0);
+
+        int forced = findForcedMove(own, other);
+
+        if (forced != -1) {
+            root = null; // Not worth keeping a tree for
+            return forced;
+        }
+
+        Node start = findReusableNode(own, other);
+
+        if (start == null) {
+            start = new Node(null, -1, own, other, 0);
+            nodeCount.set(1);
+        }
+
+        else { // Every node below the start was added by a playout through it, so this is an upper bound
+            nodeCount.set(Math.max(1, start.visits));
+        }
+
+        start.parent = null; // Let the rest of the old tree be collected
+        grow(start);
+
+        // The most visited move is the most trusted one, ties go to the better average
+        Node best = null;
+
+        for (Node child : start.children) {
+
+            if (best == null || child.visits > best.visits
+                    || (child.visits == best.visits && child.reward > best.reward)) {
+                best = child;
+            }
+        }
+
+        root = best;
+
+        if (best == null) { // Not even one playout ran, so play the first empty spot in the static order
+
+            for (int i : geometry.getMoveOrder()) {
+
+                if (((own | other) & (1L << i)) == 0) {
+                    return i;
+                }
+            }
+
+            throw new IllegalStateException("There is no empty spot to play");
+        }
+
+        return best.move;
+    }
+
+    /**
+     * Stops a search running on another thread as soon as possible, so it plays the most visited move so far
+     */
+    @Override
+    public void stop() {
+        generation.incrementAndGet();
+        stopped = true;
+    }
+
+    /**
+     * Gets the generation of searches that stop has not stopped
+     * @return number of times stop has been called
+     */
+    @Override
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Gets the board the AI plays on
+     * @return board geometry
+     */
+    @Override
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Sets how long the AI may spend on each move
+     * @param millis time budget in milliseconds
+     */
+    public void setTimeBudget(long millis) {
+        timeBudget = millis;
+    }
+
+    /**
+     * Sets the most playouts the AI may run for each move, whichever of this and the time budget runs out first
+     * @param playouts playouts per move, 0 for no limit
+     */
+    public void setIterations(long playouts) {
+        iterations = playouts;
+    }
+
+    /**
+     * Sets the most nodes the tree may hold. Once it is full, playouts still run from the nodes it has
+     * @param nodes node limit
+     */
+    public void setMaxNodes(int nodes) {
+        maxNodes = nodes;
+    }
+
+    /**
+     * Sets how many threads grow the tree
+     * @param threads number of threads, 1 to search on the calling thread only
+     */
+    public void setParallelism(int threads) {
+
+        if (threads != parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+
+        parallelism = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the seed of the random playouts. With one thread and an iteration budget, the same seed plays the same moves
+     * @param seed random seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Gets the number of playouts run by the last search
+     * @return playout count
+     */
+    public long getPlayouts() {
+        return playouts.get();
+    }
+
+    /**
+     * Gets the number of nodes in the tree
+     * @return node count
+     */
+    public long getNodeCount() {
+        return nodeCount.get();
+    }
+
+    /**
+     * Looks for a move that wins straight away, and failing that for a move that stops the opponent winning
+     * straight away
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return index of the spot to play, or -1 if no move is forced
+     */
+    private int findForcedMove(long own, long other) {
+        long empty = ~(own | other) & geometry.getFullBoard();
+        int block = -1;
+
+        for (long moves = empty; moves != 0; moves &= moves - 1) {
+            int i = Long.numberOfTrailingZeros(moves);
+
+            if (geometry.isWin(own | (1L << i), i)) {
+                return i;
+            }
+
+            if (block == -1 && geometry.isWin(other | (1L << i), i)) {
+                block = i;
+            }
+        }
+
+        return block;
+    }
+
+    /**
+     * Finds the node for the given position in the tree kept from the last search, which it is if the opponent has
+     * played one of the moves that was searched
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return the node, or null if it is not in the tree
+     */
+    private Node findReusableNode(long own, long other) {
+
+        if (root == null) {
+            return null;
+        }
+
+        long reply = other & ~root.own; // The spot the opponent has played since, if the position follows on
+
+        if (root.other != own || (other & ~reply) != root.own || Long.bitCount(reply) != 1) {
+            return null;
+        }
+
+        for (Node child : root.children) {
+
+            if (child.move == Long.numberOfTrailingZeros(reply)) {
+                return child;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Runs playouts from the given node until the time or playout budget runs out or the search is stopped, on as
+     * many threads as the parallelism allows
+     * @param start the node to search from
+     */
+    private void grow(Node start) {
+        long deadline = System.nanoTime() + timeBudget * 1000000;
+        SplittableRandom random = new SplittableRandom(seed);
+        seed = random.nextLong(); // A different sequence for the next move
+
+        if (parallelism == 1) {
+            run(start, deadline, random);
+            return;
+        }
+
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(parallelism, (runnable) -> {
+                Thread thread = new Thread(runnable, "Monte Carlo search");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+        for (int t = 0; t < parallelism; t++) {
+            SplittableRandom threadRandom = random.split();
+            tasks.add(() -> {
+                run(start, deadline, threadRandom);
+                return null;
+            });
+        }
+
+        try {
+
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        }
+
+        catch (InterruptedException e) {
+            stopped = true;
+            Thread.currentThread().interrupt();
+        }
+
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Monte Carlo search failed", e.getCause());
+        }
+    }
+
+    /**
+     * Runs playouts on the calling thread until the budget runs out or the search is stopped
+     * @param start the node to search from
+     * @param deadline System.nanoTime after which to stop
+     * @param random source of randomness for this thread
+     */
+    private void run(Node start, long deadline, SplittableRandom random) {
+        int[] empty = new int[geometry.getCells()]; // Scratch space for the playouts
+
+        for (long done = 0; !stopped; done++) {
+
+            if ((done & 63) == 0 && System.nanoTime() > deadline) {
+                break;
+            }
+
+            if (playouts.incrementAndGet() > iterations && iterations > 0) {
+                playouts.decrementAndGet(); // Another thread ran the last one
+                break;
+            }
+
+            playout(start, random, empty);
+        }
+    }
+
+    /**
+     * Runs one playout: follows UCT down the tree to a node with a move not yet tried, adds a child for that move,
+     * plays random moves from there to the end of the game and adds the result to every node on the way
+     * @param start the node to search from
+     * @param random source of randomness
+     * @param empty scratch space for the random moves
+     */
+    private void playout(Node start, SplittableRandom random, int[] empty) {
+        Node node = start;
+        VISITS.getAndAdd(node, 1); // A visit with no reward yet, a virtual loss until the result is known
+
+        while (node.result == 0) {
+            Node child = nodeCount.get() < maxNodes ? node.expand(random) : null;
+
+            if (child != null) {
+                nodeCount.incrementAndGet();
+                node = child;
+                VISITS.getAndAdd(node, 1);
+                break;
+            }
+
+            Node next = node.select();
+
+            if (next == null) { // A leaf of a full tree, so play randomly from here
+                break;
+            }
+
+            node = next;
+            VISITS.getAndAdd(node, 1);
+        }
+
+        int reward = node.result != 0 ? node.result - 1 : rollout(node.own, node.other, random, empty);
+
+        // Credit every node on the way, each from the point of view of the player who moved into it
+        for (Node n = node; n != null; n = n == start ? null : n.parent) {
+            REWARD.getAndAdd(n, (long) reward);
+            reward = WIN - reward;
+        }
+    }
+
+    /**
+     * Plays random moves until the game ends
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the player who just moved
+     * @param random source of randomness
+     * @param empty scratch space for the empty spots
+     * @return reward for the player who just moved: WIN, DRAW or LOSS
+     */
+    private int rollout(long own, long other, SplittableRandom random, int[] empty) {
+        int count = 0;
+
+        for (long moves = ~(own | other) & geometry.getFullBoard(); moves != 0; moves &= moves - 1) {
+            empty[count++] = Long.numberOfTrailingZeros(moves);
+        }
+
+        boolean moverToMove = false; // True when the player who moved into the node is to move
+
+        // Take the empty spots in a random order, one swap per move
+        while (count > 0) {
+            int pick = random.nextInt(count);
+            int i = empty[pick];
+            empty[pick] = empty[--count];
+            own |= 1L << i;
+
+            if (geometry.isWin(own, i)) {
+                return moverToMove ? WIN : LOSS;
+            }
+
+            long swap = own; // The other player moves next
+            own = other;
+            other = swap;
+            moverToMove = !moverToMove;
+        }
+
+        return DRAW;
+    }
+
+    private class Node {
+
+        /**
+         * A position in the tree. The statistics are updated by several threads at once through VarHandles, and
+         * children are added under the node's lock to a new array each time, so threads following them never see a
+         * half-added child
+         */
+
+        private Node parent; // Null at the root of the search
+        private final int move; // The spot played to reach this node, -1 at the root
+        private final long own; // Spots of the player to move
+        private final long other; // Spots of the player who just moved
+        private final int result; // 0 if the game goes on, otherwise the reward for the player who just moved plus 1
+        private long untried; // Empty spots with no child yet, guarded by the node's lock
+        private volatile Node[] children = NO_CHILDREN;
+        private volatile int visits; // Playouts through this node, including ones still running
+        private volatile long reward; // Total reward for the player who moved into this node, in half points
+
+        private Node(Node parent, int move, long own, long other, int result) {
+            this.parent = parent;
+            this.move = move;
+            this.own = own;
+            this.other = other;
+            this.result = result;
+            untried = result == 0 ? ~(own | other) & geometry.getFullBoard() : 0;
+        }
+
+        /**
+         * Adds a child for a random move that has not been tried yet
+         * @param random source of randomness
+         * @return the new child, or null if every move has been tried
+         */
+        private synchronized Node expand(SplittableRandom random) {
+
+            if (untried == 0) {
+                return null;
+            }
+
+            long moves = untried;
+
+            for (int skip = random.nextInt(Long.bitCount(moves)); skip > 0; skip--) {
+                moves &= moves - 1;
+            }
+
+            int i = Long.numberOfTrailingZeros(moves);
+            untried &= ~(1L << i);
+            long played = own | (1L << i);
+            int childResult = 0;
+
+            if (geometry.isWin(played, i)) {
+                childResult = WIN + 1;
+            }
+
+            else if ((played | other) == geometry.getFullBoard()) {
+                childResult = DRAW + 1;
+            }
+
+            Node child = new Node(this, i, other, played, childResult);
+            Node[] grown = Arrays.copyOf(children, children.length + 1);
+            grown[children.length] = child;
+            children = grown;
+            return child;
+        }
+
+        /**
+         * Picks the child with the highest UCT value, its average reward plus a bonus for being visited less often
+         * than its siblings
+         * @return the best child, or null if there are none
+         */
+        private Node select() {
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            double logVisits = Math.log(Math.max(1, visits));
+
+            for (Node child : children) {
+                int childVisits = Math.max(1, child.visits);
+                double value = child.reward / (2.0 * childVisits) + EXPLORATION * Math.sqrt(logVisits / childVisits);
+
+                if (value > bestValue) {
+                    best = child;
+                    bestValue = value;
+                }
+            }
+
+            return best;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package tictactoe;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PackedGames {
+
+    /**
+     * A store for a great many games on one board, each packed into a single long and kept outside the Java heap in
+     * a direct buffer, so millions of idle games cost the garbage collector nothing. A game is found by the id it was
+     * given when it was created, and every change to it is a compare-and-set of its long, so any number of threads
+     * can play moves on the store without locks. The same rules as GameState are applied to the packed games: a move
+     * must be played by the player to move in an empty spot of a game that is not over, a game is won by the first
+     * line and drawn once the board is full, and the winner stays the player to move. Only the spots each player
+     * holds are kept, not the order they were played in, so packed games cannot be undone or logged.
+     *
+     * Bits 0 to 27 of a game are the spots of player 1, bits 28 to 55 those of player 2, bit 56 is set while player 2
+     * is to move, bit 57 if player 2 moved first, bits 58 and 59 are the winner and bit 62 is set in every game, so an
+     * empty slot is never mistaken for one. Slots that are not in use hold the id of the next free slot plus one, so
+     * the free slots form a stack within the buffer itself.
+     * Usage: java tictactoe.PackedGames [games] [threads] [columns rows winLength]
+     */
+
+    public static final int MAX_CELLS = 28; // Most spots a board may have for two players' spots to fit in a long
+    public static final long NO_GAME = 0; // Returned when there is no game, or a move cannot be played
+
+    private static final int SECOND_SHIFT = 28; // Where player 2's spots start
+    private static final long SPOTS = (1L << MAX_CELLS) - 1;
+    private static final long SECOND_TO_MOVE = 1L << 56;
+    private static final long SECOND_FIRST = 1L << 57;
+    private static final int WINNER_SHIFT = 58;
+    private static final long LIVE = 1L << 62;
+    private static final long INDEX_BITS = 0xFFFFFFFFL; // The slot half of the free stack's head
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private final BoardGeometry geometry;
+    private final ByteBuffer slots; // One long per game, outside the heap
+    private final int capacity;
+    private final AtomicInteger used = new AtomicInteger(); // Slots below this have held a game at some point
+    private final AtomicInteger live = new AtomicInteger(); // Games in the store
+    private final AtomicLong freeHead = new AtomicLong(); // The top free slot's id plus one, 0 if there is none, with
+    // a count of changes in the high half so a slot popped and pushed back in between is noticed
+
+    /**
+     * New PackedGames with room for the given number of games
+     * @param geometry the board every game is played on, with at most MAX_CELLS spots
+     * @param capacity most games that may be stored at once, up to 2^28
+     */
+    public PackedGames(BoardGeometry geometry, int capacity) {
+
+        if (geometry.getCells() > MAX_CELLS) {
+            throw new IllegalArgumentException("Only boards with up to " + MAX_CELLS + " spots can be packed");
+        }
+
+        if (capacity < 0 || capacity > Integer.MAX_VALUE / Long.BYTES) {
+            throw new IllegalArgumentException("Capacity must be between 0 and " + Integer.MAX_VALUE / Long.BYTES);
+        }
+
+        this.geometry = geometry;
+        this.capacity = capacity;
+        slots = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Creates the given number of games on the classic board, or the given board, and plays random moves in every
+     * one of them on several threads until they are all over, then reports the results and the memory used
+     * @param args number of games, number of threads and board, all optional
+     * @throws InterruptedException if interrupted while waiting for the games
+     * @throws ExecutionException if a game fails
+     */
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        BoardGeometry geometry = args.length > 4 ? new BoardGeometry(Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4])) : BoardGeometry.CLASSIC;
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        PackedGames store = new PackedGames(geometry, games);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < games; i++) {
+            store.create(i % 2 + 1);
+        }
+
+        double created = (System.nanoTime() - start) / 1e9;
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("Created %d games on %s in %.2f seconds: %d MB outside the heap, %d KB more on the heap%n",
+                games, geometry, created, (long) games * Long.BYTES >> 20, Math.max(0, heapAfter - heapBefore) >> 10);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        start = System.nanoTime();
+
+        for (int t = 0; t < threads; t++) {
+            int first = (int) ((long) games * t / threads);
+            int last = (int) ((long) games * (t + 1) / threads);
+            long seed = t;
+            futures.add(executor.submit(() -> store.playRandomly(first, last, new SplittableRandom(seed))));
+        }
+
+        long[] results = new long[4];
+
+        for (Future<long[]> future : futures) {
+            long[] part = future.get();
+
+            for (int i = 0; i < results.length; i++) {
+                results[i] += part[i];
+            }
+        }
+
+        executor.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Player 1 won %d, player 2 won %d, drawn %d%n", results[1], results[2], results[0]);
+        System.out.printf("%d moves in %.2f seconds on %d threads, %.0f moves per second%n", results[3], seconds,
+                threads, results[3] / seconds);
+    }
+
+    /**
+     * Plays random moves in a range of games until each one is over
+     * @param first id of the first game
+     * @param last id after the last game
+     * @param random source of the moves
+     * @return draws, wins for player 1, wins for player 2 and the number of moves played
+     */
+    private long[] playRandomly(int first, int last, SplittableRandom random) {
+        long[] results = new long[4];
+
+        for (int id = first; id < last; id++) {
+            long game = get(id);
+
+            while (!isOver(game)) {
+                game = movePlayed(id, getCurrentPlayer(game), BatchRunner.randomMove(legalMoves(game), random));
+                results[3]++;
+            }
+
+            results[getWinner(game)]++;
+        }
+
+        return results;
+    }
+
+    /**
+     * Creates a game with every spot empty
+     * @param firstPlayer the player to move first, 1 or 2
+     * @return id of the game, or -1 if the store is full
+     */
+    public int create(int firstPlayer) {
+
+        if (firstPlayer != 1 && firstPlayer != 2) {
+            throw new IllegalArgumentException("Players are numbered 1 and 2");
+        }
+
+        long game = LIVE | (firstPlayer == 2 ? SECOND_FIRST | SECOND_TO_MOVE : 0);
+        int id = popFree();
+
+        if (id == -1) {
+            id = used.getAndUpdate((count) -> count < capacity ? count + 1 : count); // Take a slot never used
+
+            if (id == capacity) {
+                return -1;
+            }
+        }
+
+        LONGS.setVolatile(slots, id * Long.BYTES, game);
+        live.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * Removes a game, so its slot can be used for another one
+     * @param id id of the game
+     * @return false if there was no game with that id
+     */
+    public boolean remove(int id) {
+        long game;
+
+        do {
+            game = get(id);
+
+            if (game == NO_GAME) {
+                return false;
+            }
+        } while (!LONGS.compareAndSet(slots, id * Long.BYTES, game, 0L)); // Claim the slot before freeing it
+
+        pushFree(id);
+        live.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Gets a game
+     * @param id id of the game
+     * @return the packed game, or NO_GAME if there is none with that id
+     */
+    public long get(int id) {
+
+        if (id < 0 || id >= used.get()) {
+            return NO_GAME;
+        }
+
+        long game = (long) LONGS.getVolatile(slots, id * Long.BYTES);
+        return (game & LIVE) != 0 ? game : NO_GAME;
+    }
+
+    /**
+     * Plays a move in a game, following the same rules as Game.movePlayed: the move is only played if it is the
+     * given player's turn and the spot can be played. Safe to call for the same game on several threads at once, in
+     * which case each move is checked against the game as the moves before it left it
+     * @param id id of the game
+     * @param player the player making the move, 1 or 2
+     * @param index index of the spot
+     * @return the game after the move, or NO_GAME if there is no such game or the move cannot be played
+     */
+    public long movePlayed(int id, int player, int index) {
+
+        while (true) {
+            long game = get(id);
+
+            if (game == NO_GAME || getCurrentPlayer(game) != player || !isLegal(game, index)) {
+                return NO_GAME;
+            }
+
+            long next = play(game, index);
+
+            if (LONGS.compareAndSet(slots, id * Long.BYTES, game, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Plays a move for the player to move in a packed game, without storing it
+     * @param game the packed game
+     * @param index index of the spot, which must be legal
+     * @return the game after the move
+     */
+    public long play(long game, int index) {
+        int player = getCurrentPlayer(game);
+        long mask = getMask(game, player) | (1L << index);
+        long next = game | (1L << (player == 2 ? index + SECOND_SHIFT : index));
+
+        if (geometry.isWin(mask, index)) {
+            return next | (long) player << WINNER_SHIFT; // The winner stays the player to move, as in GameState
+        }
+
+        return next ^ SECOND_TO_MOVE;
+    }
+
+    /**
+     * Checks if a move can be played in a packed game
+     * @param game the packed game
+     * @param index index of the spot
+     * @return true if the game is not over and the spot is on the board and empty
+     */
+    public boolean isLegal(long game, int index) {
+        return index >= 0 && index < geometry.getCells() && (legalMoves(game) & (1L << index)) != 0;
+    }
+
+    /**
+     * Gets the spots a move can be played in
+     * @param game the packed game
+     * @return mask of the empty spots, or 0 if the game is over
+     */
+    public long legalMoves(long game) {
+        return isOver(game) ? 0 : ~(getMask(game, 1) | getMask(game, 2)) & geometry.getFullBoard();
+    }
+
+    /**
+     * Checks if a packed game is over
+     * @param game the packed game
+     * @return true if the game has been won or drawn
+     */
+    public boolean isOver(long game) {
+        return getResult(game) != GameState.IN_PROGRESS;
+    }
+
+    /**
+     * Gets the result of a packed game
+     * @param game the packed game
+     * @return GameState.IN_PROGRESS, WIN or DRAW
+     */
+    public int getResult(long game) {
+
+        if (getWinner(game) != 0) {
+            return GameState.WIN;
+        }
+
+        return (getMask(game, 1) | getMask(game, 2)) == geometry.getFullBoard() ? GameState.DRAW
+                : GameState.IN_PROGRESS;
+    }
+
+    /**
+     * Gets the spots a player holds in a packed game
+     * @param game the packed game
+     * @param player 1 or 2
+     * @return mask of the spots, indexed like the board geometry
+     */
+    public static long getMask(long game, int player) {
+        return player == 1 ? game & SPOTS : (game >>> SECOND_SHIFT) & SPOTS;
+    }
+
+    /**
+     * Gets the player to move in a packed game
+     * @param game the packed game
+     * @return 1 or 2
+     */
+    public static int getCurrentPlayer(long game) {
+        return (game & SECOND_TO_MOVE) != 0 ? 2 : 1;
+    }
+
+    /**
+     * Gets the player who moved first in a packed game
+     * @param game the packed game
+     * @return 1 or 2
+     */
+    public static int getFirstPlayer(long game) {
+        return (game & SECOND_FIRST) != 0 ? 2 : 1;
+    }
+
+    /**
+     * Gets the winner of a packed game
+     * @param game the packed game
+     * @return 1 or 2, or 0 if there is no winner
+     */
+    public static int getWinner(long game) {
+        return (int) (game >>> WINNER_SHIFT) & 3;
+    }
+
+    /**
+     * Takes the top slot off the stack of free slots
+     * @return id of the slot, or -1 if there is no free slot
+     */
+    private int popFree() {
+
+        while (true) {
+            long head = freeHead.get();
+            int id = (int) (head & INDEX_BITS) - 1;
+
+            if (id == -1) {
+                return -1;
+            }
+
+            long next = (long) LONGS.getVolatile(slots, id * Long.BYTES);
+            long update = ((head >>> 32) + 1) << 32 | (next & INDEX_BITS);
+
+            if (freeHead.compareAndSet(head, update)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Puts a slot on top of the stack of free slots
+     * @param id id of the slot, which must have been claimed by setting it to 0
+     */
+    private void pushFree(int id) {
+
+        while (true) {
+            long head = freeHead.get();
+            LONGS.setVolatile(slots, id * Long.BYTES, head & INDEX_BITS); // The slot holds the next one down
+
+            if (freeHead.compareAndSet(head, ((head >>> 32) + 1) << 32 | (id + 1))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of games in the store
+     * @return game count
+     */
+    public int size() {
+        return live.get();
+    }
+
+    /**
+     * Gets the most games the store can hold
+     * @return capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the board every game is played on
+     * @return board geometry
+     */
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+}
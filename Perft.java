@@ -0,0 +1,607 @@
+package tictactoe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+public class Perft {
+
+    /**
+     * Walks the whole game tree from a position, move by move, and counts the positions at each depth and the games
+     * that end there in a win or a draw. The counts only depend on the rules, so they check that a faster way of
+     * making moves or finding wins still plays the same game: from the empty 3x3 board there are 255,168 games, and
+     * any change that gives a different number has broken something. Walking the tree is also a benchmark of how fast
+     * moves are made, in positions per second.
+     *
+     * Boards of BoardGeometry are walked with the spots of each player as masks and BoardGeometry.isWin, as the AI's
+     * search plays them, or with GameState, the rules the game window plays by, and the check option walks both and
+     * compares them. Ultimate Tic Tac Toe and 15x15 five in a row are walked with their own states. The tree can be
+     * walked on one thread, or split among the threads of a ForkJoinPool below the first few moves.
+     * Usage: java tictactoe.Perft [variant] [depth] [threads] [moves] [check]
+     * where the variant is 3x3, 4x4, 5x5, 7x7, 4x4x4, ultimate or 15x15, and moves is a comma separated list of spot
+     * indexes played before the tree is walked
+     */
+
+    public static final String[] VARIANTS = {"3x3", "4x4", "5x5", "7x7", "4x4x4", "ultimate", "15x15"};
+
+    // Rows of the counts returned by count
+    public static final int NODES = 0; // Positions at each depth, the starting position at depth 0
+    public static final int WINS = 1; // Games won by the move at each depth
+    public static final int DRAWS = 2; // Games drawn by the move at each depth
+
+    // Totals from the empty 3x3 board, which any change to the rules must still give
+    public static final long CLASSIC_GAMES = 255168;
+    public static final long CLASSIC_FIRST_WINS = 131184;
+    public static final long CLASSIC_SECOND_WINS = 77904;
+    public static final long CLASSIC_DRAWS = 46080;
+    public static final long CLASSIC_NODES = 549946;
+
+    private static final int SPLIT_PLIES = 2; // Moves from the start that each get a task of their own
+
+    private final Position start;
+
+    private Perft(Position start) {
+        this.start = start;
+    }
+
+    /**
+     * New Perft for the empty board of a variant
+     * @param variant one of VARIANTS
+     * @param rules true to walk boards of BoardGeometry with GameState rather than masks
+     * @return the Perft
+     * @throws IllegalArgumentException if the variant is not known
+     */
+    public static Perft of(String variant, boolean rules) {
+
+        switch (variant) {
+            case "ultimate":
+                return new Perft(new UltimatePosition(new UltimateState(1)));
+            case "15x15":
+                return new Perft(new GomokuPosition(new GomokuState(1)));
+            default:
+                BoardGeometry geometry = geometryOf(variant);
+                return new Perft(rules ? new RulesPosition(new GameState(geometry, 1))
+                        : new MaskPosition(geometry));
+        }
+    }
+
+    /**
+     * Gets the board of a variant played on a BoardGeometry
+     * @param variant 3x3, 4x4, 5x5, 7x7 or 4x4x4
+     * @return board geometry
+     * @throws IllegalArgumentException if the variant is not one of those
+     */
+    public static BoardGeometry geometryOf(String variant) {
+
+        switch (variant) {
+            case "3x3":
+                return BoardGeometry.CLASSIC;
+            case "4x4":
+                return SolvedTable.GEOMETRY;
+            case "5x5":
+                return new BoardGeometry(5, 5, 4);
+            case "7x7":
+                return new BoardGeometry(7, 7, 5);
+            case "4x4x4":
+                return BoardGeometry.QUBIC;
+            default:
+                throw new IllegalArgumentException("Unknown variant " + variant + ", expected one of "
+                        + String.join(", ", VARIANTS));
+        }
+    }
+
+    /**
+     * Walks the tree of a variant on one thread and then on every thread asked for, and prints the counts, the
+     * positions per second, and whether the 3x3 totals are right
+     * @param args variant, depth, number of threads, moves played first and check, all optional
+     */
+    public static void main(String[] args) {
+        String variant = args.length > 0 ? args[0] : "3x3";
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int[] moves = args.length > 3 && !args[3].equals("-") ? Arrays.stream(args[3].split(","))
+                .mapToInt(Integer::parseInt).toArray() : new int[0];
+        boolean check = args.length > 4 && args[4].equals("check");
+
+        Perft perft = of(variant, false);
+        perft.play(moves);
+        System.out.println("Walking " + variant + (moves.length > 0 ? " after " + args[3] : "")
+                + (depth == Integer.MAX_VALUE ? " to the end" : " to depth " + depth));
+
+        long[][] counts = time(perft, depth, 1, "1 thread");
+        boolean passed = true;
+
+        if (threads > 1) {
+            passed = Arrays.deepEquals(counts, time(perft, depth, threads, threads + " threads"));
+            System.out.println(passed ? "Both give the same counts" : "MISMATCH between 1 and " + threads + " threads");
+        }
+
+        if (check && !variant.equals("ultimate") && !variant.equals("15x15")) {
+            Perft rules = of(variant, true);
+            rules.play(moves);
+            boolean same = Arrays.deepEquals(counts, time(rules, depth, threads, "GameState"));
+            System.out.println(same ? "GameState gives the same counts" : "MISMATCH between masks and GameState");
+            passed &= same;
+        }
+
+        else if (check) {
+            System.out.println(variant + " is only played by its own state, so there is nothing to check it against");
+        }
+
+        print(counts);
+
+        if (variant.equals("3x3") && moves.length == 0 && counts[NODES].length > 9) {
+            boolean known = isClassicTree(counts);
+            System.out.println(known ? "Matches the known 255,168 games of 3x3" : "MISMATCH with the known 3x3 totals");
+            passed &= known;
+        }
+
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Walks the tree and prints how long it took
+     * @param perft the tree
+     * @param depth deepest depth to walk
+     * @param threads number of threads
+     * @param label what is being timed
+     * @return the counts
+     */
+    private static long[][] time(Perft perft, int depth, int threads, String label) {
+        long start = System.nanoTime();
+        long[][] counts = perft.count(depth, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long nodes = Arrays.stream(counts[NODES]).sum();
+        System.out.printf("%s: %d positions in %.3f seconds, %.0f per second%n", label, nodes, seconds,
+                nodes / seconds);
+        return counts;
+    }
+
+    /**
+     * Prints the counts at each depth and their totals
+     * @param counts counts returned by count
+     */
+    public static void print(long[][] counts) {
+        System.out.printf("%5s %16s %14s %14s %14s%n", "depth", "positions", "first wins", "second wins", "draws");
+        long[] totals = new long[4];
+
+        for (int d = 0; d < counts[NODES].length; d++) {
+            long first = d % 2 == 1 ? counts[WINS][d] : 0; // Won by the player to move at the start
+            long second = d % 2 == 0 ? counts[WINS][d] : 0;
+            System.out.printf("%5d %16d %14d %14d %14d%n", d, counts[NODES][d], first, second, counts[DRAWS][d]);
+            totals[0] += counts[NODES][d];
+            totals[1] += first;
+            totals[2] += second;
+            totals[3] += counts[DRAWS][d];
+        }
+
+        System.out.printf("%5s %16d %14d %14d %14d%n", "total", totals[0], totals[1], totals[2], totals[3]);
+        System.out.println("Games finished: " + (totals[1] + totals[2] + totals[3]));
+    }
+
+    /**
+     * Checks counts from the empty 3x3 board against the known totals
+     * @param counts counts of the whole tree, returned by count
+     * @return true if the positions, games, wins and draws all match
+     */
+    public static boolean isClassicTree(long[][] counts) {
+        long first = 0;
+        long second = 0;
+
+        for (int d = 0; d < counts[WINS].length; d++) {
+
+            if (d % 2 == 1) {
+                first += counts[WINS][d];
+            }
+
+            else {
+                second += counts[WINS][d];
+            }
+        }
+
+        long draws = Arrays.stream(counts[DRAWS]).sum();
+        return first == CLASSIC_FIRST_WINS && second == CLASSIC_SECOND_WINS && draws == CLASSIC_DRAWS
+                && first + second + draws == CLASSIC_GAMES && Arrays.stream(counts[NODES]).sum() == CLASSIC_NODES;
+    }
+
+    /**
+     * Plays moves from the starting position before the tree is walked
+     * @param moves spot indexes, each of which must be legal when it is played
+     * @throws IllegalArgumentException if a move is not legal
+     */
+    public void play(int... moves) {
+        int[] legal = new int[start.getCells()];
+
+        for (int move : moves) {
+            int count = start.legalMoves(legal);
+
+            if (Arrays.stream(legal, 0, count).noneMatch((spot) -> spot == move)) {
+                throw new IllegalArgumentException("Spot " + move + " cannot be played");
+            }
+
+            start.play(move);
+        }
+    }
+
+    /**
+     * Walks the tree from the starting position
+     * @param depth deepest depth to walk, where the starting position is depth 0, or Integer.MAX_VALUE for the
+     * whole tree
+     * @param threads 1 to walk it on the calling thread, otherwise the parallelism of the pool it is split over
+     * @return positions, wins and draws at each depth, indexed by NODES, WINS and DRAWS, as deep as the tree goes
+     */
+    public long[][] count(int depth, int threads) {
+        int deepest = Math.min(depth, start.getCells());
+        long[][] counts;
+
+        if (threads <= 1) {
+            counts = new long[3][deepest + 1];
+            walk(start.copy(), 0, deepest, counts, new int[deepest + 1][start.getCells()]);
+        }
+
+        else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+
+            try {
+                counts = pool.invoke(new Split(start.copy(), 0, deepest));
+            }
+
+            finally {
+                pool.shutdown();
+            }
+        }
+
+        int last = deepest; // Drop the depths past the end of the tree
+
+        while (last > 0 && counts[NODES][last] == 0) {
+            last--;
+        }
+
+        for (int row = 0; row < counts.length; row++) {
+            counts[row] = Arrays.copyOf(counts[row], last + 1);
+        }
+
+        return counts;
+    }
+
+    /**
+     * Counts a position and everything below it, playing and undoing moves on the one position
+     * @param position the position, which is the same when this returns
+     * @param ply depth of the position
+     * @param depth deepest depth to walk
+     * @param counts where the counts are added
+     * @param moveLists a list of moves for each depth
+     */
+    private static void walk(Position position, int ply, int depth, long[][] counts, int[][] moveLists) {
+        counts[NODES][ply]++;
+        int result = position.getResult();
+
+        if (result != GameState.IN_PROGRESS) {
+            counts[result == GameState.WIN ? WINS : DRAWS][ply]++;
+            return;
+        }
+
+        if (ply == depth) {
+            return;
+        }
+
+        int[] moves = moveLists[ply];
+        int count = position.legalMoves(moves);
+
+        for (int i = 0; i < count; i++) {
+            position.play(moves[i]);
+            walk(position, ply + 1, depth, counts, moveLists);
+            position.undo();
+        }
+    }
+
+    @SuppressWarnings("serial") // Tasks are never serialised
+    private static class Split extends RecursiveTask<long[][]> {
+
+        /**
+         * Counts a position and everything below it, with a task for each move while the position is within
+         * SPLIT_PLIES of the start, and on a single thread below that
+         */
+
+        private final Position position;
+        private final int ply;
+        private final int depth;
+
+        private Split(Position position, int ply, int depth) {
+            this.position = position;
+            this.ply = ply;
+            this.depth = depth;
+        }
+
+        @Override
+        protected long[][] compute() {
+            long[][] counts = new long[3][depth + 1];
+
+            if (ply >= SPLIT_PLIES || ply == depth || position.getResult() != GameState.IN_PROGRESS) {
+                walk(position, ply, depth, counts, new int[depth + 1][position.getCells()]);
+                return counts;
+            }
+
+            counts[NODES][ply]++;
+            int[] moves = new int[position.getCells()];
+            int count = position.legalMoves(moves);
+            List<Split> tasks = new ArrayList<Split>();
+
+            for (int i = 0; i < count; i++) {
+                Position next = position.copy();
+                next.play(moves[i]);
+                tasks.add(new Split(next, ply + 1, depth));
+            }
+
+            for (Split task : ForkJoinTask.invokeAll(tasks)) {
+                long[][] part = task.join();
+
+                for (int row = 0; row < counts.length; row++) {
+
+                    for (int d = 0; d <= depth; d++) {
+                        counts[row][d] += part[row][d];
+                    }
+                }
+            }
+
+            return counts;
+        }
+    }
+
+    private interface Position {
+
+        /**
+         * A game the tree is walked on, played and undone in place
+         */
+
+        int getCells();
+
+        /**
+         * Lists the spots the player to move may play in
+         * @param out array of at least getCells() entries the spots are written to
+         * @return number of spots written, 0 if the game is over
+         */
+        int legalMoves(int[] out);
+
+        void play(int move);
+
+        void undo();
+
+        /**
+         * Gets the result of the game
+         * @return GameState.IN_PROGRESS, WIN or DRAW
+         */
+        int getResult();
+
+        Position copy();
+    }
+
+    private static class MaskPosition implements Position {
+
+        /**
+         * A board of BoardGeometry as two masks, the spots of the player to move and of their opponent, as the AI's
+         * search plays it, finding wins with BoardGeometry.isWin
+         */
+
+        private final BoardGeometry geometry;
+        private final int[] moves;
+        private long own; // Spots of the player to move
+        private long other;
+        private int moveCount;
+        private int result = GameState.IN_PROGRESS;
+
+        private MaskPosition(BoardGeometry geometry) {
+            this.geometry = geometry;
+            moves = new int[geometry.getCells()];
+        }
+
+        @Override
+        public int getCells() {
+            return geometry.getCells();
+        }
+
+        @Override
+        public int legalMoves(int[] out) {
+
+            if (result != GameState.IN_PROGRESS) {
+                return 0;
+            }
+
+            int count = 0;
+
+            for (long free = ~(own | other) & geometry.getFullBoard(); free != 0; free &= free - 1) {
+                out[count++] = Long.numberOfTrailingZeros(free);
+            }
+
+            return count;
+        }
+
+        @Override
+        public void play(int move) {
+            long played = own | (1L << move);
+
+            if (geometry.isWin(played, move)) {
+                result = GameState.WIN;
+            }
+
+            else if ((played | other) == geometry.getFullBoard()) {
+                result = GameState.DRAW;
+            }
+
+            own = other;
+            other = played;
+            moves[moveCount++] = move;
+        }
+
+        @Override
+        public void undo() {
+            int move = moves[--moveCount];
+            long played = other & ~(1L << move);
+            other = own;
+            own = played;
+            result = GameState.IN_PROGRESS; // Nothing is played after the game ends
+        }
+
+        @Override
+        public int getResult() {
+            return result;
+        }
+
+        @Override
+        public Position copy() {
+            MaskPosition copy = new MaskPosition(geometry);
+            System.arraycopy(moves, 0, copy.moves, 0, moveCount);
+            copy.own = own;
+            copy.other = other;
+            copy.moveCount = moveCount;
+            copy.result = result;
+            return copy;
+        }
+    }
+
+    private static class RulesPosition implements Position {
+
+        /**
+         * A board of BoardGeometry played by GameState, the rules the game window and GameServer play by
+         */
+
+        private final GameState state;
+
+        private RulesPosition(GameState state) {
+            this.state = state;
+        }
+
+        @Override
+        public int getCells() {
+            return state.getGeometry().getCells();
+        }
+
+        @Override
+        public int legalMoves(int[] out) {
+            int count = 0;
+
+            for (long free = state.legalMoves(); free != 0; free &= free - 1) {
+                out[count++] = Long.numberOfTrailingZeros(free);
+            }
+
+            return count;
+        }
+
+        @Override
+        public void play(int move) {
+            state.play(move);
+        }
+
+        @Override
+        public void undo() {
+            state.undo();
+        }
+
+        @Override
+        public int getResult() {
+            return state.getResult();
+        }
+
+        @Override
+        public Position copy() {
+            return new RulesPosition(state.copy());
+        }
+    }
+
+    private static class UltimatePosition implements Position {
+
+        private final UltimateState state;
+
+        private UltimatePosition(UltimateState state) {
+            this.state = state;
+        }
+
+        @Override
+        public int getCells() {
+            return UltimateState.CELLS;
+        }
+
+        @Override
+        public int legalMoves(int[] out) {
+            return state.legalMoves(out);
+        }
+
+        @Override
+        public void play(int move) {
+            state.play(move);
+        }
+
+        @Override
+        public void undo() {
+            state.undo();
+        }
+
+        @Override
+        public int getResult() {
+            return state.getResult();
+        }
+
+        @Override
+        public Position copy() {
+            return new UltimatePosition(state.copy());
+        }
+    }
+
+    private static class GomokuPosition implements Position {
+
+        private final GomokuState state;
+
+        private GomokuPosition(GomokuState state) {
+            this.state = state;
+        }
+
+        @Override
+        public int getCells() {
+            return GomokuState.CELLS;
+        }
+
+        @Override
+        public int legalMoves(int[] out) {
+
+            if (state.isOver()) {
+                return 0;
+            }
+
+            int count = 0;
+
+            for (int cell = 0; cell < GomokuState.CELLS; cell++) {
+
+                if (state.getOwner(cell) == 0) {
+                    out[count++] = cell;
+                }
+            }
+
+            return count;
+        }
+
+        @Override
+        public void play(int move) {
+            state.play(move);
+        }
+
+        @Override
+        public void undo() {
+            state.undo();
+        }
+
+        @Override
+        public int getResult() {
+            return state.getResult();
+        }
+
+        @Override
+        public Position copy() {
+            return new GomokuPosition(state.copy());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+public class PolicyTable {
+
+    /**
+     * The best move and score for every position the AI can be asked to play, read from the policy.bin resource that
+     * PolicyTableGenerator writes. Positions are indexed in base 3, where index i of the flattened board adds
+     * 3^i if it is occupied by the player to move and 2 * 3^i if it is occupied by the opponent. The file starts with
+     * a header of four ints (magic number, version, number of positions and a CRC32 of the entries), followed by three
+     * bytes per position: the index to play, or -1 if the position cannot be played, and the score of that move as
+     * returned by AI.getLastScore, as a short. When the resource is a plain file it is memory-mapped rather than read
+     */
+
+    public static final String RESOURCE = "policy.bin";
+    public static final int MAGIC = 0x54545450; // "TTTP"
+    public static final int VERSION = 2;
+    public static final int POSITIONS = 19683; // 3^9
+    public static final int HEADER_SIZE = 16;
+    public static final int ENTRY_SIZE = 3;
+    public static final int NO_MOVE = -1;
+
+    private static final int FULL_BOARD = 0b111111111;
+
+    // For every mask of a single player, the base 3 index of that mask with each occupied spot counted as a 1
+    private static final int[] BASE3 = new int[FULL_BOARD + 1];
+
+    private static PolicyTable defaultTable;
+    private static boolean defaultLoaded;
+
+    static {
+        for (int mask = 0; mask <= FULL_BOARD; mask++) {
+            int power = 1;
+
+            for (int i = 0; i < 9; i++) {
+
+                if ((mask & (1 << i)) != 0) {
+                    BASE3[mask] += power;
+                }
+
+                power *= 3;
+            }
+        }
+    }
+
+    private final ByteBuffer entries;
+
+    /**
+     * New PolicyTable over the given entries, which must already have been checked
+     * @param entries three bytes for each position
+     */
+    private PolicyTable(ByteBuffer entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Gets the table bundled with the game, loading it the first time this is called
+     * @return the bundled table, or null if the resource is missing or corrupt
+     */
+    public static synchronized PolicyTable getDefault() {
+
+        if (!defaultLoaded) {
+            defaultLoaded = true;
+            URL url = PolicyTable.class.getResource(RESOURCE);
+
+            if (url != null) {
+                defaultTable = load(url);
+            }
+        }
+
+        return defaultTable;
+    }
+
+    /**
+     * Loads a table from the given location, memory-mapping it if it is a file
+     * @param url location of the table
+     * @return the table, or null if it cannot be read or fails its checks
+     */
+    public static PolicyTable load(URL url) {
+
+        try {
+            ByteBuffer buffer;
+
+            if ("file".equals(url.getProtocol())) {
+                buffer = map(Paths.get(url.toURI()));
+            }
+
+            else { // Inside a jar, so the bytes have to be copied out
+                try (InputStream in = url.openStream()) {
+                    byte[] bytes = in.readAllBytes();
+                    buffer = ByteBuffer.allocateDirect(bytes.length);
+                    buffer.put(bytes).flip();
+                }
+            }
+
+            return fromBuffer(buffer);
+        }
+
+        catch (IOException | URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the header and checksum of the given buffer and wraps its entries in a table
+     * @param buffer contents of a policy file
+     * @return the table, or null if the buffer is not a valid policy file
+     */
+    public static PolicyTable fromBuffer(ByteBuffer buffer) {
+
+        if (buffer.remaining() != HEADER_SIZE + POSITIONS * ENTRY_SIZE) {
+            return null;
+        }
+
+        int start = buffer.position();
+
+        if (buffer.getInt(start) != MAGIC || buffer.getInt(start + 4) != VERSION
+                || buffer.getInt(start + 8) != POSITIONS) {
+            return null;
+        }
+
+        ByteBuffer entries = buffer.duplicate();
+        entries.position(start + HEADER_SIZE);
+        entries = entries.slice();
+
+        CRC32 crc = new CRC32();
+        crc.update(entries.duplicate());
+
+        if ((int) crc.getValue() != buffer.getInt(start + 12)) {
+            return null;
+        }
+
+        return new PolicyTable(entries);
+    }
+
+    /**
+     * Gets the base 3 index of a position
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return index of the position
+     */
+    public static int indexOf(int own, int other) {
+        return BASE3[own] + 2 * BASE3[other];
+    }
+
+    /**
+     * Gets the best index to play in a position
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return index of the flattened board to play, or NO_MOVE if the position is over or cannot be reached
+     */
+    public int bestMove(int own, int other) {
+        return entries.get(indexOf(own, other) * ENTRY_SIZE);
+    }
+
+    /**
+     * Gets the score of the best move in a position, from the point of view of the player to move
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return score of the best move
+     */
+    public int score(int own, int other) {
+        return entries.getShort(indexOf(own, other) * ENTRY_SIZE + 1);
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
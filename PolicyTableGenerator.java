@@ -0,0 +1,92 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+public class PolicyTableGenerator {
+
+    /**
+     * Solves every position the AI can be asked to play with the AI's own search and writes the results in the format
+     * read by PolicyTable. Run it whenever the AI's search changes:
+     * java tictactoe.PolicyTableGenerator path/to/policy.bin
+     */
+
+    /**
+     * Solves every position and writes the policy file
+     * @param args the path to write to, policy.bin in the working directory if not given
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args.length > 0 ? args[0] : PolicyTable.RESOURCE);
+        ByteBuffer entries = ByteBuffer.allocate(PolicyTable.POSITIONS * PolicyTable.ENTRY_SIZE);
+        AI ai = new AI(BoardGeometry.CLASSIC, new TranspositionTable(1 << 16), null); // Live search only
+        int solved = 0;
+
+        for (int index = 0; index < PolicyTable.POSITIONS; index++) {
+            int own = 0;
+            int other = 0;
+            int rest = index;
+
+            // Decode the base 3 index into the two masks
+            for (int i = 0; i < 9; i++) {
+
+                if (rest % 3 == 1) {
+                    own |= 1 << i;
+                }
+
+                else if (rest % 3 == 2) {
+                    other |= 1 << i;
+                }
+
+                rest /= 3;
+            }
+
+            if (isPlayable(own, other)) {
+                entries.put(index * PolicyTable.ENTRY_SIZE, (byte) ai.chooseIndex(own, other));
+                entries.putShort(index * PolicyTable.ENTRY_SIZE + 1, (short) ai.getLastScore());
+                solved++;
+            }
+
+            else {
+                entries.put(index * PolicyTable.ENTRY_SIZE, (byte) PolicyTable.NO_MOVE);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(entries.array());
+
+        ByteBuffer header = ByteBuffer.allocate(PolicyTable.HEADER_SIZE);
+        header.putInt(PolicyTable.MAGIC).putInt(PolicyTable.VERSION).putInt(PolicyTable.POSITIONS)
+                .putInt((int) crc.getValue()).flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(new ByteBuffer[] {header, entries});
+        }
+
+        System.out.println("Solved " + solved + " positions, written to " + path.toAbsolutePath());
+    }
+
+    /**
+     * Checks whether a position can come up with the player to move, who either started the game or is one move
+     * behind, and has not already been won or filled
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return true if the AI could be asked to play this position
+     */
+    private static boolean isPlayable(int own, int other) {
+        int difference = Integer.bitCount(other) - Integer.bitCount(own);
+
+        if (difference != 0 && difference != 1) {
+            return false;
+        }
+
+        BoardGeometry geometry = BoardGeometry.CLASSIC;
+        return geometry.findLine(own) < 0 && geometry.findLine(other) < 0 && Integer.bitCount(own | other) < 9;
+    }
+}
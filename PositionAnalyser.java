@@ -0,0 +1,331 @@
+package tictactoe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PositionAnalyser {
+
+    /**
+     * Scores every empty spot of a position for the player to move, for coaching and for the hints shown in a game.
+     * Positions can be scored one at a time, or streamed from a reader with one board per line and scored on several
+     * threads, each with an AI of its own that shares one transposition table, so what one thread has searched saves
+     * the others the work. The results are written in the order the positions were read, and only a few positions
+     * per thread are held in memory at a time, so there is no limit on the size of a batch.
+     *
+     * A board is written one row at a time from the top, with the rows separated by '/', and X, O or . for each spot,
+     * so the classic board might be X.O/.X./..O. It may be followed by X or O for the player to move, otherwise the
+     * player with fewer spots moves, X if they have the same. Each result line holds the board, the player to move
+     * and the scores laid out the same way, separated by tabs, with the scores of a row separated by ',' and - for an
+     * occupied spot, so X.O/.X./..O gives X.O/.X./..O, X and -,-29998,-/-29998,-,0/-29998,-29998,- where X must block
+     * or lose (see AI.getLastScore for what the scores mean). A line that is not a board is written back followed by a
+     * tab and the reason, and blank lines are skipped.
+     * Usage: java tictactoe.PositionAnalyser [input|-] [output|-] [columns rows winLength] [threads] [time budget ms]
+     */
+
+    public static final long DEFAULT_TIME_BUDGET = 100; // Milliseconds per position
+    private static final int QUEUED_PER_THREAD = 16; // Positions read ahead of the one being written, per thread
+
+    private final BoardGeometry geometry;
+    private final TranspositionTable table; // Shared by every thread's AI
+    private final ThreadLocal<AI> players;
+    private final int threads;
+    private volatile long timeBudget = DEFAULT_TIME_BUDGET;
+    private volatile int maxDepth = Integer.MAX_VALUE;
+
+    /**
+     * New PositionAnalyser
+     * @param geometry the board the positions are on, which must be flat
+     * @param table transposition table shared by every thread, and possibly by AI players of games on the same board
+     * @param threads number of threads to score streamed positions on
+     */
+    public PositionAnalyser(BoardGeometry geometry, TranspositionTable table, int threads) {
+
+        if (geometry.getLayers() != 1) {
+            throw new IllegalArgumentException("Only flat boards can be analysed");
+        }
+
+        this.geometry = geometry;
+        this.table = table;
+        this.threads = Math.max(1, threads);
+        players = ThreadLocal.withInitial(() -> new AI(geometry, table, null, null));
+    }
+
+    /**
+     * Scores the positions read from a file, or standard input, and writes the results to a file, or standard output
+     * @param args input, output, board, number of threads and time budget per position, all optional
+     * @throws IOException if the input cannot be read or the output written
+     * @throws InterruptedException if interrupted while waiting for a position to be scored
+     * @throws ExecutionException if scoring a position fails
+     */
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        String input = args.length > 0 ? args[0] : "-";
+        String output = args.length > 1 ? args[1] : "-";
+        BoardGeometry geometry = args.length > 4 ? new BoardGeometry(Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4])) : BoardGeometry.CLASSIC;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        long budget = args.length > 6 ? Long.parseLong(args[6]) : DEFAULT_TIME_BUDGET;
+
+        PositionAnalyser analyser = new PositionAnalyser(geometry, new TranspositionTable(1 << 20), threads);
+        analyser.setTimeBudget(budget);
+
+        try (Reader in = input.equals("-") ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : Files.newBufferedReader(Paths.get(input));
+             Writer out = output.equals("-") ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                     : Files.newBufferedWriter(Paths.get(output))) {
+            long start = System.nanoTime();
+            long positions = analyser.analyse(in, out);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("Scored %d positions on %s in %.2f seconds, %.0f per second%n", positions, geometry,
+                    seconds, positions / seconds);
+        }
+    }
+
+    /**
+     * Scores every position read from a reader, on this analyser's threads, and writes the results in the same order
+     * @param in one board per line
+     * @param out where the results are written, one line per board
+     * @return number of lines read that were not blank
+     * @throws IOException if the input cannot be read or the output written
+     * @throws InterruptedException if interrupted while waiting for a position to be scored
+     * @throws ExecutionException if scoring a position fails
+     */
+    public long analyse(Reader in, Writer out) throws IOException, InterruptedException, ExecutionException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        BufferedWriter writer = out instanceof BufferedWriter ? (BufferedWriter) out : new BufferedWriter(out);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<String>> queued = new ArrayDeque<Future<String>>(); // Results not yet written, in order
+        long count = 0;
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                String position = line.trim();
+                queued.add(executor.submit(() -> analyse(position)));
+                count++;
+
+                // Wait for the oldest position once enough are queued, so the input is never all held at once
+                if (queued.size() >= threads * QUEUED_PER_THREAD) {
+                    writer.write(queued.remove().get());
+                    writer.newLine();
+                }
+            }
+
+            while (!queued.isEmpty()) {
+                writer.write(queued.remove().get());
+                writer.newLine();
+            }
+
+            writer.flush();
+        }
+
+        finally {
+            executor.shutdownNow();
+        }
+
+        return count;
+    }
+
+    /**
+     * Scores one line of input
+     * @param position a board, possibly followed by the player to move
+     * @return the result line
+     */
+    private String analyse(String position) {
+        long[] masks;
+
+        try {
+            masks = parse(position);
+        }
+
+        catch (IllegalArgumentException e) {
+            return position + "\t" + e.getMessage();
+        }
+
+        int mover = (int) masks[2];
+        int[] scores = scoreMoves(masks[mover - 1], masks[2 - mover]);
+        return format(masks[0], masks[1]) + "\t" + (mover == 1 ? 'X' : 'O') + "\t" + formatScores(scores);
+    }
+
+    /**
+     * Scores every empty spot of a position for the player to move, on the calling thread. Safe to call on several
+     * threads at once
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return the score of each spot, as returned by AI.scoreMoves
+     */
+    public int[] scoreMoves(long own, long other) {
+        AI ai = players.get();
+        ai.setTimeBudget(timeBudget);
+        ai.setMaxDepth(maxDepth);
+        return ai.scoreMoves(own, other);
+    }
+
+    /**
+     * Reads a board written one row at a time, possibly followed by the player to move
+     * @param position the board, as described above
+     * @return the spots held by X, the spots held by O, and the player to move, 1 for X or 2 for O
+     * @throws IllegalArgumentException if the board is the wrong size, holds anything but X, O and ., or is already
+     * over
+     */
+    public long[] parse(String position) {
+        String[] parts = position.trim().split("\\s+");
+        String[] rows = parts[0].split("/");
+
+        if (rows.length != geometry.getRows()) {
+            throw new IllegalArgumentException("Expected " + geometry.getRows() + " rows");
+        }
+
+        long crosses = 0;
+        long circles = 0;
+
+        for (int row = 0; row < rows.length; row++) {
+
+            if (rows[row].length() != geometry.getColumns()) {
+                throw new IllegalArgumentException("Expected " + geometry.getColumns() + " spots in row " + (row + 1));
+            }
+
+            for (int column = 0; column < rows[row].length(); column++) {
+                long spot = 1L << geometry.index(column, row);
+                char c = Character.toUpperCase(rows[row].charAt(column));
+
+                if (c == 'X') {
+                    crosses |= spot;
+                }
+
+                else if (c == 'O') {
+                    circles |= spot;
+                }
+
+                else if (c != '.') {
+                    throw new IllegalArgumentException("Unexpected '" + rows[row].charAt(column) + "'");
+                }
+            }
+        }
+
+        for (long line : geometry.getLines()) {
+
+            if ((crosses & line) == line || (circles & line) == line) {
+                throw new IllegalArgumentException("The game is already won");
+            }
+        }
+
+        if ((crosses | circles) == geometry.getFullBoard()) {
+            throw new IllegalArgumentException("The board is full");
+        }
+
+        long mover = Long.bitCount(crosses) <= Long.bitCount(circles) ? 1 : 2;
+
+        if (parts.length > 1 && (parts[1].equalsIgnoreCase("X") || parts[1].equalsIgnoreCase("O"))) {
+            mover = parts[1].equalsIgnoreCase("X") ? 1 : 2;
+        }
+
+        else if (parts.length > 1) {
+            throw new IllegalArgumentException("Expected X or O to move");
+        }
+
+        return new long[] {crosses, circles, mover};
+    }
+
+    /**
+     * Writes a board one row at a time, the way parse reads it
+     * @param crosses spots held by X
+     * @param circles spots held by O
+     * @return the board
+     */
+    public String format(long crosses, long circles) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int row = 0; row < geometry.getRows(); row++) {
+
+            if (row > 0) {
+                builder.append('/');
+            }
+
+            for (int column = 0; column < geometry.getColumns(); column++) {
+                long spot = 1L << geometry.index(column, row);
+                builder.append((crosses & spot) != 0 ? 'X' : (circles & spot) != 0 ? 'O' : '.');
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Writes the scores of a position laid out like its board
+     * @param scores the score of each spot, indexed like the board geometry
+     * @return the scores, with - for a spot that was not scored
+     */
+    public String formatScores(int[] scores) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int row = 0; row < geometry.getRows(); row++) {
+
+            if (row > 0) {
+                builder.append('/');
+            }
+
+            for (int column = 0; column < geometry.getColumns(); column++) {
+
+                if (column > 0) {
+                    builder.append(',');
+                }
+
+                int score = scores[geometry.index(column, row)];
+                builder.append(score == AI.NO_SCORE ? "-" : Integer.toString(score));
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Sets how long each position may be searched for
+     * @param millis time budget in milliseconds
+     */
+    public void setTimeBudget(long millis) {
+        timeBudget = millis;
+    }
+
+    /**
+     * Sets the deepest each position is searched, in plies
+     * @param plies maximum search depth
+     */
+    public void setMaxDepth(int plies) {
+        maxDepth = plies;
+    }
+
+    /**
+     * Gets the board the positions are on
+     * @return board geometry
+     */
+    public BoardGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Gets the transposition table shared by every thread
+     * @return transposition table
+     */
+    public TranspositionTable getTable() {
+        return table;
+    }
+}
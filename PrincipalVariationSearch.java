@@ -0,0 +1,454 @@
+package tictactoe;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+public abstract class PrincipalVariationSearch {
+
+    /**
+     * The search shared by UltimateAI and GomokuAI, for games whose tree is far too big to search to the end. It
+     * searches deeper and deeper from the root with principal variation search until its time budget runs out or the
+     * result is known, walking the tree by playing and undoing moves on a single position. Positions are hashed with
+     * Zobrist keys into a transposition table of plain arrays, and the moves that caused cut-offs are counted in a
+     * history for each player. The game decides which moves to search, how to score the positions the search stops
+     * at and how to hash them. Like a Strategy, each stop moves the search on to a new generation, so a search asked
+     * for before a stop never runs even if it had not started yet
+     */
+
+    public static final int WIN_SCORE = 1000000; // Score of a won game, less the plies it takes to win
+    public static final int NO_SCORE = Integer.MIN_VALUE; // From leafScore when the position has to be searched
+
+    private static final int TABLE_BITS = 20;
+    private static final int EXACT = 0;
+    private static final int LOWER_BOUND = 1;
+    private static final int UPPER_BOUND = 2;
+    private static final int NO_MOVE = 0xFF; // Stored when no best move is known
+
+    private final int maxPly;
+    private final boolean historyOrder;
+    private final long[] tableKeys = new long[1 << TABLE_BITS];
+    private final long[] tableEntries = new long[1 << TABLE_BITS]; // Packed score, bound, depth and best move
+    private final int[][] moveLists;
+    private final int[][] history; // Cut-offs caused by each move, per player
+    private final AtomicLong generation = new AtomicLong(); // Moved on by stop
+    private long nodes;
+    private long deadline; // System.nanoTime after which the search stops
+    private long timeBudget;
+    private int maxDepth;
+    private int completedDepth;
+    private int bestScore;
+    private volatile boolean stopped;
+
+    /**
+     * New PrincipalVariationSearch with an empty table
+     * @param cells spots on the board, fewer than 255 so a move fits in a table entry
+     * @param maxPly most plies the search may go below the root
+     * @param timeBudget default time budget in milliseconds
+     * @param historyOrder true to search the moves with the most cut-offs first, after the table's move, or false to
+     * keep the order of listMoves
+     */
+    PrincipalVariationSearch(int cells, int maxPly, long timeBudget, boolean historyOrder) {
+        this.maxPly = maxPly;
+        this.timeBudget = timeBudget;
+        this.historyOrder = historyOrder;
+        maxDepth = maxPly;
+        moveLists = new int[maxPly + 1][cells];
+        history = new int[3][cells];
+    }
+
+    /**
+     * Gets the result of the position being searched
+     * @return GameState.IN_PROGRESS, WIN or DRAW
+     */
+    abstract int getResult();
+
+    /**
+     * Gets the player to move in the position being searched
+     * @return 1 or 2
+     */
+    abstract int getCurrentPlayer();
+
+    /**
+     * Gets the Zobrist hash of the position being searched, including the player to move
+     * @return hash of the position
+     */
+    abstract long getKey();
+
+    /**
+     * Scores the position being searched for the player to move without searching it, if it need not be searched
+     * @param depth plies left to search
+     * @param ply plies from the root
+     * @return the score, or NO_SCORE if the position has to be searched
+     */
+    abstract int leafScore(int depth, int ply);
+
+    /**
+     * Lists the moves to search from the position being searched, most promising first
+     * @param out array of at least cells entries the moves are written to
+     * @param ply plies from the root
+     * @return number of moves written
+     */
+    abstract int listMoves(int[] out, int ply);
+
+    /**
+     * Plays a move for the player to move in the position being searched, updating its hash
+     * @param move a move from listMoves
+     */
+    abstract void play(int move);
+
+    /**
+     * Takes back the last move played in the position being searched
+     * @param move the move, as given to play
+     */
+    abstract void undo(int move);
+
+    /**
+     * Gets ready for a new search, starting its clock
+     * @param search the generation the search belongs to
+     */
+    void start(long search) {
+        nodes = 0;
+        completedDepth = 0;
+        bestScore = 0;
+        stopped = false;
+
+        if (generation.get() != search) { // Only ever set after clearing, so a stop meanwhile is not lost
+            stopped = true;
+        }
+
+        deadline = System.nanoTime() + timeBudget * 1000000;
+
+        for (int[] counts : history) {
+
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] >>= 2; // Keep what was learnt on the last move, but let this one outweigh it
+            }
+        }
+    }
+
+    /**
+     * Searches deeper and deeper from the root until the time budget runs out, the result is known or the depth
+     * limit is reached
+     * @param moves the moves to choose from, best first, which are reordered as the search goes
+     * @param count number of moves, at least 1
+     * @param depthLimit most plies worth searching, which is capped by the maximum depth
+     * @return the move to play
+     */
+    int searchRoot(int[] moves, int count, int depthLimit) {
+        int best = moves[0];
+
+        for (int depth = 1; depth <= Math.min(maxDepth, depthLimit); depth++) {
+            int alpha = -WIN_SCORE - 1;
+            int found = -1; // Best move of this iteration, among the moves it finished searching
+
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+                play(move);
+                int score;
+
+                if (found == -1) {
+                    score = -search(depth - 1, -WIN_SCORE - 1, -alpha, 1);
+                }
+
+                else { // Prove the move is worse than the best so far with a null window, and search it fully if not
+                    score = -search(depth - 1, -alpha - 1, -alpha, 1);
+
+                    if (score > alpha && !stopped) {
+                        score = -search(depth - 1, -WIN_SCORE - 1, -alpha, 1);
+                    }
+                }
+
+                undo(move);
+
+                if (stopped) {
+                    break;
+                }
+
+                if (found == -1 || score > alpha) {
+                    alpha = score;
+                    found = move;
+
+                    // Search the best move first in the next iteration
+                    System.arraycopy(moves, 0, moves, 1, i);
+                    moves[0] = move;
+                }
+            }
+
+            if (found != -1) { // The previous best was searched first, so a partial iteration can still improve on it
+                best = found;
+                bestScore = alpha;
+            }
+
+            if (stopped) {
+                break;
+            }
+
+            completedDepth = depth;
+
+            if (Math.abs(alpha) > WIN_SCORE - maxPly) { // The result is known
+                break;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Scores the current position for the player to move, searching the given number of plies further
+     * @param depth plies left to search
+     * @param alpha score the player to move is already sure of
+     * @param beta score the opponent is already sure of
+     * @param ply plies from the root
+     * @return the score, or 0 if the search has been stopped
+     */
+    private int search(int depth, int alpha, int beta, int ply) {
+
+        if (visit(4095)) {
+            return 0;
+        }
+
+        if (getResult() != GameState.IN_PROGRESS) { // The last move ended the game
+            return getResult() == GameState.WIN ? -(WIN_SCORE - ply) : 0;
+        }
+
+        int leaf = leafScore(depth, ply);
+
+        if (leaf != NO_SCORE) {
+            return leaf;
+        }
+
+        int player = getCurrentPlayer();
+        long key = getKey();
+        int slot = (int) key & ((1 << TABLE_BITS) - 1);
+        int tableMove = -1;
+
+        if (tableKeys[slot] == key) {
+            long entry = tableEntries[slot];
+            int score = fromTable((int) (entry >> 32), ply);
+            int flag = (int) (entry >> 16) & 3;
+            tableMove = (int) (entry & 0xFF) == NO_MOVE ? -1 : (int) (entry & 0xFF);
+
+            if (((int) (entry >> 8) & 0xFF) >= depth) {
+
+                if (flag == EXACT || (flag == LOWER_BOUND && score >= beta)
+                        || (flag == UPPER_BOUND && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        int[] moves = moveLists[ply];
+        int count = listMoves(moves, ply);
+        int[] counts = history[player];
+        int originalAlpha = alpha;
+        int best = -WIN_SCORE - 1;
+        int bestMove = NO_MOVE;
+
+        for (int i = 0; i < count; i++) {
+
+            // Pick the most promising move left: the table's move, then if asked the one with the most cut-offs
+            int pick = i;
+
+            for (int j = i; j < count && (historyOrder || tableMove != -1); j++) {
+
+                if (moves[j] == tableMove) {
+                    pick = j;
+                    break;
+                }
+
+                if (historyOrder && counts[moves[j]] > counts[moves[pick]]) {
+                    pick = j;
+                }
+            }
+
+            int move = moves[pick];
+            moves[pick] = moves[i];
+            moves[i] = move;
+
+            play(move);
+            int score;
+
+            if (i == 0) {
+                score = -search(depth - 1, -beta, -alpha, ply + 1);
+            }
+
+            else {
+                score = -search(depth - 1, -alpha - 1, -alpha, ply + 1);
+
+                if (score > alpha && score < beta) {
+                    score = -search(depth - 1, -beta, -alpha, ply + 1);
+                }
+            }
+
+            undo(move);
+
+            if (stopped) {
+                return 0;
+            }
+
+            if (score > best) {
+                best = score;
+                bestMove = move;
+
+                if (score > alpha) {
+                    alpha = score;
+
+                    if (alpha >= beta) {
+                        counts[move] += depth * depth;
+                        break;
+                    }
+                }
+            }
+        }
+
+        int flag = best <= originalAlpha ? UPPER_BOUND : best >= beta ? LOWER_BOUND : EXACT;
+        tableKeys[slot] = key;
+        tableEntries[slot] = (long) toTable(best, ply) << 32 | flag << 16 | depth << 8 | bestMove;
+        return best;
+    }
+
+    /**
+     * Counts a position visited, stopping the search if it has run out of time
+     * @param interval one less than a power of two, the number of positions between looks at the clock
+     * @return true if the search has been stopped
+     */
+    boolean visit(int interval) {
+
+        if ((++nodes & interval) == 0 && System.nanoTime() > deadline) {
+            stopped = true;
+        }
+
+        return stopped;
+    }
+
+    /**
+     * Checks if the search has been stopped, or has run out of time, without counting a position
+     * @return true if the search should return as soon as possible
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Gets the history of cut-offs, which the game may use to order its moves
+     * @param player 1 or 2
+     * @return cut-offs caused by each move of the player, weighted by depth
+     */
+    int[] getHistory(int player) {
+        return history[player];
+    }
+
+    /**
+     * Sets the score of a move the game chose without searching the tree, such as a forced win
+     * @param score score of the move for the player who chose it
+     */
+    void setLastScore(int score) {
+        bestScore = score;
+    }
+
+    /**
+     * Converts a score to store in the table, counting wins from the position rather than the root
+     * @param score score of the position
+     * @param ply plies from the root
+     * @return score to store
+     */
+    private int toTable(int score, int ply) {
+
+        if (score > WIN_SCORE - maxPly) {
+            return score + ply;
+        }
+
+        return score < -WIN_SCORE + maxPly ? score - ply : score;
+    }
+
+    /**
+     * Converts a score read from the table back to count wins from the root, undoing toTable
+     * @param score score stored in the table
+     * @param ply plies from the root
+     * @return score of the position
+     */
+    private int fromTable(int score, int ply) {
+
+        if (score > WIN_SCORE - maxPly) {
+            return score - ply;
+        }
+
+        return score < -WIN_SCORE + maxPly ? score + ply : score;
+    }
+
+    /**
+     * Stops a search running on another thread as soon as possible, so it returns the best spot found so far, along
+     * with any search asked for before this call that has not started yet
+     */
+    public void stop() {
+        generation.incrementAndGet();
+        stopped = true;
+    }
+
+    /**
+     * Gets the generation of searches that stop has not stopped
+     * @return number of times stop has been called
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Sets how long the AI may spend on each move
+     * @param millis time budget in milliseconds
+     */
+    public void setTimeBudget(long millis) {
+        timeBudget = millis;
+    }
+
+    /**
+     * Gets how long the AI may spend on each move
+     * @return time budget in milliseconds
+     */
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * Sets the deepest the AI will search, in plies
+     * @param plies maximum search depth
+     */
+    public void setMaxDepth(int plies) {
+        maxDepth = plies;
+    }
+
+    /**
+     * Empties the transposition table and move history, so the next search does not depend on earlier ones
+     */
+    public void clear() {
+        Arrays.fill(tableKeys, 0);
+
+        for (int[] counts : history) {
+            Arrays.fill(counts, 0);
+        }
+    }
+
+    /**
+     * Gets the number of positions visited during the last search
+     * @return node count
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Gets the depth of the deepest search finished for the last move
+     * @return depth in plies
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Gets the score of the last move chosen, for the player who chose it
+     * @return score, more than 999000 for a forced win and less than -999000 for a forced loss
+     */
+    public int getLastScore() {
+        return bestScore;
+    }
+}
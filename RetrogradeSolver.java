@@ -0,0 +1,198 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+public class RetrogradeSolver {
+
+    /**
+     * Works out the value of every position of the 4x4 board with 4 in a row under perfect play and writes it to a
+     * SolvedTable file. Every move adds a piece, so a position's value only depends on positions with one more piece:
+     * the solver starts from the full boards and works back one piece count at a time, and the positions with the
+     * same number of pieces are solved in parallel, each thread writing its values straight into the memory-mapped
+     * file. The player to move holds half the pieces, rounded down, so each piece count is one set of positions.
+     * Usage: java tictactoe.RetrogradeSolver [path] [threads]
+     */
+
+    private static final int FULL = 0xFFFF;
+
+    // WINS[mask] is true if the mask holds a whole line of the 4x4 board
+    private static final boolean[] WINS = new boolean[FULL + 1];
+
+    static {
+
+        for (long line : SolvedTable.GEOMETRY.getLines()) {
+
+            for (int mask = 0; mask <= FULL; mask++) {
+
+                if ((mask & line) == line) {
+                    WINS[mask] = true;
+                }
+            }
+        }
+    }
+
+    private final SolvedTable table;
+    private final LongAdder[] counts = new LongAdder[4]; // Positions solved with each value
+
+    /**
+     * New RetrogradeSolver
+     * @param table the table to fill in, which starts with every value UNKNOWN
+     */
+    public RetrogradeSolver(SolvedTable table) {
+        this.table = table;
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Solves every position and writes the table file
+     * @param args the path to write to, and the number of threads, both optional
+     * @throws IOException if the file cannot be written
+     * @throws InterruptedException if interrupted while solving
+     * @throws ExecutionException if solving fails
+     */
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        Path path = args.length > 0 ? Paths.get(args[0]) : SolvedTable.getDefaultPath();
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    SolvedTable.HEADER_SIZE + SolvedTable.DATA_SIZE);
+            SolvedTable table = new SolvedTable(file.slice(SolvedTable.HEADER_SIZE, SolvedTable.DATA_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN));
+            RetrogradeSolver solver = new RetrogradeSolver(table);
+
+            long start = System.nanoTime();
+            solver.solve(threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            file.putInt(0, SolvedTable.MAGIC).putInt(4, SolvedTable.VERSION).putInt(8, SolvedTable.POSITIONS)
+                    .putInt(12, table.checksum());
+            file.force();
+
+            long solved = solver.getCount(SolvedTable.WIN) + solver.getCount(SolvedTable.DRAW)
+                    + solver.getCount(SolvedTable.LOSS);
+            System.out.printf("Solved %d positions in %.2f seconds on %d threads (%.0f per second)%n", solved, seconds,
+                    threads, solved / seconds);
+            System.out.printf("Won %d, drawn %d, lost %d for the player to move%n", solver.getCount(SolvedTable.WIN),
+                    solver.getCount(SolvedTable.DRAW), solver.getCount(SolvedTable.LOSS));
+            String[] names = {"unknown", "a loss", "a draw", "a win"};
+            System.out.println("The empty board is " + names[table.value(0, 0)] + " for the first player. Written to "
+                    + path.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Solves every position, from the full boards back to the empty one
+     * @param threads number of threads to solve each piece count on
+     * @throws InterruptedException if interrupted while solving
+     * @throws ExecutionException if solving fails
+     */
+    public void solve(int threads) throws InterruptedException, ExecutionException {
+        ArrayList<ArrayList<Integer>> lists = new ArrayList<ArrayList<Integer>>();
+
+        for (int pieces = 0; pieces <= 16; pieces++) {
+            lists.add(new ArrayList<Integer>());
+        }
+
+        for (int occupied = 0; occupied <= FULL; occupied++) {
+            lists.get(Integer.bitCount(occupied)).add(occupied);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+
+            for (int pieces = 16; pieces >= 0; pieces--) {
+                int[] layer = lists.get(pieces).stream().mapToInt(Integer::intValue).toArray();
+                int ownCount = pieces / 2;
+                pool.submit(() -> Arrays.stream(layer).parallel().forEach((occupied) -> solveLayout(occupied, ownCount)))
+                        .get();
+            }
+        }
+
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Solves every position with the given spots occupied, for each way of sharing them out between the players
+     * @param occupied spots that are taken
+     * @param ownCount number of them held by the player to move
+     */
+    private void solveLayout(int occupied, int ownCount) {
+
+        // Walk every subset of the occupied spots, keeping those of the right size
+        for (int own = occupied; ; own = (own - 1) & occupied) {
+
+            if (Integer.bitCount(own) == ownCount) {
+                int value = solvePosition(own, occupied ^ own);
+                table.setValue(own, occupied ^ own, value);
+                counts[value].increment();
+            }
+
+            if (own == 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Works out the value of a position from the positions one move on, which must already be solved
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return WIN, DRAW or LOSS for the player to move
+     */
+    private int solvePosition(int own, int other) {
+
+        if (WINS[other]) { // The opponent has just won
+            return SolvedTable.LOSS;
+        }
+
+        int empty = ~(own | other) & FULL;
+
+        if (empty == 0) {
+            return SolvedTable.DRAW;
+        }
+
+        int best = SolvedTable.LOSS;
+
+        for (int spots = empty; spots != 0 && best != SolvedTable.WIN; spots &= spots - 1) {
+            int played = own | (spots & -spots);
+            int value = WINS[played] ? SolvedTable.WIN
+                    : SolvedTable.WIN + SolvedTable.LOSS - table.value(other, played);
+            best = Math.max(best, value);
+        }
+
+        return best;
+    }
+
+    /**
+     * Gets the number of positions solved with a value
+     * @param value WIN, DRAW or LOSS
+     * @return position count
+     */
+    public long getCount(int value) {
+        return counts[value].sum();
+    }
+}
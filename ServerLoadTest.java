@@ -0,0 +1,266 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ServerLoadTest {
+
+    /**
+     * Starts a GameServer in this JVM and plays many games on it at once, each on its own virtual thread, as a user
+     * picking random empty spots. Every user move is timed from sending it until the AI's reply comes back, and
+     * the median and 99th percentile of those times are reported, along with how often the server
+     * pushed back with a 503. Moves ask the server to wait for the AI's reply, and a long poll is only needed if that
+     * wait runs out. An untimed round of games is played first, so the JIT has compiled the hot code before anything is
+     * measured. Requires Java 21. Usage:
+     * java tictactoe.ServerLoadTest [games] [columns rows winLength] [AI time budget ms] [open connections]
+     * [warm-up games]
+     */
+
+    /**
+     * Runs the load test and prints the results
+     * @param args number of games, board, AI time budget, most requests in flight at once and number of warm-up games,
+     *             all optional
+     * @throws Exception if a game fails
+     */
+    public static void main(String[] args) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int columns = args.length > 3 ? Integer.parseInt(args[1]) : 3;
+        int rows = args.length > 3 ? Integer.parseInt(args[2]) : 3;
+        int winLength = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        long budget = args.length > 4 ? Long.parseLong(args[4]) : 50;
+        int connections = args.length > 5 ? Integer.parseInt(args[5]) : 2000;
+        int warmUp = args.length > 6 ? Integer.parseInt(args[6]) : 2000;
+
+        GameServer server = new GameServer(0, Math.max(games, warmUp), Runtime.getRuntime().availableProcessors(),
+                Math.max(games, warmUp), budget, 600000);
+        server.start();
+        String base = "http://localhost:" + server.getPort() + "/games";
+        String create = base + "?columns=" + columns + "&rows=" + rows + "&winLength=" + winLength;
+        // Keeps the open sockets under the file descriptor limit, fair so that no game is starved
+        Semaphore inFlight = new Semaphore(connections, true);
+        AtomicLong rejected = new AtomicLong();
+
+        try (HttpClient client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(30)).build()) {
+
+            // The JIT compiles the server and client during the first few thousand requests, which on a machine with
+            // few cores takes most of the CPU and would be measured as the server's own cost
+            if (warmUp > 0) {
+                System.out.println("Warming up with " + warmUp + " games");
+                playGames(client, inFlight, create, base, warmUp, rejected);
+                rejected.set(0);
+            }
+
+            System.out.println("Playing " + games + " games at once on " + columns + "x" + rows + ", " + winLength
+                    + " in a row, AI budget " + budget + " ms, " + Runtime.getRuntime().availableProcessors()
+                    + " cores");
+            long start = System.nanoTime();
+            long[] latencies = playGames(client, inFlight, create, base, games, rejected);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            int count = latencies.length;
+            Arrays.sort(latencies);
+            System.out.printf("%d moves in %.2f seconds, %.0f moves per second, %d requests pushed back%n", count,
+                    seconds, count / seconds, rejected.get());
+            System.out.printf("Move latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    latencies[count / 2] / 1e6, latencies[(int) (count * 0.99)] / 1e6, latencies[count - 1] / 1e6);
+        }
+
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Plays many games at once, each on its own virtual thread, and waits for them all to finish
+     * @param client HTTP client shared by every game
+     * @param inFlight permits for sending a request
+     * @param create URL to start a game
+     * @param base URL of the games
+     * @param games number of games
+     * @param rejected count of 503 responses
+     * @return nanoseconds from sending each move until the AI's reply was seen, over every game
+     * @throws Exception if a game fails
+     */
+    private static long[] playGames(HttpClient client, Semaphore inFlight, String create, String base, int games,
+                                    AtomicLong rejected) throws Exception {
+        ArrayList<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+
+        try (ExecutorService players = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            for (int game = 0; game < games; game++) {
+                long seed = game;
+                futures.add(players.submit(() -> play(client, inFlight, create, base, seed, rejected)));
+            }
+
+            long[] latencies = new long[0];
+            int count = 0;
+
+            for (Future<long[]> future : futures) {
+                long[] times = future.get();
+
+                if (count + times.length > latencies.length) {
+                    latencies = Arrays.copyOf(latencies, Math.max(latencies.length * 2, count + times.length));
+                }
+
+                System.arraycopy(times, 0, latencies, count, times.length);
+                count += times.length;
+            }
+
+            return Arrays.copyOf(latencies, count);
+        }
+    }
+
+    /**
+     * Plays one game as the user, moving first so that every move has an AI reply to time
+     * @param client HTTP client shared by every game
+     * @param inFlight permits for sending a request
+     * @param create URL to start the game
+     * @param base URL of the games
+     * @param seed seed for the user's random moves
+     * @param rejected count of 503 responses
+     * @return nanoseconds from sending each move until the AI's reply was seen
+     * @throws Exception if a request fails
+     */
+    private static long[] play(HttpClient client, Semaphore inFlight, String create, String base, long seed,
+                               AtomicLong rejected) throws Exception {
+        SplittableRandom random = new SplittableRandom(seed);
+        String game = send(client, inFlight, "POST", create + "&first=user", rejected);
+        String url = base + "/" + field(game, "id");
+        long[] latencies = new long[64];
+        int count = 0;
+
+        while (field(game, "result").equals("in progress")) {
+            long empty = emptySpots(game);
+            int spot = BatchRunner.randomMove(empty, random);
+            int[] board = dimensions(game);
+            long sent = System.nanoTime();
+            game = send(client, inFlight, "POST", url + "/moves?column=" + spot / board[1] + "&row="
+                    + spot % board[1] + "&wait=60000", rejected);
+
+            // Keep waiting for the AI's reply
+            while (field(game, "turn").equals("ai") && field(game, "result").equals("in progress")) {
+                game = send(client, inFlight, "GET", url + "?since=" + field(game, "version") + "&wait=60000",
+                        rejected);
+            }
+
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+
+            latencies[count++] = System.nanoTime() - sent;
+        }
+
+        send(client, inFlight, "DELETE", url, rejected);
+        return Arrays.copyOf(latencies, count);
+    }
+
+    /**
+     * Sends a request, waiting and trying again for as long as the server answers 503
+     * @param client HTTP client
+     * @param inFlight permits for sending a request
+     * @param method HTTP method
+     * @param url URL to send to
+     * @param rejected count of 503 responses
+     * @return the body of the response
+     * @throws IOException if the request fails or the server answers with an error
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static String send(HttpClient client, Semaphore inFlight, String method, String url, AtomicLong rejected)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .method(method, HttpRequest.BodyPublishers.noBody()).build();
+
+        while (true) {
+            HttpResponse<String> response;
+            inFlight.acquire();
+
+            try {
+                response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            }
+
+            finally {
+                inFlight.release();
+            }
+
+            if (response.statusCode() == 503) { // The server is busy, back off and try again
+                rejected.incrementAndGet();
+                Thread.sleep(100);
+                continue;
+            }
+
+            if (response.statusCode() >= 300) {
+                throw new IOException(method + " " + url + " answered " + response.statusCode() + " "
+                        + response.body());
+            }
+
+            return response.body();
+        }
+    }
+
+    /**
+     * Reads a top level string or number field from a game sent by the server
+     * @param json the game
+     * @param name name of the field
+     * @return value of the field, without quotes
+     */
+    private static String field(String json, String name) {
+        int start = json.indexOf("\"" + name + "\":") + name.length() + 3;
+
+        if (json.charAt(start) == '"') {
+            return json.substring(start + 1, json.indexOf('"', start + 1));
+        }
+
+        int end = start;
+
+        while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}') {
+            end++;
+        }
+
+        return json.substring(start, end);
+    }
+
+    /**
+     * Reads the number of columns and rows of a game sent by the server
+     * @param json the game
+     * @return columns and rows
+     */
+    private static int[] dimensions(String json) {
+        return new int[] {Integer.parseInt(field(json, "columns")), Integer.parseInt(field(json, "rows"))};
+    }
+
+    /**
+     * Finds the empty spots of a game sent by the server
+     * @param json the game
+     * @return mask of the empty spots, indexed like BoardGeometry
+     */
+    private static long emptySpots(String json) {
+        int[] board = dimensions(json);
+        int start = json.indexOf("\"board\":[") + 9;
+        long empty = 0;
+
+        for (int row = 0; row < board[1]; row++) {
+            int rowStart = start + row * (board[0] + 3) + 1; // Each row is quoted and followed by a comma
+
+            for (int column = 0; column < board[0]; column++) {
+
+                if (json.charAt(rowStart + column) == '.') {
+                    empty |= 1L << (column * board[1] + row);
+                }
+            }
+        }
+
+        return empty;
+    }
+}
@@ -0,0 +1,223 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+public class SolvedTable {
+
+    /**
+     * The result of perfect play from every position of the 4x4 board with 4 in a row, as worked out by
+     * RetrogradeSolver. Positions are indexed in base 3 as in PolicyTable, where spot i adds 3^i if the player to move
+     * holds it and 2 * 3^i if the opponent does, and each position's value takes 2 bits: LOSS, DRAW or WIN for the
+     * player to move, or UNKNOWN for a position that cannot come up. That is 3^16 positions in about 10 MB, held in a
+     * memory-mapped file outside the Java heap. The file starts with a header of four ints (magic number, version,
+     * number of positions and a CRC32 of the values) and the values follow, 16 to a little-endian int, so they can be
+     * set with compare-and-set while the solver fills them in on many threads
+     */
+
+    public static final BoardGeometry GEOMETRY = new BoardGeometry(4, 4, 4);
+    public static final int MAGIC = 0x54545334; // "TTS4"
+    public static final int VERSION = 1;
+    public static final int POSITIONS = 43046721; // 3^16
+    public static final int HEADER_SIZE = 16;
+    public static final int DATA_SIZE = (POSITIONS + 15) / 16 * 4; // Whole ints of 16 values
+
+    // Values, for the player to move
+    public static final int UNKNOWN = 0;
+    public static final int LOSS = 1;
+    public static final int DRAW = 2;
+    public static final int WIN = 3;
+
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // For every mask of a single player, the base 3 index of that mask with each occupied spot counted as a 1
+    private static final int[] BASE3 = new int[1 << 16];
+
+    private static SolvedTable defaultTable;
+    private static boolean defaultLoaded;
+
+    static {
+
+        for (int mask = 1; mask < BASE3.length; mask++) {
+            int lowest = Integer.numberOfTrailingZeros(mask);
+            BASE3[mask] = BASE3[mask & (mask - 1)] + (int) Math.pow(3, lowest);
+        }
+    }
+
+    private final ByteBuffer values; // Starts at the first value, after the header
+
+    /**
+     * New SolvedTable over the given values
+     * @param values DATA_SIZE bytes of packed values, in a direct or mapped buffer
+     */
+    SolvedTable(ByteBuffer values) {
+        this.values = values;
+    }
+
+    /**
+     * Gets the table in .tictactoe/solved-4x4.bin in the user's home, or wherever the tictactoe.solved property
+     * points, mapping it the first time this is called
+     * @return the table, or null if the file is missing or corrupt
+     */
+    public static synchronized SolvedTable getDefault() {
+
+        if (!defaultLoaded) {
+            defaultLoaded = true;
+            Path path = getDefaultPath();
+
+            if (Files.exists(path)) {
+
+                try {
+                    defaultTable = load(path);
+                }
+
+                catch (IOException e) {
+                    System.err.println("Could not load " + path + ": " + e.getMessage());
+                }
+            }
+        }
+
+        return defaultTable;
+    }
+
+    /**
+     * Gets where the default table is kept
+     * @return path of the table file
+     */
+    public static Path getDefaultPath() {
+        String property = System.getProperty("tictactoe.solved");
+
+        if (property != null) {
+            return Paths.get(property);
+        }
+
+        return Paths.get(System.getProperty("user.home"), ".tictactoe", "solved-4x4.bin");
+    }
+
+    /**
+     * Maps a table file and checks its header and checksum
+     * @param path the file
+     * @return the table
+     * @throws IOException if the file cannot be read or is not a valid table
+     */
+    public static SolvedTable load(Path path) throws IOException {
+        ByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            if (channel.size() != HEADER_SIZE + DATA_SIZE) {
+                throw new IOException(path + " is not a solved table");
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != POSITIONS) {
+            throw new IOException(path + " is not a solved table");
+        }
+
+        ByteBuffer values = buffer.slice(HEADER_SIZE, DATA_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        crc.update(values.duplicate());
+
+        if ((int) crc.getValue() != buffer.getInt(12)) {
+            throw new IOException(path + " is corrupt");
+        }
+
+        return new SolvedTable(values);
+    }
+
+    /**
+     * Gets the base 3 index of a position
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return index of the position
+     */
+    public static int indexOf(int own, int other) {
+        return BASE3[own] + 2 * BASE3[other];
+    }
+
+    /**
+     * Gets the value of a position
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return WIN, DRAW or LOSS for the player to move, or UNKNOWN if the position cannot come up
+     */
+    public int value(int own, int other) {
+        int index = indexOf(own, other);
+        int packed = (int) INTS.get(values, index >>> 4 << 2);
+        return (packed >>> ((index & 15) << 1)) & 3;
+    }
+
+    /**
+     * Sets the value of a position. Safe to call for different positions on different threads at once
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @param value WIN, DRAW or LOSS for the player to move
+     */
+    void setValue(int own, int other, int value) {
+        int index = indexOf(own, other);
+        int offset = index >>> 4 << 2;
+        int shift = (index & 15) << 1;
+        int packed;
+
+        do {
+            packed = (int) INTS.getVolatile(values, offset);
+        } while (!INTS.compareAndSet(values, offset, packed, (packed & ~(3 << shift)) | value << shift));
+    }
+
+    /**
+     * Chooses the best spot to play: one that wins straight away if there is one, then one that keeps the best value
+     * @param own spots occupied by the player to move
+     * @param other spots occupied by the opponent
+     * @return index of the spot to play, or -1 if the position is over or cannot come up
+     */
+    public int bestMove(int own, int other) {
+        int empty = ~(own | other) & 0xFFFF;
+
+        if (value(own, other) == UNKNOWN || empty == 0) {
+            return -1;
+        }
+
+        int best = -1;
+        int bestValue = UNKNOWN;
+
+        for (int spots = empty; spots != 0; spots &= spots - 1) {
+            int spot = Integer.numberOfTrailingZeros(spots);
+            int played = own | (1 << spot);
+
+            if (GEOMETRY.isWin(played, spot)) {
+                return spot;
+            }
+
+            int reply = value(other, played);
+            int value = WIN + LOSS - reply; // The opponent's loss is our win
+
+            if (reply != UNKNOWN && value > bestValue) {
+                best = spot;
+                bestValue = value;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Works out the CRC32 of the values, as stored in the header
+     * @return checksum
+     */
+    int checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(values.duplicate().clear());
+        return (int) crc.getValue();
+    }
+}
@@ -15,6 +15,7 @@ public class Square extends Canvas {
     private GraphicsContext gc;
     private int column;
     private int row;
+    private int layer;
 
     /**
      * New Square
@@ -24,15 +25,36 @@ public class Square extends Canvas {
      * @param row the row of the grid the square belongs on
      */
     public Square(int width, int height, int column, int row) {
+        this(width, height, column, row, 0);
+    }
+
+    /**
+     * New Square on a board with layers
+     * @param width width of this square
+     * @param height height of this square
+     * @param column the column of the grid the square belongs on
+     * @param row the row of the grid the square belongs on
+     * @param layer the layer of the board the square belongs on
+     */
+    public Square(int width, int height, int column, int row, int layer) {
         super(width, height);
         this.column = column;
         this.row = row;
+        this.layer = layer;
         gc = getGraphicsContext2D();
+        gc.setLineWidth(Math.max(2, width / 10)); // Thinner lines for smaller squares
+        clear();
+    }
+
+    /**
+     * Clears this square back to an empty white square
+     */
+    public void clear() {
+        gc.clearRect(0, 0, getWidth(), getHeight());
 
         // Draw a square on the border of the canvas
         gc.setStroke(Color.WHITE);
-        gc.setLineWidth(10);
-        gc.strokeRect(0, 0, width, height);
+        gc.strokeRect(0, 0, getWidth(), getHeight());
     }
 
     /**
@@ -101,4 +123,12 @@ public class Square extends Canvas {
     public int getRow() {
         return row;
     }
+
+    /**
+     * Get the layer of this square
+     * @return layer index, 0 on a flat board
+     */
+    public int getLayer() {
+        return layer;
+    }
 }
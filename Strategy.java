@@ -0,0 +1,48 @@
+package tictactoe;
+
+public interface Strategy {
+
+    /**
+     * A way of choosing moves for a computer player. Game asks its strategy for a move on a background thread and may
+     * stop it from the JavaFX application thread, so stop must be safe to call while chooseMove is running. Each stop
+     * moves the strategy on to a new generation and stops every search of an earlier one, so a caller that reads the
+     * generation when it asks for a move and passes it to chooseMove can stop that search even before it has started.
+     * A strategy may keep state between moves, so each one should only be used by one game at a time
+     */
+
+    /**
+     * Chooses a spot for the player to move, in the current generation
+     * @param state the game, which must not be over. It is not changed
+     * @return index of the spot to play
+     */
+    default int chooseMove(GameState state) {
+        return chooseMove(state, getGeneration());
+    }
+
+    /**
+     * Chooses a spot for the player to move, returning as soon as possible if the strategy has moved on from the given
+     * generation, whether before the search started or while it runs
+     * @param state the game, which must not be over. It is not changed
+     * @param generation the generation when the move was asked for, from getGeneration
+     * @return index of the spot to play
+     */
+    int chooseMove(GameState state, long generation);
+
+    /**
+     * Gets the generation of searches that stop has not stopped
+     * @return number of times stop has been called
+     */
+    long getGeneration();
+
+    /**
+     * Stops a move being chosen on another thread as soon as possible, so it returns the best spot found so far, along
+     * with any search asked for before this call that has not started yet
+     */
+    void stop();
+
+    /**
+     * Gets the board this strategy plays on
+     * @return board geometry
+     */
+    BoardGeometry getGeometry();
+}
@@ -0,0 +1,442 @@
+package tictactoe;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Tournament {
+
+    /**
+     * Plays a round robin between computer players without a display, spread across every core, and reports a
+     * win/draw/loss matrix, how long each player took per move and how many games were played per second. Each pair
+     * plays an equal share of the games, with the starting player alternating from game to game. The games are split
+     * into chunks of a fixed size, and each chunk gets fresh players seeded from the tournament seed and the chunk's
+     * number, so the same seed gives the same results on any number of threads as long as no player is limited by time.
+     * Players are given as a comma separated list of:
+     *
+     * ai        the AI as it plays in the game, looking moves up in the policy table on the classic board
+     * search    the AI searching every move, without the policy table
+     * ai:N      the AI searching N plies deep at most, without the policy table
+     * mcts:N    MonteCarloAI running N playouts per move on one thread
+     * random    a random empty spot
+     *
+     * Usage: java tictactoe.Tournament [games] [players] [columns rows winLength] [threads] [seed] [time budget ms]
+     */
+
+    public static final String DEFAULT_PLAYERS = "ai,ai:2,ai:1,random";
+    public static final int CHUNK_SIZE = 10000; // Games played by the same players
+    public static final int WIN = 0;
+    public static final int DRAW = 1;
+    public static final int LOSS = 2;
+
+    private static final int BUCKETS = 64; // Move latency buckets, bucket b holding moves of under 2^b nanoseconds
+
+    private final BoardGeometry geometry;
+    private final String[] players;
+    private final long budget;
+    private final long[][][] results; // Wins, draws and losses of the row player against the column player
+    private final long[] moves; // Moves chosen by each player
+    private final long[] totalNanos; // Time each player spent choosing them
+    private final long[] maxNanos;
+    private final long[][] latencies; // Histogram of each player's move times
+    private long elapsed; // Nanoseconds the last tournament took
+
+    /**
+     * New Tournament
+     * @param geometry the board to play on
+     * @param players the players taking part, as described above
+     * @param budget time budget of each ai and search move in milliseconds
+     */
+    public Tournament(BoardGeometry geometry, String[] players, long budget) {
+
+        if (players.length < 2) {
+            throw new IllegalArgumentException("A tournament needs at least two players");
+        }
+
+        for (String player : players) {
+            createPlayer(player, geometry, budget, 0); // Fail now rather than on a worker thread
+        }
+
+        this.geometry = geometry;
+        this.players = players.clone();
+        this.budget = budget;
+        results = new long[players.length][players.length][3];
+        moves = new long[players.length];
+        totalNanos = new long[players.length];
+        maxNanos = new long[players.length];
+        latencies = new long[players.length][BUCKETS];
+    }
+
+    /**
+     * Plays the tournament and prints the results
+     * @param args number of games, players, board, number of threads, seed and AI time budget, all optional
+     * @throws InterruptedException if interrupted while waiting for the games
+     * @throws ExecutionException if a game fails
+     */
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        String[] players = (args.length > 1 ? args[1] : DEFAULT_PLAYERS).split(",");
+        BoardGeometry geometry = args.length > 4 ? new BoardGeometry(Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4])) : BoardGeometry.CLASSIC;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : 1;
+        long budget = args.length > 7 ? Long.parseLong(args[7]) : AI.DEFAULT_TIME_BUDGET;
+
+        System.out.println("Playing " + games + " games on " + geometry + " between " + String.join(", ", players)
+                + ", on " + threads + " threads with seed " + seed);
+
+        Tournament tournament = new Tournament(geometry, players, budget);
+        tournament.run(games, threads, seed);
+        tournament.print();
+    }
+
+    /**
+     * Plays the tournament, adding to the results of any played before
+     * @param games number of games to play, shared between every pair of players
+     * @param threads number of threads to play on
+     * @param seed seed of every player that makes random choices
+     * @throws InterruptedException if interrupted while waiting for the games
+     * @throws ExecutionException if a game fails
+     */
+    public void run(long games, int threads, long seed) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+        int pairs = players.length * (players.length - 1) / 2;
+        long start = System.nanoTime();
+        int pair = 0;
+
+        for (int a = 0; a < players.length; a++) {
+
+            for (int b = a + 1; b < players.length; b++) {
+                long pairGames = games * (pair + 1) / pairs - games * pair / pairs;
+
+                for (long first = 0; first < pairGames; first += CHUNK_SIZE) {
+                    Chunk chunk = new Chunk(a, b, first, Math.min(pairGames, first + CHUNK_SIZE),
+                            seed * 0x9E3779B97F4A7C15L + pair * 0x100000000L + first / CHUNK_SIZE);
+                    futures.add(executor.submit(() -> chunk.play(geometry, players, budget)));
+                }
+
+                pair++;
+            }
+        }
+
+        try {
+
+            for (Future<Chunk> future : futures) {
+                add(future.get());
+            }
+        }
+
+        finally {
+            executor.shutdownNow();
+        }
+
+        elapsed = System.nanoTime() - start;
+    }
+
+    /**
+     * Prints the results of the tournament
+     */
+    public void print() {
+        int width = 9;
+
+        for (String player : players) {
+            width = Math.max(width, player.length() + 2);
+        }
+
+        for (long[][] row : results) {
+
+            for (long[] cell : row) {
+                width = Math.max(width, (cell[WIN] + "-" + cell[DRAW] + "-" + cell[LOSS]).length() + 2);
+            }
+        }
+
+        // Each cell is the row player's wins, draws and losses against the column player
+        StringBuilder line = new StringBuilder(String.format("%-" + width + "s", "W-D-L"));
+
+        for (String player : players) {
+            line.append(String.format("%" + width + "s", player));
+        }
+
+        System.out.println(line);
+
+        for (int a = 0; a < players.length; a++) {
+            line.setLength(0);
+            line.append(String.format("%-" + width + "s", players[a]));
+
+            for (int b = 0; b < players.length; b++) {
+                long[] cell = results[a][b];
+                line.append(String.format("%" + width + "s", a == b ? "-" : cell[WIN] + "-" + cell[DRAW] + "-"
+                        + cell[LOSS]));
+            }
+
+            System.out.println(line);
+        }
+
+        System.out.println();
+        System.out.printf("%-" + width + "s%10s%10s%10s%10s%8s%12s%12s%12s%12s%n", "Player", "Games", "Won", "Drawn",
+                "Lost", "Score", "Moves", "Mean us", "p99 us", "Max us");
+        long games = 0;
+        long totalMoves = 0;
+
+        for (int a = 0; a < players.length; a++) {
+            long[] total = new long[3];
+
+            for (int b = 0; b < players.length; b++) {
+
+                for (int i = 0; i < 3; i++) {
+                    total[i] += results[a][b][i];
+                }
+            }
+
+            long played = total[WIN] + total[DRAW] + total[LOSS];
+            games += played;
+            totalMoves += moves[a];
+            System.out.printf("%-" + width + "s%10d%10d%10d%10d%7.1f%%%12d%12.2f%12.2f%12.2f%n", players[a], played,
+                    total[WIN], total[DRAW], total[LOSS], played == 0 ? 0 : (total[WIN] + total[DRAW] / 2.0) * 100
+                    / played, moves[a], moves[a] == 0 ? 0 : totalNanos[a] / 1e3 / moves[a],
+                    percentile(latencies[a], 0.99) / 1e3, maxNanos[a] / 1e3);
+        }
+
+        games /= 2; // Every game was counted for both its players
+        double seconds = elapsed / 1e9;
+        System.out.println();
+        System.out.printf("%.2f seconds, %.0f games per second, %.0f moves per second%n", seconds, games / seconds,
+                totalMoves / seconds);
+    }
+
+    /**
+     * Gets the results of one player against another
+     * @param player index of the player in the list given to the constructor
+     * @param opponent index of the opponent
+     * @return wins, draws and losses of the player, indexed by WIN, DRAW and LOSS
+     */
+    public long[] getResults(int player, int opponent) {
+        return results[player][opponent].clone();
+    }
+
+    /**
+     * Gets how many moves a player chose
+     * @param player index of the player
+     * @return move count
+     */
+    public long getMoveCount(int player) {
+        return moves[player];
+    }
+
+    /**
+     * Gets how long a player took to choose a move on average
+     * @param player index of the player
+     * @return mean nanoseconds per move
+     */
+    public double getMeanMoveNanos(int player) {
+        return moves[player] == 0 ? 0 : (double) totalNanos[player] / moves[player];
+    }
+
+    /**
+     * Gets how long the last tournament took to play
+     * @return elapsed nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsed;
+    }
+
+    /**
+     * Creates a player from its description
+     * @param spec the player, as described above
+     * @param geometry the board to play on
+     * @param budget time budget of each ai and search move in milliseconds
+     * @param seed seed of a player that makes random choices
+     * @return the player
+     */
+    static Strategy createPlayer(String spec, BoardGeometry geometry, long budget, long seed) {
+        int colon = spec.indexOf(':');
+        String name = colon == -1 ? spec : spec.substring(0, colon);
+        long arg = colon == -1 ? 0 : Long.parseLong(spec.substring(colon + 1));
+
+        if (name.equals("ai") && colon == -1) {
+            AI ai = new AI(geometry);
+            ai.setTimeBudget(budget);
+            return ai;
+        }
+
+        if (name.equals("ai") || name.equals("search")) {
+            AI ai = new AI(geometry, new TranspositionTable(1 << 16), null);
+            ai.setTimeBudget(budget);
+
+            if (colon != -1) {
+                ai.setMaxDepth((int) arg);
+            }
+
+            return ai;
+        }
+
+        if (name.equals("mcts")) {
+            MonteCarloAI mcts = new MonteCarloAI(geometry);
+            mcts.setIterations(colon == -1 ? 1000 : arg);
+            mcts.setTimeBudget(3600000); // Bounded by playouts, so the moves do not depend on the machine
+            mcts.setSeed(seed);
+            return mcts;
+        }
+
+        if (name.equals("random")) {
+            return new RandomPlayer(geometry, seed);
+        }
+
+        throw new IllegalArgumentException("Unknown player " + spec);
+    }
+
+    /**
+     * Adds the results of a chunk of games to the totals
+     * @param chunk a chunk that has been played
+     */
+    private void add(Chunk chunk) {
+        int[] sides = {chunk.a, chunk.b};
+
+        for (int i = 0; i < 3; i++) {
+            results[chunk.a][chunk.b][i] += chunk.results[i];
+            results[chunk.b][chunk.a][2 - i] += chunk.results[i]; // A win for one is a loss for the other
+        }
+
+        for (int side = 0; side < 2; side++) {
+            int player = sides[side];
+            moves[player] += chunk.moves[side];
+            totalNanos[player] += chunk.totalNanos[side];
+            maxNanos[player] = Math.max(maxNanos[player], chunk.maxNanos[side]);
+
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                latencies[player][bucket] += chunk.latencies[side][bucket];
+            }
+        }
+    }
+
+    /**
+     * Finds the move time a fraction of the moves took at most
+     * @param histogram move counts by latency bucket
+     * @param fraction between 0 and 1
+     * @return upper bound of the bucket in nanoseconds, or 0 if there were no moves
+     */
+    private static double percentile(long[] histogram, double fraction) {
+        long total = 0;
+
+        for (long count : histogram) {
+            total += count;
+        }
+
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKETS && total > 0; bucket++) {
+            seen += histogram[bucket];
+
+            if (seen >= Math.ceil(total * fraction)) {
+                return Math.pow(2, bucket);
+            }
+        }
+
+        return 0;
+    }
+
+    private static class Chunk {
+
+        /**
+         * A run of games between two players, played on one thread by players of its own, since an AI keeps state
+         * between searches. Player a is player 1 and starts the even numbered games
+         */
+
+        private final int a; // Index of player 1
+        private final int b; // Index of player 2
+        private final long first; // Number of the first game in the pair's share
+        private final long last; // Number of the game after the last one
+        private final long seed;
+        private final long[] results = new long[3]; // Wins, draws and losses of player a
+        private final long[] moves = new long[2]; // Indexed by player number - 1 from here on
+        private final long[] totalNanos = new long[2];
+        private final long[] maxNanos = new long[2];
+        private final long[][] latencies = new long[2][BUCKETS];
+
+        private Chunk(int a, int b, long first, long last, long seed) {
+            this.a = a;
+            this.b = b;
+            this.first = first;
+            this.last = last;
+            this.seed = seed;
+        }
+
+        /**
+         * Plays the games of the chunk
+         * @param geometry the board to play on
+         * @param players every player in the tournament
+         * @param budget time budget of each ai and search move in milliseconds
+         * @return this chunk, with its results filled in
+         */
+        private Chunk play(BoardGeometry geometry, String[] players, long budget) {
+            SplittableRandom random = new SplittableRandom(seed);
+            Strategy[] strategies = {null, createPlayer(players[a], geometry, budget, random.nextLong()),
+                    createPlayer(players[b], geometry, budget, random.nextLong())};
+
+            for (long game = first; game < last; game++) {
+                GameState state = new GameState(geometry, (int) (game % 2) + 1); // Alternate the starting player
+
+                while (!state.isOver()) {
+                    int player = state.getCurrentPlayer();
+                    long start = System.nanoTime();
+                    int move = strategies[player].chooseMove(state);
+                    long nanos = System.nanoTime() - start;
+                    state.play(move);
+
+                    moves[player - 1]++;
+                    totalNanos[player - 1] += nanos;
+                    maxNanos[player - 1] = Math.max(maxNanos[player - 1], nanos);
+                    latencies[player - 1][Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))]++;
+                }
+
+                if (state.getResult() == GameState.DRAW) {
+                    results[DRAW]++;
+                }
+
+                else {
+                    results[state.getWinner() == 1 ? WIN : LOSS]++;
+                }
+            }
+
+            return this;
+        }
+    }
+
+    private static class RandomPlayer implements Strategy {
+
+        /**
+         * A player that picks a random empty spot
+         */
+
+        private final BoardGeometry geometry;
+        private final SplittableRandom random;
+
+        private RandomPlayer(BoardGeometry geometry, long seed) {
+            this.geometry = geometry;
+            random = new SplittableRandom(seed);
+        }
+
+        @Override
+        public int chooseMove(GameState state, long generation) {
+            return BatchRunner.randomMove(state.legalMoves(), random);
+        }
+
+        @Override
+        public long getGeneration() {
+            return 0;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public BoardGeometry getGeometry() {
+            return geometry;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package tictactoe;
+
+public class TranspositionTable {
+
+    /**
+     * A bounded table of positions the AI has already searched. Positions are keyed on the two sets of spots of the
+     * canonical form of the board (see AI), so a position and all of its mirror images share one entry. Each entry
+     * holds the score, whether the score is exact or a bound, how many plies deep it was searched and the best spot
+     * found, packed into a single long. Entries live in buckets of two: one slot keeps whichever entry was searched
+     * deepest, the other is always replaced. A table can be shared by several AI players on the same board geometry,
+     * and by threads searching at the same time: each slot's keys are stored xor'd with its entry, so a slot torn by
+     * two threads writing at once no longer matches either key and reads as a miss. The counters are not synchronised,
+     * so they may miss a few updates while several threads use the table
+     */
+
+    public static final int EXACT = 0; // The stored score is the exact score of the position
+    public static final int LOWER_BOUND = 1; // The real score is at least the stored score
+    public static final int UPPER_BOUND = 2; // The real score is at most the stored score
+    public static final long MISS = -1; // Returned by probe when the position is not in the table
+    public static final int NO_MOVE = 255; // Stored when no best spot is known
+
+    private static final long OCCUPIED = 1L << 31; // Set in every stored entry, so an empty slot is 0
+
+    private final long[] ownKeys; // Spots of the player to move for each slot, xor'd with the entry
+    private final long[] otherKeys; // Spots of the opponent for each slot, xor'd with the entry
+    private final long[] entries; // Packed data for each slot, 0 means the slot is empty
+    private final int bucketMask;
+    private long hits;
+    private long misses;
+    private long stores;
+
+    /**
+     * New TranspositionTable
+     * @param capacity maximum number of entries, rounded up to a power of two
+     */
+    public TranspositionTable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ownKeys = new long[size];
+        otherKeys = new long[size];
+        entries = new long[size];
+        bucketMask = size / 2 - 1;
+    }
+
+    /**
+     * Looks up a position in the table
+     * @param own canonical spots of the player to move
+     * @param other canonical spots of the opponent
+     * @return the packed entry, or MISS if the position is not in the table
+     */
+    public long probe(long own, long other) {
+        int slot = bucketOf(own, other) * 2;
+
+        for (int i = slot; i < slot + 2; i++) {
+            long entry = entries[i];
+
+            if (entry != 0 && (ownKeys[i] ^ entry) == own && (otherKeys[i] ^ entry) == other) {
+                hits++;
+                return entry;
+            }
+        }
+
+        misses++;
+        return MISS;
+    }
+
+    /**
+     * Stores a position in the table. The first slot of the bucket is only replaced by positions searched at least as
+     * deep, since those took longer to search, otherwise the second slot is replaced
+     * @param own canonical spots of the player to move
+     * @param other canonical spots of the opponent
+     * @param score score of the position for the player to move
+     * @param flag EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param depth number of plies the position was searched to
+     * @param move best spot found in the canonical position, or NO_MOVE
+     */
+    public void store(long own, long other, int score, int flag, int depth, int move) {
+        int slot = bucketOf(own, other) * 2;
+        long entry = (long) score << 32 | OCCUPIED | (long) (move & 0xFF) << 16 | (depth & 0xFF) << 8 | flag;
+        stores++;
+
+        long first = entries[slot];
+        boolean sameKey = (ownKeys[slot] ^ first) == own && (otherKeys[slot] ^ first) == other;
+
+        if (first != 0 && !sameKey && depthOf(first) > depth) { // Keep the deeper entry
+            slot++;
+        }
+
+        ownKeys[slot] = own ^ entry;
+        otherKeys[slot] = other ^ entry;
+        entries[slot] = entry;
+    }
+
+    /**
+     * Gets the score held in an entry
+     * @param entry packed entry returned by probe
+     * @return stored score
+     */
+    public static int scoreOf(long entry) {
+        return (int) (entry >> 32);
+    }
+
+    /**
+     * Gets the kind of score held in an entry
+     * @param entry packed entry returned by probe
+     * @return EXACT, LOWER_BOUND or UPPER_BOUND
+     */
+    public static int flagOf(long entry) {
+        return (int) entry & 0xFF;
+    }
+
+    /**
+     * Gets the number of plies the position in an entry was searched to
+     * @param entry packed entry returned by probe
+     * @return search depth
+     */
+    public static int depthOf(long entry) {
+        return (int) (entry >>> 8) & 0xFF;
+    }
+
+    /**
+     * Gets the best spot held in an entry
+     * @param entry packed entry returned by probe
+     * @return index of the best spot in the canonical position, or NO_MOVE
+     */
+    public static int moveOf(long entry) {
+        return (int) (entry >>> 16) & 0xFF;
+    }
+
+    /**
+     * Removes every entry and resets the counters
+     */
+    public void clear() {
+        java.util.Arrays.fill(entries, 0);
+        hits = 0;
+        misses = 0;
+        stores = 0;
+    }
+
+    /**
+     * Gets the number of probes that found their position
+     * @return hit count
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of probes that did not find their position
+     * @return miss count
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of positions that have been stored
+     * @return store count
+     */
+    public long getStores() {
+        return stores;
+    }
+
+    private int bucketOf(long own, long other) {
+        long hash = (own * 0x9E3779B97F4A7C15L) ^ (other * 0xC2B2AE3D27D4EB4FL);
+        return (int) (hash >>> 40) & bucketMask;
+    }
+}
@@ -0,0 +1,213 @@
+package tictactoe;
+
+import java.util.SplittableRandom;
+
+public class UltimateAI extends PrincipalVariationSearch {
+
+    /**
+     * Chooses moves in Ultimate Tic Tac Toe. The game tree is far too big to search to the end, so the AI searches
+     * deeper and deeper with the principal variation search it shares with GomokuAI until its time budget runs out,
+     * scoring the positions it stops at by the boards each player has won and the lines they are building on the open
+     * boards and on the grid. Moves are played and undone on a single UltimateState, whose Zobrist hash includes the
+     * board the player to move is sent to, and moves are ordered by the table's best move and then by the history of
+     * cut-offs, so the search visits several million positions per second on one core
+     */
+
+    public static final long DEFAULT_TIME_BUDGET = 1000;
+
+    private static final int MAX_PLY = 82;
+
+    // Evaluation weights
+    private static final int[] BOARD_WEIGHTS = {3, 2, 3, 2, 4, 2, 3, 2, 3}; // The centre board is in the most lines
+    private static final int[] LINE_WEIGHTS = {0, 1, 8, 0}; // A line with this many spots and none of the opponent's
+    private static final int CLAIM_WEIGHT = 40; // Per board won, times the board's weight
+    private static final int GRID_WEIGHT = 60; // Per point of the grid's line score
+    private static final int FREE_MOVE = 20; // For the player to move being able to play on any board
+
+    // LINE_SCORES[own << 9 | blocked] is the line weight summed over the lines of a 3x3 board without a blocked spot
+    private static final short[] LINE_SCORES = new short[1 << 18];
+
+    // Zobrist keys for each player's spots and for the forced board, and for player 2 being to move
+    private static final long[][] KEYS = new long[3][UltimateState.CELLS];
+    private static final long[] FORCED_KEYS = new long[UltimateState.BOARDS + 1];
+    private static final long SIDE_KEY;
+
+    static {
+
+        for (int own = 0; own <= UltimateState.FULL; own++) {
+
+            for (int blocked = 0; blocked <= UltimateState.FULL; blocked++) {
+                int score = 0;
+
+                for (int line : UltimateState.LINES) {
+
+                    if ((line & blocked) == 0) {
+                        score += LINE_WEIGHTS[Integer.bitCount(own & line)];
+                    }
+                }
+
+                LINE_SCORES[own << 9 | blocked] = (short) score;
+            }
+        }
+
+        SplittableRandom random = new SplittableRandom(0x5EED);
+
+        for (int player = 1; player <= 2; player++) {
+
+            for (int index = 0; index < UltimateState.CELLS; index++) {
+                KEYS[player][index] = random.nextLong();
+            }
+        }
+
+        for (int board = 0; board < FORCED_KEYS.length; board++) {
+            FORCED_KEYS[board] = random.nextLong();
+        }
+
+        SIDE_KEY = random.nextLong();
+    }
+
+    private final int[] rootMoves = new int[UltimateState.CELLS];
+    private UltimateState state; // The position being searched, changed and changed back as the tree is walked
+    private long hash; // Zobrist hash of the spots held in the position being searched
+
+    /**
+     * New UltimateAI with an empty table
+     */
+    public UltimateAI() {
+        super(UltimateState.CELLS, MAX_PLY, DEFAULT_TIME_BUDGET, true);
+    }
+
+    /**
+     * Chooses a spot for the player to move, searching until the time budget runs out or the result is known
+     * @param position a game that is not over. It is not changed
+     * @return index of the spot to play
+     */
+    public int chooseMove(UltimateState position) {
+        return chooseMove(position, getGeneration());
+    }
+
+    /**
+     * Chooses a spot for the player to move, returning as soon as possible if stop has been called since the given
+     * generation
+     * @param position a game that is not over. It is not changed
+     * @param generation the generation when the move was asked for, from getGeneration
+     * @return index of the spot to play
+     */
+    public int chooseMove(UltimateState position, long generation) {
+        state = position.copy();
+        hash = 0;
+        start(generation);
+
+        for (int n = 0; n < state.getMoveCount(); n++) {
+            int player = (n % 2 == 0) == (state.getFirstPlayer() == 1) ? 1 : 2;
+            hash ^= KEYS[player][state.getMove(n)];
+        }
+
+        int count = state.legalMoves(rootMoves);
+        int best = searchRoot(rootMoves, count, UltimateState.CELLS - state.getMoveCount());
+        state = null;
+        return best;
+    }
+
+    /**
+     * Gets the result of the position being searched
+     * @return GameState.IN_PROGRESS, WIN or DRAW
+     */
+    @Override
+    int getResult() {
+        return state.getResult();
+    }
+
+    /**
+     * Gets the player to move in the position being searched
+     * @return 1 or 2
+     */
+    @Override
+    int getCurrentPlayer() {
+        return state.getCurrentPlayer();
+    }
+
+    /**
+     * Gets the Zobrist hash of the spots held in the position being searched, the board the player to move is sent to
+     * and the player to move
+     * @return hash of the position
+     */
+    @Override
+    long getKey() {
+        return hash ^ FORCED_KEYS[state.getForcedBoard() + 1] ^ (state.getCurrentPlayer() == 2 ? SIDE_KEY : 0);
+    }
+
+    /**
+     * Scores the position being searched by evaluate once the search has gone as deep as it may
+     * @param depth plies left to search
+     * @param ply plies from the root
+     * @return the score, or NO_SCORE if the position has to be searched
+     */
+    @Override
+    int leafScore(int depth, int ply) {
+        return depth <= 0 ? evaluate() : NO_SCORE;
+    }
+
+    /**
+     * Lists every legal move of the position being searched, leaving the ordering to the history of cut-offs
+     * @param out array of at least 81 entries the spots are written to
+     * @param ply plies from the root
+     * @return number of spots written
+     */
+    @Override
+    int listMoves(int[] out, int ply) {
+        return state.legalMoves(out);
+    }
+
+    /**
+     * Scores the current position for the player to move without searching
+     * @return positive if the player to move is ahead
+     */
+    private int evaluate() {
+        int player = state.getCurrentPlayer();
+        int opponent = 3 - player;
+        int score = 0;
+
+        for (int boards = state.getOpenBoards(); boards != 0; boards &= boards - 1) {
+            int board = Integer.numberOfTrailingZeros(boards);
+            int own = state.getCells(player, board);
+            int other = state.getCells(opponent, board);
+            score += (LINE_SCORES[own << 9 | other] - LINE_SCORES[other << 9 | own]) * BOARD_WEIGHTS[board];
+        }
+
+        int own = state.getClaimed(player);
+        int other = state.getClaimed(opponent);
+        int drawn = state.getDrawn();
+        score += (LINE_SCORES[own << 9 | other | drawn] - LINE_SCORES[other << 9 | own | drawn]) * GRID_WEIGHT;
+
+        for (int boards = own; boards != 0; boards &= boards - 1) {
+            score += BOARD_WEIGHTS[Integer.numberOfTrailingZeros(boards)] * CLAIM_WEIGHT;
+        }
+
+        for (int boards = other; boards != 0; boards &= boards - 1) {
+            score -= BOARD_WEIGHTS[Integer.numberOfTrailingZeros(boards)] * CLAIM_WEIGHT;
+        }
+
+        return state.getForcedBoard() == UltimateState.ANY_BOARD ? score + FREE_MOVE : score;
+    }
+
+    /**
+     * Plays a move for the player to move in the position being searched, updating its hash
+     * @param move index of the spot, which must be legal
+     */
+    @Override
+    void play(int move) {
+        hash ^= KEYS[state.getCurrentPlayer()][move];
+        state.play(move);
+    }
+
+    /**
+     * Takes back the last move played in the position being searched, updating its hash
+     * @param move index of the spot the move was played on
+     */
+    @Override
+    void undo(int move) {
+        state.undo();
+        hash ^= KEYS[state.getCurrentPlayer()][move];
+    }
+}
@@ -0,0 +1,248 @@
+package tictactoe;
+
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.scene.layout.Region;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+public class UltimateGame {
+
+    /**
+     * This class is responsible for handling a game of Ultimate Tic Tac Toe, as Game is for the classic game. The
+     * rules are kept in an UltimateState, and the 81 squares are laid out as a 9x9 grid, so the square in a column and
+     * row belongs to the board in column / 3 and row / 3. The boards the next move may be played on are highlighted,
+     * and a board that is won has its line crossed out. The AI searches on the same background thread as in Game
+     */
+
+    private static final String PLAYABLE_STYLE = "-fx-background-color: rgba(255, 255, 255, 0.3);";
+
+    private Square[] squares = new Square[UltimateState.CELLS]; // Indexed like the spots of UltimateState
+    private Region[] boards = new Region[UltimateState.BOARDS]; // The node holding each board's squares
+    private StringProperty displayText; // The text to be displayed in the game scene
+    private UltimateState state; // Player 1 is the AI and player 2 is the user
+    private UltimateAI ai;
+    private CompletableFuture<Integer> pendingMove; // The AI's search while it is running, otherwise null
+    private boolean cancelled; // Set once the game has been abandoned, so a search finishing late is not played
+
+    /**
+     * New UltimateGame against the given AI, with a random starting player
+     * @param ai the AI player, which may have played earlier games but must not be searching for another one
+     */
+    public UltimateGame(UltimateAI ai) {
+        this.ai = ai;
+        state = new UltimateState(new Random().nextInt(2) + 1);
+        displayText = new SimpleStringProperty();
+        showStatus();
+        GameStats.getInstance().gameStarted();
+    }
+
+    /**
+     * Gets the index of a spot from its place in the 9x9 grid of squares
+     * @param column column of the grid, 0 to 8
+     * @param row row of the grid, 0 to 8
+     * @return index of the spot in UltimateState
+     */
+    public static int index(int column, int row) {
+        int board = column / 3 * 3 + row / 3;
+        return board * 9 + column % 3 * 3 + row % 3;
+    }
+
+    /**
+     * Add a square to the game's squares, in the spot of the grid it belongs on
+     * @param square square to add
+     */
+    public void addSquare(Square square) {
+        squares[index(square.getColumn(), square.getRow())] = square;
+    }
+
+    /**
+     * Sets the node holding a board's squares, which is highlighted while the board may be played on
+     * @param board index of the board
+     * @param node the board's node
+     */
+    public void addBoard(int board, Region node) {
+        boards[board] = node;
+        showPlayable();
+    }
+
+    /**
+     * Play the user's move in the given square. Clicks while it is the AI's turn or off the boards that may be played
+     * on are ignored
+     * @param col column of the 9x9 grid
+     * @param row row of the 9x9 grid
+     */
+    public void movePlayed(int col, int row) {
+        int index = index(col, row);
+
+        if (state.getCurrentPlayer() == 2 && pendingMove == null && state.isLegal(index)) {
+            play(index);
+
+            if (state.getCurrentPlayer() == 1 && !state.isOver()) {
+                makeAIMove();
+            }
+        }
+    }
+
+    /**
+     * Gets the AI to chose a spot on the background thread, and then play a move there on the JavaFX application
+     * thread. Must be called on the JavaFX application thread while it is the AI's turn
+     * @return the spot that was played, which completes once the move is on the board
+     */
+    public CompletableFuture<Integer> makeAIMove() {
+        UltimateState position = state.copy();
+        long start = System.nanoTime();
+        long generation = ai.getGeneration(); // So cancelling stops the search even if it has not started yet
+        CompletableFuture<Integer> search = CompletableFuture.supplyAsync(() -> ai.chooseMove(position, generation),
+                Game.AI_THREAD);
+        pendingMove = search;
+        showPlayable(); // Nothing may be played until the AI has moved
+
+        return search.thenApplyAsync((index) -> {
+
+            if (!cancelled) {
+                pendingMove = null;
+                play(index);
+                GameStats.getInstance().aiMovePlayed(System.nanoTime() - start);
+            }
+
+            return index;
+        }, Platform::runLater);
+    }
+
+    /**
+     * Leaves the game, stopping the AI's search if it is still running. Must be called on the JavaFX application
+     * thread
+     */
+    public void cancel() {
+        cancelled = true;
+
+        if (pendingMove != null) {
+            pendingMove.cancel(false);
+            ai.stop();
+            pendingMove = null;
+        }
+    }
+
+    /**
+     * Play a move for the current player, and update the squares, highlighted boards and text to match
+     * @param index index of the spot, which must be legal
+     */
+    private void play(int index) {
+        int board = index / 9;
+        state.play(index);
+        GameStats.getInstance().movePlayed();
+
+        Square square = squares[index];
+
+        if (square != null && state.getOwner(index) == 1) {
+            square.drawCross();
+        }
+
+        else if (square != null) {
+            square.drawCircle();
+        }
+
+        if (state.getBoardWinner(board) != 0) {
+            crossOut(board, UltimateState.findLine(state.getCells(state.getBoardWinner(board), board)));
+        }
+
+        if (state.isOver()) {
+            GameStats.getInstance().gameFinished();
+        }
+
+        showPlayable();
+        showStatus();
+    }
+
+    /**
+     * Highlights the boards the user may play on next, or none while it is the AI's turn or the game is over
+     */
+    private void showPlayable() {
+        int forced = state.getForcedBoard();
+        int playable = forced == UltimateState.ANY_BOARD ? state.getOpenBoards() : 1 << forced;
+        boolean userTurn = state.getCurrentPlayer() == 2 && pendingMove == null && !state.isOver();
+
+        for (int board = 0; board < boards.length; board++) {
+
+            if (boards[board] != null) {
+                boards[board].setStyle(userTurn && (playable & (1 << board)) != 0 ? PLAYABLE_STYLE : "");
+            }
+        }
+    }
+
+    /**
+     * Sets the displayed text to whose turn it is or how the game ended
+     */
+    private void showStatus() {
+
+        if (state.getResult() == GameState.WIN) {
+            displayText.set(state.getWinner() == 1 ? "You Lose!" : "You Win!");
+        }
+
+        else if (state.getResult() == GameState.DRAW) {
+            displayText.set("It's a draw!");
+        }
+
+        else if (state.getCurrentPlayer() == 1) {
+            displayText.set("AI's turn to make a move");
+        }
+
+        else {
+            displayText.set("Your turn to make a move");
+        }
+    }
+
+    /**
+     * Crosses out every square of a line on a board, in the direction the line runs
+     * @param board index of the board
+     * @param line index of the line in BoardGeometry.CLASSIC
+     */
+    private void crossOut(int board, int line) {
+        BoardGeometry geometry = BoardGeometry.CLASSIC;
+        int columnStep = geometry.getLineColumnStep(line);
+        int rowStep = geometry.getLineRowStep(line);
+
+        for (long mask = geometry.getLines()[line]; mask != 0; mask &= mask - 1) {
+            Square square = squares[board * 9 + Long.numberOfTrailingZeros(mask)];
+
+            if (square == null) {
+                continue;
+            }
+
+            if (columnStep == 0) { // Down a column
+                square.crossOutVer();
+            }
+
+            else if (rowStep == 0) { // Across a row
+                square.crossOutHor();
+            }
+
+            else if (columnStep == rowStep) {
+                square.crossOutDia();
+            }
+
+            else {
+                square.crossOutRevDia();
+            }
+        }
+    }
+
+    /**
+     * Gets the text to display in the game scene
+     * @return the text to display
+     */
+    public StringProperty getDisplayText() {
+        return displayText;
+    }
+
+    /**
+     * Gets the current player
+     * @return the number of the current player
+     */
+    public int getCurrentPlayer() {
+        return state.getCurrentPlayer();
+    }
+}
@@ -0,0 +1,340 @@
+package tictactoe;
+
+public class UltimateState {
+
+    /**
+     * The rules of Ultimate Tic Tac Toe: a 3x3 grid of classic boards, where the spot a player takes in a small board
+     * sends the opponent to the small board in the same place in the grid. A player sent to a board that has been won
+     * or filled may play on any open board. Winning a small board claims its place in the grid, and three claimed
+     * places in a row win the game, which is drawn once every board is closed without one.
+     *
+     * Each small board is a 9 bit mask per player, indexed like BoardGeometry.CLASSIC, and so is the grid of boards
+     * each player has claimed, so finding a win is a single lookup. A spot's index is its board's index times 9 plus
+     * its index within the board. The moves played are kept in order so they can be undone, which is how the search
+     * walks the tree on a single state
+     */
+
+    public static final int BOARDS = 9;
+    public static final int CELLS = 81;
+    public static final int FULL = 0x1FF; // Every spot of a small board, or every board of the grid
+    public static final int ANY_BOARD = -1; // The forced board when the player may play on any open board
+
+    // The 8 lines of a 3x3 board, as masks of its 9 spots
+    static final int[] LINES = new int[8];
+
+    // WINS[mask] is true if the mask holds a whole line
+    static final boolean[] WINS = new boolean[FULL + 1];
+
+    static {
+        BoardGeometry classic = BoardGeometry.CLASSIC;
+
+        for (int line = 0; line < LINES.length; line++) {
+            LINES[line] = (int) classic.getLines()[line];
+        }
+
+        for (int mask = 0; mask <= FULL; mask++) {
+
+            for (int line : LINES) {
+
+                if ((mask & line) == line) {
+                    WINS[mask] = true;
+                }
+            }
+        }
+    }
+
+    private final int[][] cells = new int[3][BOARDS]; // Spots each player holds on each board, index 0 is unused
+    private final int[] claimed = new int[3]; // Boards each player has won
+    private final int[] moves = new int[CELLS]; // Every move played, in order
+    private final int firstPlayer;
+    private int drawn; // Boards filled without a winner
+    private int forced = ANY_BOARD; // The board the player to move must play on
+    private int currentPlayer;
+    private int moveCount;
+    private int result = GameState.IN_PROGRESS;
+    private int winner;
+
+    /**
+     * New UltimateState with every board empty
+     * @param firstPlayer the player to move first, 1 or 2
+     */
+    public UltimateState(int firstPlayer) {
+
+        if (firstPlayer != 1 && firstPlayer != 2) {
+            throw new IllegalArgumentException("Players are numbered 1 and 2");
+        }
+
+        this.firstPlayer = firstPlayer;
+        currentPlayer = firstPlayer;
+    }
+
+    /**
+     * Copies this state, so that moves can be tried out on the copy
+     * @return a new state with the same spots, player to move and result
+     */
+    public UltimateState copy() {
+        UltimateState copy = new UltimateState(firstPlayer);
+        System.arraycopy(cells[1], 0, copy.cells[1], 0, BOARDS);
+        System.arraycopy(cells[2], 0, copy.cells[2], 0, BOARDS);
+        System.arraycopy(claimed, 0, copy.claimed, 0, 3);
+        System.arraycopy(moves, 0, copy.moves, 0, moveCount);
+        copy.drawn = drawn;
+        copy.forced = forced;
+        copy.currentPlayer = currentPlayer;
+        copy.moveCount = moveCount;
+        copy.result = result;
+        copy.winner = winner;
+        return copy;
+    }
+
+    /**
+     * Lists the spots the player to move may play in, board by board
+     * @param out array of at least 81 entries the spots are written to
+     * @return number of spots written, 0 if the game is over
+     */
+    public int legalMoves(int[] out) {
+
+        if (result != GameState.IN_PROGRESS) {
+            return 0;
+        }
+
+        int count = 0;
+        int boards = forced == ANY_BOARD ? getOpenBoards() : 1 << forced;
+
+        for (; boards != 0; boards &= boards - 1) {
+            int board = Integer.numberOfTrailingZeros(boards);
+
+            for (int free = ~(cells[1][board] | cells[2][board]) & FULL; free != 0; free &= free - 1) {
+                out[count++] = board * 9 + Integer.numberOfTrailingZeros(free);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Checks if a move can be played in the given spot
+     * @param index index of the spot
+     * @return true if the game is not over, the spot is empty and its board may be played on
+     */
+    public boolean isLegal(int index) {
+
+        if (index < 0 || index >= CELLS || result != GameState.IN_PROGRESS) {
+            return false;
+        }
+
+        int board = index / 9;
+        int bit = 1 << (index % 9);
+        boolean boardAllowed = forced == ANY_BOARD ? (getOpenBoards() & (1 << board)) != 0 : forced == board;
+        return boardAllowed && ((cells[1][board] | cells[2][board]) & bit) == 0;
+    }
+
+    /**
+     * Plays a move for the current player, claiming the spot's board if it completes a line there and ending the game
+     * if that completes a line of boards. The spot must be legal
+     * @param index index of the spot
+     */
+    public void play(int index) {
+        int board = index / 9;
+        int cell = index % 9;
+        int player = currentPlayer;
+        int mask = cells[player][board] | (1 << cell);
+        cells[player][board] = mask;
+
+        if (WINS[mask]) {
+            claimed[player] |= 1 << board;
+
+            if (WINS[claimed[player]]) {
+                result = GameState.WIN;
+                winner = player;
+            }
+        }
+
+        else if ((mask | cells[3 - player][board]) == FULL) {
+            drawn |= 1 << board;
+        }
+
+        if (result == GameState.IN_PROGRESS && getOpenBoards() == 0) {
+            result = GameState.DRAW;
+        }
+
+        moves[moveCount++] = index;
+        forced = (getOpenBoards() & (1 << cell)) != 0 ? cell : ANY_BOARD;
+        currentPlayer = 3 - player;
+    }
+
+    /**
+     * Takes back the last move played
+     * @return index of the spot that was emptied
+     */
+    public int undo() {
+        int index = moves[--moveCount];
+        int board = index / 9;
+        int player = 3 - currentPlayer;
+        cells[player][board] &= ~(1 << (index % 9));
+
+        // The board was open before the move, so whatever closed it was this move
+        claimed[player] &= ~(1 << board);
+        drawn &= ~(1 << board);
+        result = GameState.IN_PROGRESS;
+        winner = 0;
+        currentPlayer = player;
+
+        if (moveCount == 0) {
+            forced = ANY_BOARD;
+        }
+
+        else {
+            int cell = moves[moveCount - 1] % 9;
+            forced = (getOpenBoards() & (1 << cell)) != 0 ? cell : ANY_BOARD;
+        }
+
+        return index;
+    }
+
+    /**
+     * Gets the boards that are neither won nor full
+     * @return mask of the open boards
+     */
+    public int getOpenBoards() {
+        return ~(claimed[1] | claimed[2] | drawn) & FULL;
+    }
+
+    /**
+     * Gets the board the player to move must play on
+     * @return index of the board, or ANY_BOARD if any open board may be played on
+     */
+    public int getForcedBoard() {
+        return forced;
+    }
+
+    /**
+     * Gets the spots a player holds on a board
+     * @param player 1 or 2
+     * @param board index of the board
+     * @return mask of the spots, indexed like BoardGeometry.CLASSIC
+     */
+    public int getCells(int player, int board) {
+        return cells[player][board];
+    }
+
+    /**
+     * Gets the boards a player has won
+     * @param player 1 or 2
+     * @return mask of the boards
+     */
+    public int getClaimed(int player) {
+        return claimed[player];
+    }
+
+    /**
+     * Gets the boards that were filled without a winner
+     * @return mask of the boards
+     */
+    public int getDrawn() {
+        return drawn;
+    }
+
+    /**
+     * Gets the player who won a board
+     * @param board index of the board
+     * @return 1 or 2, or 0 if nobody has won it
+     */
+    public int getBoardWinner(int board) {
+
+        if ((claimed[1] & (1 << board)) != 0) {
+            return 1;
+        }
+
+        return (claimed[2] & (1 << board)) != 0 ? 2 : 0;
+    }
+
+    /**
+     * Gets the player who holds a spot
+     * @param index index of the spot
+     * @return 1 or 2, or 0 if the spot is empty
+     */
+    public int getOwner(int index) {
+        int bit = 1 << (index % 9);
+
+        if ((cells[1][index / 9] & bit) != 0) {
+            return 1;
+        }
+
+        return (cells[2][index / 9] & bit) != 0 ? 2 : 0;
+    }
+
+    /**
+     * Finds the line a player completed on a board, or on the grid of boards
+     * @param mask the spots or boards the player holds
+     * @return index of the line in BoardGeometry.CLASSIC, or -1 if there is none
+     */
+    public static int findLine(int mask) {
+
+        for (int line = 0; line < LINES.length; line++) {
+
+            if ((mask & LINES[line]) == LINES[line]) {
+                return line;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the result of the game
+     * @return GameState.IN_PROGRESS, WIN or DRAW
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * Checks if the game is over
+     * @return true if the game has been won or drawn
+     */
+    public boolean isOver() {
+        return result != GameState.IN_PROGRESS;
+    }
+
+    /**
+     * Gets the player to move
+     * @return 1 or 2
+     */
+    public int getCurrentPlayer() {
+        return currentPlayer;
+    }
+
+    /**
+     * Gets the winner of the game
+     * @return 1 or 2, or 0 if there is no winner
+     */
+    public int getWinner() {
+        return winner;
+    }
+
+    /**
+     * Gets the number of moves played
+     * @return move count
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Gets a move played earlier in the game
+     * @param number number of the move, counting from 0
+     * @return index of the spot played
+     */
+    public int getMove(int number) {
+        return moves[number];
+    }
+
+    /**
+     * Gets the player who moved first
+     * @return 1 or 2
+     */
+    public int getFirstPlayer() {
+        return firstPlayer;
+    }
+}
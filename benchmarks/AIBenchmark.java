@@ -0,0 +1,68 @@
+package tictactoe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AIBenchmark {
+
+    /**
+     * Measures how long the AI takes to choose a move on the classic board, for positions at each stage of a game.
+     * With the policy table every move is a lookup. Without it the AI searches, and its transposition table is
+     * cleared before every move so each search starts cold
+     */
+
+    // Moves played so far in each position, alternating between the player to move and the opponent
+    private static final int[][] POSITIONS = {
+            {}, // Empty board
+            {0}, // After one move in the corner
+            {4, 0, 8}, // Mid-game
+            {4, 0, 8, 2, 1, 7} // Near the end
+    };
+
+    @Param({"0", "1", "2", "3"})
+    public int position;
+
+    @Param({"true", "false"})
+    public boolean policy;
+
+    private AI ai;
+    private GameState state;
+
+    @Setup
+    public void setup() {
+        ai = new AI(BoardGeometry.CLASSIC, new TranspositionTable(4096), policy ? PolicyTable.getDefault() : null);
+        int[] moves = POSITIONS[position];
+        state = new GameState(BoardGeometry.CLASSIC, moves.length % 2 == 0 ? 1 : 2); // Player 1 moves next
+
+        for (int move : moves) {
+            state.play(move);
+        }
+    }
+
+    @Benchmark
+    public int chooseMove() {
+
+        if (!policy) {
+            ai.getTable().clear();
+        }
+
+        return ai.chooseMove(state);
+    }
+}
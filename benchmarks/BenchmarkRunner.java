@@ -0,0 +1,33 @@
+package tictactoe;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {
+
+    /**
+     * Runs every benchmark with the GC profiler, which adds the allocation rate to each result, and writes the
+     * results as JSON so runs from different commits can be compared. Usage:
+     * java tictactoe.BenchmarkRunner [results file] [benchmark name pattern]
+     */
+
+    /**
+     * Runs the benchmarks
+     * @param args the file to write results to, jmh-result.json if not given, and a pattern to pick benchmarks
+     * @throws RunnerException if the benchmarks fail
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 1 ? args[1] : "tictactoe\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(args.length > 0 ? args[0] : "jmh-result.json")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,64 @@
+package tictactoe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameLoopBenchmark {
+
+    /**
+     * Measures whole games on the classic board, from the empty board until the game is won or drawn, the same way
+     * BatchRunner plays them
+     */
+
+    private AI ai;
+    private AI opponent;
+    private SplittableRandom random;
+    private int first = 1;
+
+    @Setup
+    public void setup() {
+        ai = new AI();
+        opponent = new AI();
+        random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public int aiAgainstAI() {
+        GameState state = new GameState(BoardGeometry.CLASSIC, first = 3 - first);
+
+        while (!state.isOver()) {
+            state.play((state.getCurrentPlayer() == 1 ? ai : opponent).chooseMove(state));
+        }
+
+        return state.getWinner();
+    }
+
+    @Benchmark
+    public int aiAgainstRandom() {
+        GameState state = new GameState(BoardGeometry.CLASSIC, first = 3 - first);
+
+        while (!state.isOver()) {
+            state.play(state.getCurrentPlayer() == 1 ? ai.chooseMove(state)
+                    : BatchRunner.randomMove(state.legalMoves(), random));
+        }
+
+        return state.getWinner();
+    }
+}
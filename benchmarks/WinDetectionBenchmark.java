@@ -0,0 +1,67 @@
+package tictactoe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WinDetectionBenchmark {
+
+    /**
+     * Measures the win check used by GameState and the AI after every move: checking the lines through the spot just
+     * played, and finding the completed line once a game is won. Runs over a fixed set of random masks so the
+     * branches cannot be predicted perfectly
+     */
+
+    @Param({"3x3x3", "5x5x4", "7x7x5"})
+    public String board;
+
+    private BoardGeometry geometry;
+    private long[] masks;
+    private int[] spots;
+    private int next;
+
+    @Setup
+    public void setup() {
+        String[] sizes = board.split("x");
+        geometry = new BoardGeometry(Integer.parseInt(sizes[0]), Integer.parseInt(sizes[1]),
+                Integer.parseInt(sizes[2]));
+        SplittableRandom random = new SplittableRandom(42);
+        masks = new long[1024];
+        spots = new int[masks.length];
+
+        for (int i = 0; i < masks.length; i++) {
+            masks[i] = random.nextLong() & geometry.getFullBoard();
+            spots[i] = random.nextInt(geometry.getCells());
+            masks[i] |= 1L << spots[i];
+        }
+    }
+
+    @Benchmark
+    public boolean isWin() {
+        int i = next++ & (masks.length - 1);
+        return geometry.isWin(masks[i], spots[i]);
+    }
+
+    @Benchmark
+    public int findLine() {
+        int i = next++ & (masks.length - 1);
+        return geometry.findLine(masks[i]);
+    }
+}